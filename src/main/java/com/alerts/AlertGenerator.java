@@ -4,31 +4,44 @@ import com.alerts.factories.AlertFactory;
 import com.alerts.factories.BloodOxygenAlertFactory;
 import com.alerts.factories.BloodPressureAlertFactory;
 import com.alerts.factories.ECGAlertFactory;
-import com.data_management.DataStorage;
+import com.data_management.AbstractDataStorage;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.SampleConsumer;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Generates alerts based on patient data.
+ * The checks stream primitive samples from the storage into reusable visitors,
+ * so evaluating a patient allocates nothing unless an alert is raised. An
+ * AlertGenerator is therefore not safe for use by several threads at once.
  */
 public class AlertGenerator {
-    private DataStorage storageSystem;
+    private static final int SYSTOLIC_PRESSURE = RecordTypeDictionary.idOf("SystolicPressure");
+    private static final int DIASTOLIC_PRESSURE = RecordTypeDictionary.idOf("DiastolicPressure");
+    private static final int SATURATION = RecordTypeDictionary.idOf("Saturation");
+    private static final int ECG = RecordTypeDictionary.idOf("ECG");
+    private static final long NONE = Long.MIN_VALUE;
+
+    private AbstractDataStorage storageSystem;
     private List<Alert> alerts;
     private AlertFactory bloodPressureFactory;
     private AlertFactory bloodOxygenFactory;
     private AlertFactory ecgFactory;
+    private final LowValueScan lowValues = new LowValueScan();
+    private final PressureScan pressureScan = new PressureScan();
+    private final OxygenScan oxygenScan = new OxygenScan();
+    private final EcgScan ecgScan = new EcgScan();
+    private final IntervalScan intervalScan = new IntervalScan();
 
     /**
      * Constructs an AlertGenerator with the given DataStorage instance.
      * 
      * @param storageSystem the data storage system
      */
-    public AlertGenerator(DataStorage storageSystem) {
+    public AlertGenerator(AbstractDataStorage storageSystem) {
         this.storageSystem = storageSystem;
         this.alerts = new ArrayList<>();
         this.bloodPressureFactory = new BloodPressureAlertFactory();
@@ -40,36 +53,50 @@ public class AlertGenerator {
      * Evaluates the patient data and generates alerts based on various conditions.
      * 
      * @param patient the patient whose data is being evaluated
+     * @see #evaluateData(int)
      */
     public void evaluateData(Patient patient) {
         if (patient == null) {
             throw new NullPointerException("No patient data available.");
         }
-        checkBloodPressure(patient);
-        checkOxygenLevels(patient);
-        checkECGReadings(patient);
-        checkHypotensiveHypoxemia(patient);
+        evaluateData(patient.getPatientId());
+    }
+
+    /**
+     * Evaluates the data of the patient with the given id and generates alerts.
+     * The patient is only read through the storage, so this also works for the
+     * patients of a remote shard, which are known by id only. All checks look
+     * back from the same current time, so checks over the same window issue
+     * identical queries that the storage's query cache can share.
+     *
+     * @param patientId the unique identifier of the patient
+     */
+    public void evaluateData(int patientId) {
+        long currentTime = System.currentTimeMillis();
+        checkBloodPressure(patientId, currentTime);
+        checkOxygenLevels(patientId, currentTime);
+        checkECGReadings(patientId, currentTime);
+        checkHypotensiveHypoxemia(patientId, currentTime);
     }
 
     /**
      * Checks the patient's records for signs of hypotensive hypoxemia and generates
      * an alert if conditions are met.
      * 
-     * @param patient the patient to check
+     * @param patientId   the id of the patient to check
+     * @param currentTime the time the checked windows end at
      */
-    private void checkHypotensiveHypoxemia(Patient patient) {
-        long currentTime = System.currentTimeMillis();
-        List<PatientRecord> records = storageSystem.getRecords(patient.getPatientId(), currentTime - 600000,
-                currentTime);
-
-        boolean lowBP = records.stream()
-                .anyMatch(r -> "SystolicPressure".equals(r.getRecordType()) && r.getMeasurementValue() < 90);
-        boolean lowOxygen = records.stream()
-                .anyMatch(r -> "Saturation".equals(r.getRecordType()) && r.getMeasurementValue() < 92);
+    private void checkHypotensiveHypoxemia(int patientId, long currentTime) {
+        lowValues.reset(90);
+        storageSystem.forEach(patientId, SYSTOLIC_PRESSURE, currentTime - 600000, currentTime, false, lowValues);
+        boolean lowBP = lowValues.found;
+        lowValues.reset(92);
+        storageSystem.forEach(patientId, SATURATION, currentTime - 600000, currentTime, false, lowValues);
+        boolean lowOxygen = lowValues.found;
 
         if (lowBP && lowOxygen) {
             generateAlert(
-                    new Alert(String.valueOf(patient.getPatientId()), "Hypotensive Hypoxemia Alert", currentTime));
+                    new Alert(String.valueOf(patientId), "Hypotensive Hypoxemia Alert", currentTime));
         }
     }
 
@@ -77,164 +104,101 @@ public class AlertGenerator {
      * Checks the patient's blood pressure records and generates alerts based on
      * critical values or trends.
      * 
-     * @param patient the patient whose blood pressure is being checked
+     * @param patientId   the id of the patient whose blood pressure is being checked
+     * @param currentTime the time the checked windows end at
      */
-    private void checkBloodPressure(Patient patient) {
-        long currentTime = System.currentTimeMillis();
+    private void checkBloodPressure(int patientId, long currentTime) {
         long oneDayAgo = currentTime - 86400000;
 
-        List<PatientRecord> systolicRecords = getRecords(patient, oneDayAgo, currentTime, "SystolicPressure");
-        List<PatientRecord> diastolicRecords = getRecords(patient, oneDayAgo, currentTime, "DiastolicPressure");
-
-        evaluatePressureAlerts(systolicRecords, "Systolic", currentTime, patient);
-        evaluatePressureAlerts(diastolicRecords, "Diastolic", currentTime, patient);
-    }
-
-    /**
-     * Retrieves records of a specific type for a given patient within a time range.
-     * 
-     * @param patient    the patient whose records are being retrieved
-     * @param startTime  the start time of the range
-     * @param endTime    the end time of the range
-     * @param recordType the type of record to retrieve
-     * @return a list of matching records
-     */
-    private List<PatientRecord> getRecords(Patient patient, long startTime, long endTime, String recordType) {
-        return storageSystem.getRecords(patient.getPatientId(), startTime, endTime).stream()
-                .filter(r -> recordType.equals(r.getRecordType()))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp).reversed())
-                .collect(Collectors.toList());
+        evaluatePressureAlerts(SYSTOLIC_PRESSURE, "Systolic", oneDayAgo, currentTime, patientId);
+        evaluatePressureAlerts(DIASTOLIC_PRESSURE, "Diastolic", oneDayAgo, currentTime, patientId);
     }
 
     /**
      * Evaluates the patient's blood pressure records for critical values and
-     * trends, generating alerts accordingly.
+     * trends, generating alerts accordingly. The records are visited newest
+     * first.
      * 
-     * @param records     the list of patient records
-     * @param type        the type of pressure (Systolic/Diastolic)
-     * @param currentTime the current time for alert timestamps
-     * @param patient     the patient whose records are being checked
+     * @param recordTypeId the dictionary id of the pressure record type
+     * @param type         the type of pressure (Systolic/Diastolic)
+     * @param startTime    the start of the time range to check
+     * @param currentTime  the current time for alert timestamps
+     * @param patientId    the id of the patient whose records are being checked
      */
-    private void evaluatePressureAlerts(List<PatientRecord> records, String type, long currentTime, Patient patient) {
-        if (records.isEmpty())
-            return;
+    private void evaluatePressureAlerts(int recordTypeId, String type, long startTime, long currentTime,
+            int patientId) {
+        pressureScan.reset(patientId, recordTypeId, type);
+        int count = storageSystem.forEach(patientId, recordTypeId, startTime, currentTime, true, pressureScan);
 
-        records.forEach(record -> {
-            if (isCriticalPressure(record, type)) {
-                generateAlert(new Alert(String.valueOf(patient.getPatientId()), "Critical " + type + " Pressure Alert",
-                        record.getTimestamp()));
-            }
-        });
-
-        if (records.size() >= 3) {
-            if (hasPressureTrend(records, true)) {
-                generateAlert(new Alert(String.valueOf(patient.getPatientId()),
+        if (count >= 3) {
+            if (pressureScan.increasing) {
+                generateAlert(new Alert(String.valueOf(patientId),
                         type + " Pressure Increasing Trend Alert", currentTime));
-            } else if (hasPressureTrend(records, false)) {
-                generateAlert(new Alert(String.valueOf(patient.getPatientId()),
+            } else if (pressureScan.decreasing) {
+                generateAlert(new Alert(String.valueOf(patientId),
                         type + " Pressure Decreasing Trend Alert", currentTime));
             }
         }
     }
 
     /**
-     * Determines if a given record indicates critical blood pressure values.
-     * 
-     * @param record the patient record
-     * @param type   the type of pressure (Systolic/Diastolic)
-     * @return true if the record indicates critical values, false otherwise
-     */
-    private boolean isCriticalPressure(PatientRecord record, String type) {
-        return ("Systolic".equals(type) && (record.getMeasurementValue() > 180 || record.getMeasurementValue() < 90)) ||
-                ("Diastolic".equals(type) && (record.getMeasurementValue() > 120 || record.getMeasurementValue() < 60));
-    }
-
-    /**
-     * Determines if the patient's blood pressure records show a trend of increasing
-     * or decreasing values.
+     * Determines if a given value indicates critical blood pressure.
      * 
-     * @param records    the list of records
-     * @param increasing true to check for increasing trend, false for decreasing
-     *                   trend
-     * @return true if a significant trend is detected, false otherwise
+     * @param recordTypeId the dictionary id of the pressure record type
+     * @param value        the measured pressure
+     * @return true if the value is critical, false otherwise
      */
-    private boolean hasPressureTrend(List<PatientRecord> records, boolean increasing) {
-        for (int i = 0; i < records.size() - 1; i++) {
-            if (increasing && records.get(i).getMeasurementValue() - records.get(i + 1).getMeasurementValue() <= 10)
-                return false;
-            if (!increasing && records.get(i + 1).getMeasurementValue() - records.get(i).getMeasurementValue() <= 10)
-                return false;
-        }
-        return true;
+    private boolean isCriticalPressure(int recordTypeId, double value) {
+        return (recordTypeId == SYSTOLIC_PRESSURE && (value > 180 || value < 90)) ||
+                (recordTypeId == DIASTOLIC_PRESSURE && (value > 120 || value < 60));
     }
 
     /**
      * Checks the patient's oxygen saturation records and generates alerts for low
      * levels or rapid drops.
      * 
-     * @param patient the patient whose oxygen levels are being checked
+     * @param patientId   the id of the patient whose oxygen levels are being checked
+     * @param currentTime the time the checked windows end at
      */
-    private void checkOxygenLevels(Patient patient) {
-        long currentTime = System.currentTimeMillis();
-        List<PatientRecord> records = getRecords(patient, currentTime - 600000, currentTime, "Saturation");
-
-        records.stream()
-                .filter(r -> r.getMeasurementValue() < 92)
-                .findFirst()
-                .ifPresent(record -> generateAlert(new Alert(String.valueOf(patient.getPatientId()),
-                        "Low Saturation Alert", record.getTimestamp())));
-
-        for (int i = 1; i < records.size(); i++) {
-            if (100.0 * (records.get(i - 1).getMeasurementValue() - records.get(i).getMeasurementValue())
-                    / records.get(i - 1).getMeasurementValue() >= 5) {
-                generateAlert(new Alert(String.valueOf(patient.getPatientId()), "Rapid Oxygen Drop Alert",
-                        records.get(i).getTimestamp()));
-                break;
-            }
+    private void checkOxygenLevels(int patientId, long currentTime) {
+        oxygenScan.reset();
+        storageSystem.forEach(patientId, SATURATION, currentTime - 600000, currentTime, true, oxygenScan);
+
+        if (oxygenScan.lowTimestamp != NONE) {
+            generateAlert(new Alert(String.valueOf(patientId), "Low Saturation Alert", oxygenScan.lowTimestamp));
+        }
+        if (oxygenScan.dropTimestamp != NONE) {
+            generateAlert(new Alert(String.valueOf(patientId), "Rapid Oxygen Drop Alert", oxygenScan.dropTimestamp));
         }
     }
 
     /**
      * Checks the patient's ECG records for abnormal heart rates or irregular beats
-     * and generates alerts accordingly.
+     * and generates alerts accordingly. A beat is irregular when its interval
+     * to the neighbouring record differs from the average interval of the hour
+     * by more than 10%.
      * 
-     * @param patient the patient whose ECG readings are being checked
+     * @param patientId   the id of the patient whose ECG readings are being checked
+     * @param currentTime the time the checked windows end at
      */
-    private void checkECGReadings(Patient patient) {
-        long currentTime = System.currentTimeMillis();
-        List<PatientRecord> ecgRecords = getRecords(patient, currentTime - 3600000, currentTime, "ECG");
-
-        ecgRecords.stream()
-                .filter(record -> record.getMeasurementValue() < 50 || record.getMeasurementValue() > 100)
-                .findFirst()
-                .ifPresent(record -> generateAlert(new Alert(String.valueOf(patient.getPatientId()),
-                        "Abnormal Heart Rate Alert", record.getTimestamp())));
-
-        double avgInterval = computeAverageInterval(ecgRecords);
-        double allowableDeviation = avgInterval * 0.1;
-
-        for (int i = 1; i < ecgRecords.size(); i++) {
-            long intervalDiff = Math.abs(ecgRecords.get(i).getTimestamp() - ecgRecords.get(i - 1).getTimestamp());
-            if (Math.abs(intervalDiff - avgInterval) > allowableDeviation) {
-                generateAlert(new Alert(String.valueOf(patient.getPatientId()), "Irregular Beat Alert",
-                        ecgRecords.get(i).getTimestamp()));
-                break;
-            }
+    private void checkECGReadings(int patientId, long currentTime) {
+        ecgScan.reset();
+        int count = storageSystem.forEach(patientId, ECG, currentTime - 3600000, currentTime, true, ecgScan);
+
+        if (ecgScan.abnormalTimestamp != NONE) {
+            generateAlert(new Alert(String.valueOf(patientId), "Abnormal Heart Rate Alert", ecgScan.abnormalTimestamp));
+        }
+        if (count < 2) {
+            return;
         }
-    }
 
-    /**
-     * Computes the average interval between consecutive ECG records.
-     * 
-     * @param ecgRecords the list of ECG records
-     * @return the average interval in milliseconds
-     */
-    private double computeAverageInterval(List<PatientRecord> ecgRecords) {
-        long totalInterval = 0;
-        for (int i = 1; i < ecgRecords.size(); i++) {
-            totalInterval += ecgRecords.get(i).getTimestamp() - ecgRecords.get(i - 1).getTimestamp();
+        double avgInterval = (double) (ecgScan.newest - ecgScan.oldest) / (count - 1);
+        intervalScan.reset(avgInterval, avgInterval * 0.1);
+        storageSystem.forEach(patientId, ECG, currentTime - 3600000, currentTime, true, intervalScan);
+        if (intervalScan.irregularTimestamp != NONE) {
+            generateAlert(new Alert(String.valueOf(patientId), "Irregular Beat Alert",
+                    intervalScan.irregularTimestamp));
         }
-        return (double) totalInterval / (ecgRecords.size() - 1);
     }
 
     /**
@@ -256,4 +220,144 @@ public class AlertGenerator {
     public List<Alert> getAlerts() {
         return new ArrayList<>(alerts);
     }
+
+    /**
+     * Records whether any visited value is below a threshold.
+     */
+    private static final class LowValueScan implements SampleConsumer {
+        private double threshold;
+        private boolean found;
+
+        void reset(double threshold) {
+            this.threshold = threshold;
+            this.found = false;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            found |= value < threshold;
+        }
+    }
+
+    /**
+     * Raises an alert for every critical pressure and tracks whether each
+     * reading is more than 10 above (increasing) or below (decreasing) the
+     * older reading that follows it.
+     */
+    private final class PressureScan implements SampleConsumer {
+        private int patientId;
+        private int recordTypeId;
+        private String type;
+        private boolean first;
+        private double newer;
+        private boolean increasing;
+        private boolean decreasing;
+
+        void reset(int patientId, int recordTypeId, String type) {
+            this.patientId = patientId;
+            this.recordTypeId = recordTypeId;
+            this.type = type;
+            this.first = true;
+            this.increasing = true;
+            this.decreasing = true;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (isCriticalPressure(recordTypeId, value)) {
+                generateAlert(new Alert(String.valueOf(patientId), "Critical " + type + " Pressure Alert", timestamp));
+            }
+            if (!first) {
+                increasing &= newer - value > 10;
+                decreasing &= value - newer > 10;
+            }
+            first = false;
+            newer = value;
+        }
+    }
+
+    /**
+     * Finds the newest low saturation and the newest 5% change between
+     * consecutive saturation readings.
+     */
+    private static final class OxygenScan implements SampleConsumer {
+        private long lowTimestamp;
+        private long dropTimestamp;
+        private boolean first;
+        private double newer;
+
+        void reset() {
+            lowTimestamp = NONE;
+            dropTimestamp = NONE;
+            first = true;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (lowTimestamp == NONE && value < 92) {
+                lowTimestamp = timestamp;
+            }
+            if (!first && dropTimestamp == NONE && 100.0 * (newer - value) / newer >= 5) {
+                dropTimestamp = timestamp;
+            }
+            first = false;
+            newer = value;
+        }
+    }
+
+    /**
+     * Finds the newest abnormal heart rate and the time span of the readings.
+     */
+    private static final class EcgScan implements SampleConsumer {
+        private long abnormalTimestamp;
+        private boolean first;
+        private long newest;
+        private long oldest;
+
+        void reset() {
+            abnormalTimestamp = NONE;
+            first = true;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (abnormalTimestamp == NONE && (value < 50 || value > 100)) {
+                abnormalTimestamp = timestamp;
+            }
+            if (first) {
+                newest = timestamp;
+                first = false;
+            }
+            oldest = timestamp;
+        }
+    }
+
+    /**
+     * Finds the newest reading whose interval to the previously visited one
+     * deviates from the average interval by more than the allowed amount.
+     */
+    private static final class IntervalScan implements SampleConsumer {
+        private double avgInterval;
+        private double allowableDeviation;
+        private long irregularTimestamp;
+        private boolean first;
+        private long newer;
+
+        void reset(double avgInterval, double allowableDeviation) {
+            this.avgInterval = avgInterval;
+            this.allowableDeviation = allowableDeviation;
+            this.irregularTimestamp = NONE;
+            this.first = true;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (!first && irregularTimestamp == NONE
+                    && Math.abs(newer - timestamp - avgInterval) > allowableDeviation) {
+                irregularTimestamp = timestamp;
+            }
+            first = false;
+            newer = timestamp;
+        }
+    }
 }
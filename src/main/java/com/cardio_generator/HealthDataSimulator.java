@@ -34,6 +34,8 @@ import java.util.ArrayList;
 
 public class HealthDataSimulator {
 
+    private static final int BINARY_FRAME_SAMPLES = 512;
+    private static final long BINARY_FRAME_DELAY_MILLIS = 20;
     private static int patientCount = 50; // Default number of patients
     private static ScheduledExecutorService scheduler;
     private static OutputStrategy outputStrategy = new ConsoleOutputStrategy(); // Default output strategy
@@ -120,6 +122,16 @@ public class HealthDataSimulator {
                                 System.err.println(
                                         "Invalid port for WebSocket output. Please specify a valid port number.");
                             }
+                        } else if (outputArg.startsWith("websocket-binary:")) {
+                            try {
+                                int port = Integer.parseInt(outputArg.substring(17));
+                                outputStrategy = new WebSocketOutputStrategy(port, BINARY_FRAME_SAMPLES,
+                                        BINARY_FRAME_DELAY_MILLIS);
+                                System.out.println("Binary WebSocket output will be on port: " + port);
+                            } catch (NumberFormatException e) {
+                                System.err.println(
+                                        "Invalid port for WebSocket output. Please specify a valid port number.");
+                            }
                         } else if (outputArg.startsWith("tcp:")) {
                             try {
                                 int port = Integer.parseInt(outputArg.substring(4));
@@ -157,6 +169,7 @@ public class HealthDataSimulator {
         System.out.println("                             'console' for console output,");
         System.out.println("                             'file:<directory>' for file output,");
         System.out.println("                             'websocket:<port>' for WebSocket output,");
+        System.out.println("                             'websocket-binary:<port>' for WebSocket output in binary frames,");
         System.out.println("                             'tcp:<port>' for TCP socket output.");
         System.out.println("Example:");
         System.out.println("  java HealthDataSimulator --patient-count 100 --output websocket:8080");
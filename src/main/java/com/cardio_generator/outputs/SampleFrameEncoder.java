@@ -0,0 +1,188 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs samples into the compact binary frames sent by
+ * {@link WebSocketOutputStrategy} when binary output is enabled. A frame is
+ * self-contained, so a client can decode any frame without having seen the
+ * ones before it:
+ *
+ * <pre>
+ * byte    format version, 1
+ * varint  number of labels
+ *         per label: varint byte length, UTF-8 bytes
+ * varint  number of samples
+ *         per sample:
+ *           varint  patient id, zigzag
+ *           varint  label index &lt;&lt; 1 | 1 if the value is integral
+ *           varint  timestamp minus the previous sample's timestamp (0 for
+ *                   the first sample), zigzag
+ *           varint  the value, zigzag, if integral; otherwise the 8 bytes of
+ *                   the double, big-endian
+ * </pre>
+ *
+ * Varints are unsigned LEB128: seven bits per byte, least significant group
+ * first, the high bit set on every byte but the last. Each label is written
+ * once per frame and referenced by its index, and timestamps are written as
+ * the small differences between consecutive samples, so a sample costs about
+ * a quarter of its text form.
+ * <p>
+ * An encoder is not thread-safe.
+ */
+public final class SampleFrameEncoder {
+    public static final byte FORMAT_VERSION = 1;
+
+    private final int maxSamples;
+    private final List<String> labels = new ArrayList<>();
+    private byte[] samples = new byte[256];
+    private int length;
+    private int sampleCount;
+    private long previousTimestamp;
+
+    /**
+     * Constructs an encoder for frames of up to the given number of samples.
+     *
+     * @param maxSamples the number of samples after which a frame is full
+     */
+    public SampleFrameEncoder(int maxSamples) {
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException("A frame must hold at least one sample");
+        }
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Adds a sample to the current frame.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param timestamp the time of the measurement, in milliseconds since the
+     *                  Unix epoch
+     * @param label     the record type
+     * @param value     the measured value
+     * @return true if the frame is now full and should be finished
+     */
+    public boolean add(int patientId, long timestamp, String label, double value) {
+        int labelIndex = labels.indexOf(label);
+        if (labelIndex < 0) {
+            labelIndex = labels.size();
+            labels.add(label);
+        }
+        boolean integral = isIntegral(value);
+        ensureCapacity(4 * 10 + 8);
+        writeVarint(zigzag(patientId));
+        writeVarint((long) labelIndex << 1 | (integral ? 1 : 0));
+        writeVarint(zigzag(timestamp - previousTimestamp));
+        if (integral) {
+            writeVarint(zigzag((long) value));
+        } else {
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                samples[length++] = (byte) (bits >>> shift);
+            }
+        }
+        previousTimestamp = timestamp;
+        sampleCount++;
+        return sampleCount >= maxSamples;
+    }
+
+    /**
+     * Returns the number of samples in the current frame.
+     *
+     * @return the sample count
+     */
+    public int size() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the current frame and starts a new, empty one.
+     *
+     * @return the encoded frame, or null if no sample was added
+     */
+    public ByteBuffer finish() {
+        if (sampleCount == 0) {
+            return null;
+        }
+        byte[][] names = new byte[labels.size()][];
+        int headerLength = 1 + 5 + 5;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = labels.get(i).getBytes(StandardCharsets.UTF_8);
+            headerLength += 5 + names[i].length;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+        frame.put(FORMAT_VERSION);
+        putVarint(frame, names.length);
+        for (byte[] name : names) {
+            putVarint(frame, name.length);
+            frame.put(name);
+        }
+        putVarint(frame, sampleCount);
+        frame.put(samples, 0, length);
+        frame.flip();
+
+        labels.clear();
+        length = 0;
+        sampleCount = 0;
+        previousTimestamp = 0;
+        return frame;
+    }
+
+    /**
+     * Converts a data string as passed to {@link OutputStrategy#output} to the
+     * value sent in a frame: a trailing percent sign is dropped, and the alert
+     * states {@code triggered} and {@code resolved} become 1 and 0.
+     *
+     * @param data the data string
+     * @return the value
+     * @throws NumberFormatException if the data is not a number
+     */
+    public static double parseValue(String data) {
+        String trimmed = data.trim();
+        if (trimmed.equals("triggered")) {
+            return 1.0;
+        }
+        if (trimmed.equals("resolved")) {
+            return 0.0;
+        }
+        if (trimmed.endsWith("%")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return Double.parseDouble(trimmed);
+    }
+
+    private static boolean isIntegral(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 0x1p53
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(samples.length * 2, length + extra));
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            samples[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        samples[length++] = (byte) value;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -1,30 +1,226 @@
 package com.cardio_generator.outputs;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends the simulator's output to every connected WebSocket client. By
+ * default each sample is sent as a {@code patientId,timestamp,label,data}
+ * text frame. With binary output, samples are collected into
+ * {@link SampleFrameEncoder binary frames} of many samples each; a frame is
+ * sent once it is full, or after a short delay if samples arrive slowly.
+ * <p>
+ * The messages form a resumable stream. Every message has a sequence number,
+ * one more than the message before it, and the most recent messages are kept
+ * in a bounded replay buffer. A newly connected client is first sent the text
+ * message {@code #stream <streamId> <sequence>}, giving the sequence number of
+ * the next message it receives. A client that reconnects sends the
+ * {@value #RESUME_HEADER} handshake header, {@code <streamId>:<sequence>},
+ * with the last sequence number it received; the messages after it that are
+ * still in the replay buffer are then sent before any new message, and the
+ * {@code #stream} message tells the client where the replay starts, so that
+ * it can count the messages it missed.
+ */
 public class WebSocketOutputStrategy implements OutputStrategy {
+    public static final String RESUME_HEADER = "Resume-From";
+    public static final String STREAM_MESSAGE_PREFIX = "#stream ";
+    private static final int DEFAULT_REPLAY_CAPACITY = 4096;
 
     private WebSocketServer server;
+    private final SampleFrameEncoder encoder;
+    private ScheduledExecutorService flusher;
+
+    // the stream state, guarded by itself
+    private final long streamId = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    private final Set<WebSocket> subscribers = new LinkedHashSet<>();
+    private final Object[] replay;
+    private long nextSequence = 1;
 
     public WebSocketOutputStrategy(int port) {
+        this(port, 0, 0);
+    }
+
+    /**
+     * Starts a server that sends samples in binary frames.
+     *
+     * @param port                the port to listen on
+     * @param samplesPerFrame     the most samples sent in one frame; 0 sends
+     *                            text frames instead
+     * @param maxFrameDelayMillis how long a sample may wait for its frame to
+     *                            fill before the frame is sent anyway
+     */
+    public WebSocketOutputStrategy(int port, int samplesPerFrame, long maxFrameDelayMillis) {
+        this(port, samplesPerFrame, maxFrameDelayMillis, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    /**
+     * Starts a server that keeps the given number of messages for clients
+     * resuming the stream.
+     *
+     * @param port                the port to listen on
+     * @param samplesPerFrame     the most samples sent in one frame; 0 sends
+     *                            text frames instead
+     * @param maxFrameDelayMillis how long a sample may wait for its frame to
+     *                            fill before the frame is sent anyway
+     * @param replayCapacity      the number of most recent messages kept for
+     *                            replay
+     */
+    public WebSocketOutputStrategy(int port, int samplesPerFrame, long maxFrameDelayMillis, int replayCapacity) {
+        if (replayCapacity < 1) {
+            throw new IllegalArgumentException("Replay capacity must be positive: " + replayCapacity);
+        }
+        encoder = samplesPerFrame > 0 ? new SampleFrameEncoder(samplesPerFrame) : null;
+        replay = new Object[replayCapacity];
         server = new SimpleWebSocketServer(new InetSocketAddress(port));
+        server.setReuseAddr(true);
         System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
         server.start();
+        if (encoder != null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "websocket-frame-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, maxFrameDelayMillis, maxFrameDelayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-        // Broadcast the message to all connected clients
-        for (WebSocket conn : server.getConnections()) {
-            conn.send(message);
+        if (encoder != null) {
+            double value;
+            try {
+                value = SampleFrameEncoder.parseValue(data);
+            } catch (NumberFormatException e) {
+                value = Double.NaN;
+            }
+            if (!Double.isNaN(value)) {
+                synchronized (encoder) {
+                    if (encoder.add(patientId, timestamp, label, value)) {
+                        publish(encoder.finish());
+                    }
+                }
+                return;
+            }
+        }
+        publish(String.format("%d,%d,%s,%s", patientId, timestamp, label, data));
+    }
+
+    /**
+     * Sends the samples collected for the current binary frame, if any.
+     */
+    public void flush() {
+        if (encoder != null) {
+            synchronized (encoder) {
+                publish(encoder.finish());
+            }
+        }
+    }
+
+    /**
+     * Sends the current binary frame and stops the server.
+     *
+     * @throws InterruptedException if interrupted while the server stops
+     */
+    public void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+        server.stop();
+    }
+
+    /**
+     * Numbers a message, keeps it for replay and sends it to every subscribed
+     * client.
+     *
+     * @param message a String or a ByteBuffer; null is ignored
+     */
+    private void publish(Object message) {
+        if (message == null) {
+            return;
+        }
+        synchronized (subscribers) {
+            replay[(int) (nextSequence % replay.length)] = message;
+            nextSequence++;
+            for (WebSocket conn : subscribers) {
+                send(conn, message);
+            }
+        }
+    }
+
+    private static void send(WebSocket conn, Object message) {
+        try {
+            if (message instanceof ByteBuffer) {
+                conn.send(((ByteBuffer) message).duplicate());
+            } else {
+                conn.send((String) message);
+            }
+        } catch (WebsocketNotConnectedException e) {
+            // closing; it is unsubscribed once the server sees the close
+        }
+    }
+
+    /**
+     * Subscribes a newly connected client, first replaying the messages it
+     * missed if it resumes the stream.
+     *
+     * @param conn       the client's connection
+     * @param resumeFrom the client's {@value #RESUME_HEADER} header, or null
+     */
+    private void subscribe(WebSocket conn, String resumeFrom) {
+        synchronized (subscribers) {
+            long oldest = Math.max(1, nextSequence - replay.length);
+            long start = nextSequence;
+            long resumeAfter = parseResumePoint(resumeFrom);
+            if (resumeAfter >= 0) {
+                start = Math.max(oldest, Math.min(resumeAfter + 1, nextSequence));
+            }
+            conn.send(STREAM_MESSAGE_PREFIX + streamId + " " + start);
+            for (long sequence = start; sequence < nextSequence; sequence++) {
+                send(conn, replay[(int) (sequence % replay.length)]);
+            }
+            subscribers.add(conn);
+        }
+    }
+
+    /**
+     * Returns the last sequence number a resuming client received, or -1 if
+     * the header is missing, malformed or refers to another stream.
+     */
+    private long parseResumePoint(String resumeFrom) {
+        if (resumeFrom == null || resumeFrom.isEmpty()) {
+            return -1;
+        }
+        int colon = resumeFrom.indexOf(':');
+        try {
+            if (colon < 0 || Long.parseLong(resumeFrom.substring(0, colon).trim()) != streamId) {
+                return -1;
+            }
+            return Math.max(0, Long.parseLong(resumeFrom.substring(colon + 1).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void unsubscribe(WebSocket conn) {
+        synchronized (subscribers) {
+            subscribers.remove(conn);
         }
     }
 
-    private static class SimpleWebSocketServer extends WebSocketServer {
+    private class SimpleWebSocketServer extends WebSocketServer {
 
         public SimpleWebSocketServer(InetSocketAddress address) {
             super(address);
@@ -33,11 +229,13 @@ public class WebSocketOutputStrategy implements OutputStrategy {
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
             System.out.println("New connection: " + conn.getRemoteSocketAddress());
+            subscribe(conn, handshake.hasFieldValue(RESUME_HEADER) ? handshake.getFieldValue(RESUME_HEADER) : null);
         }
 
         @Override
         public void onClose(WebSocket conn, int code, String reason, boolean remote) {
             System.out.println("Closed connection: " + conn.getRemoteSocketAddress());
+            unsubscribe(conn);
         }
 
         @Override
@@ -0,0 +1,483 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * The public API of a patient data storage: adding samples, querying them,
+ * pushing them to subscribers, and keeping them durable. {@link DataStorage}
+ * holds the patients itself, while {@link ShardedDataStorage} spreads them over
+ * shards; readers, subscribers and the {@link com.alerts.AlertGenerator} work
+ * with either.
+ * <p>
+ * Record types may be given by name or as {@link RecordTypeDictionary} ids. The
+ * name overloads are implemented here by looking the id up; subclasses
+ * implement the id forms. Subscriptions are also kept here, so a subclass only
+ * has to publish the samples it adds.
+ */
+public abstract class AbstractDataStorage {
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    AbstractDataStorage() {
+    }
+
+    /**
+     * Adds or updates patient data in the storage.
+     * If the patient does not exist, a new Patient object is created and added to
+     * the storage.
+     * Otherwise, the new data is added to the existing patient's records.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, e.g., "HeartRate",
+     *                         "BloodPressure"
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
+        addPatientData(patientId, measurementValue, RecordTypeDictionary.idOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds patient data whose record type has already been encoded as a
+     * {@link RecordTypeDictionary} id.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public abstract void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp);
+
+    /**
+     * Adds a batch of samples given as columnar arrays. Each patient's samples
+     * are added in the order they appear in the batch.
+     *
+     * @param patientIds    the patient of each sample
+     * @param recordTypeIds the {@link RecordTypeDictionary} id of each sample's
+     *                      record type
+     * @param timestamps    the time of each sample, in milliseconds since the
+     *                      Unix epoch
+     * @param values        the measurement value of each sample
+     * @param length        the number of samples, taken from the start of the
+     *                      arrays
+     * @throws IllegalArgumentException if an array is shorter than the length
+     */
+    public abstract void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values,
+            int length);
+
+    /**
+     * Adds every sample of a batch.
+     *
+     * @param batch the samples to add; it is not cleared
+     * @see #addBatch(int[], int[], long[], double[], int)
+     */
+    public void addBatch(SampleBatch batch) {
+        addBatch(batch.patientIds(), batch.recordTypeIds(), batch.timestamps(), batch.values(), batch.size());
+    }
+
+    /**
+     * Registers a subscriber that is pushed every sample added from now on with
+     * {@code addPatientData} or {@code addBatch}, instead of polling
+     * {@code getRecords}. Samples recovered from a write-ahead log or snapshot
+     * are not published. The subscriber gets its own bounded queue and thread;
+     * when the queue is full, the overflow policy decides whether ingestion
+     * waits for the subscriber or samples are dropped.
+     *
+     * @param subscriber     receives the appended samples
+     * @param capacity       the number of samples the subscriber's queue holds
+     * @param overflowPolicy what to do with a sample when the queue is full
+     * @return the subscription; close it to unsubscribe
+     */
+    public Subscription subscribe(SampleSubscriber subscriber, int capacity, OverflowPolicy overflowPolicy) {
+        Subscription subscription = new Subscription(this, subscriber, capacity, overflowPolicy);
+        subscription.start();
+        synchronized (this) {
+            Subscription[] current = subscriptions;
+            Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            subscriptions = updated;
+        }
+        return subscription;
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription[] updated = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands an added sample to every subscriber's queue.
+     */
+    void publish(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(patientId, recordTypeId, timestamp, measurementValue);
+        }
+    }
+
+    /**
+     * Hands a batch of added samples to every subscriber's queue.
+     */
+    void publishAll(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int length) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offerAll(patientIds, recordTypeIds, timestamps, values, length);
+        }
+    }
+
+    /**
+     * Writes a point-in-time binary snapshot of all patients and their series to
+     * the given file. Restoring a snapshot with {@link #restoreSnapshot(Path)} is
+     * much faster than re-reading the original text files.
+     *
+     * @param file the snapshot file to create or replace
+     * @return the number of patients written
+     * @throws IOException if the file cannot be written
+     */
+    public abstract int writeSnapshot(Path file) throws IOException;
+
+    /**
+     * Loads a snapshot written by {@link #writeSnapshot(Path)} into this storage.
+     * A write-ahead log opened afterwards only replays the samples that are not
+     * in the snapshot.
+     *
+     * @param file the snapshot file
+     * @return the number of patients restored
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public abstract int restoreSnapshot(Path file) throws IOException;
+
+    /**
+     * Makes the storage durable by logging every added sample to a memory-mapped
+     * write-ahead log in the given directory. Samples logged by an earlier run are
+     * first replayed into this storage, so history such as the 24 hour blood
+     * pressure window survives a restart. If a snapshot was restored first, only
+     * the samples logged after it are replayed.
+     *
+     * @param directory the directory holding the log segments
+     * @return the number of samples recovered from the log
+     * @throws IOException if the log cannot be opened or read
+     */
+    public abstract long openWriteAheadLog(Path directory) throws IOException;
+
+    /**
+     * Syncs and closes the write-ahead log, if one is open. Samples added
+     * afterwards are no longer logged.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    public abstract void closeWriteAheadLog() throws IOException;
+
+    /**
+     * Adds a cold tier to the storage: samples older than the hot age can then be
+     * moved from memory into immutable, memory-mapped segment files in the given
+     * directory with {@link #moveToColdTier(long)}. Every query merges the cold
+     * segments with the in-memory samples, so weeks of history can be kept for
+     * retrospective review while only the recent samples stay on the heap.
+     * Segments left in the directory by an earlier run are attached to their
+     * patients again.
+     * <p>
+     * Must be called before any data is added, and before
+     * {@link #openWriteAheadLog(Path)} so that samples recovered from the log
+     * that were already moved to the cold tier are not added twice.
+     *
+     * @param directory the directory holding the segment files
+     * @param hotAge    how long samples stay in memory, in milliseconds, measured
+     *                  back from the time passed to {@link #moveToColdTier(long)}
+     * @return the number of patients with cold data found in the directory
+     * @throws IOException if the directory cannot be created or read
+     */
+    public abstract int openColdTier(Path directory, long hotAge) throws IOException;
+
+    /**
+     * Moves the samples of every patient that are older than the cold tier's hot
+     * age, measured back from the given time, to segment files. Like
+     * {@link #evictExpired(long)}, this is meant to be called periodically.
+     * Does nothing if no cold tier is open.
+     *
+     * @param currentTime the current time, in milliseconds since the Unix epoch
+     * @return the number of samples moved
+     * @throws IOException if a segment file cannot be written
+     */
+    public abstract long moveToColdTier(long currentTime) throws IOException;
+
+    /**
+     * Caches the results of single-type window queries, i.e.
+     * {@link #getRecords(int, int, long, long)} and
+     * {@link #forEach(int, int, long, long, boolean, SampleConsumer)}, so that
+     * repeating a query over a series that has not changed since is served
+     * without copying the series again. A cached result is only used while its
+     * series has the same append version, so queries never see stale data.
+     * The least recently used results are evicted to stay within the budget.
+     * The cache is disabled until a budget is set.
+     *
+     * @param memoryBudget the memory the cached results may take, in bytes; 0
+     *                     disables the cache
+     */
+    public abstract void setQueryCacheBudget(long memoryBudget);
+
+    /**
+     * Returns the number of window queries served from the query cache.
+     *
+     * @return the cache hit count
+     */
+    public abstract long getQueryCacheHitCount();
+
+    /**
+     * Returns the number of window queries that could not be served from the
+     * query cache while it was enabled.
+     *
+     * @return the cache miss count
+     */
+    public abstract long getQueryCacheMissCount();
+
+    /**
+     * Retrieves a list of PatientRecord objects for a specific patient, filtered by
+     * a time range.
+     *
+     * @param patientId the unique identifier of the patient whose records are to be
+     *                  retrieved
+     * @param startTime the start of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return a list of PatientRecord objects that fall within the specified time
+     *         range. Returns an empty list if the patient does not exist.
+     */
+    public abstract List<PatientRecord> getRecords(int patientId, long startTime, long endTime);
+
+    /**
+     * Retrieves the records of a single type for a specific patient, filtered by
+     * a time range. Only the series of the requested type is searched.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record to retrieve, e.g., "ECG"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return a list of matching records in ascending timestamp order. Returns an
+     *         empty list if the patient does not exist.
+     */
+    public List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime) {
+        return getRecords(patientId, RecordTypeDictionary.lookup(recordType), startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of a single type, given as a
+     * {@link RecordTypeDictionary} id, for a specific patient, filtered by a time
+     * range.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordTypeId the dictionary id of the record type
+     * @param startTime    the start of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @return a list of matching records in ascending timestamp order. Returns an
+     *         empty list if the patient does not exist.
+     */
+    public abstract List<PatientRecord> getRecords(int patientId, int recordTypeId, long startTime, long endTime);
+
+    /**
+     * Streams the records of a single type for a specific patient to a consumer,
+     * oldest first, as primitive (timestamp, value) pairs. Unlike
+     * {@link #getRecords(int, String, long, long)} this creates no list and no
+     * record objects, so a hot loop can query without allocating.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record to visit, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @param consumer   receives each sample
+     * @return the number of samples visited; 0 if the patient does not exist
+     */
+    public int forEach(int patientId, String recordType, long startTime, long endTime, SampleConsumer consumer) {
+        return forEach(patientId, RecordTypeDictionary.lookup(recordType), startTime, endTime, false, consumer);
+    }
+
+    /**
+     * Streams the records of a single type, given as a
+     * {@link RecordTypeDictionary} id, for a specific patient to a consumer in
+     * the requested order.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordTypeId the dictionary id of the record type
+     * @param startTime    the start of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param descending   true to visit the newest sample first
+     * @param consumer     receives each sample
+     * @return the number of samples visited; 0 if the patient does not exist
+     * @see Patient#forEach(int, long, long, boolean, SampleConsumer)
+     */
+    public abstract int forEach(int patientId, int recordTypeId, long startTime, long endTime, boolean descending,
+            SampleConsumer consumer);
+
+    /**
+     * Retrieves the newest record of a single type for a specific patient. The
+     * newest sample of each type is tracked as data is added, so this takes
+     * constant time and no lock regardless of how much history is stored.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g., "Saturation"
+     * @return the newest record, or null if the patient does not exist or has no
+     *         record of this type
+     */
+    public abstract PatientRecord getLatestRecord(int patientId, String recordType);
+
+    /**
+     * Retrieves the newest record of every type for a specific patient, i.e. the
+     * patient's current vitals, in order of record type id.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the newest record of each type. Returns an empty list if the
+     *         patient does not exist.
+     */
+    public abstract List<PatientRecord> getLatestRecords(int patientId);
+
+    /**
+     * Passes the current vitals of the whole ward, i.e. the newest sample of
+     * every record type of every patient, to a consumer in a single pass. No
+     * lock is taken and no series is scanned.
+     *
+     * @param consumer receives the patient id, record type id, timestamp and
+     *                 value of each newest sample
+     */
+    public abstract void forEachLatest(LatestSampleConsumer consumer);
+
+    /**
+     * Computes ward-level statistics of one record type over all patients, e.g.
+     * the mean, minimum and maximum saturation over the last 10 minutes.
+     *
+     * @param recordType the type of record to aggregate, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the aggregate over every sample of the type in the range
+     */
+    public PopulationAggregate aggregate(String recordType, long startTime, long endTime) {
+        return aggregate(recordType, startTime, endTime, null);
+    }
+
+    /**
+     * Computes ward-level statistics of one record type over all patients, and
+     * also counts the patients with at least one sample matching a condition,
+     * e.g. the number of patients with a systolic pressure above 160.
+     *
+     * @param recordType the type of record to aggregate, e.g., "SystolicPressure"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @param condition  the condition a patient's sample must match to be
+     *                   counted by {@link PopulationAggregate#getMatchingPatientCount()},
+     *                   or null
+     * @return the aggregate over every sample of the type in the range
+     */
+    public PopulationAggregate aggregate(String recordType, long startTime, long endTime,
+            DoublePredicate condition) {
+        return aggregate(RecordTypeDictionary.lookup(recordType), startTime, endTime, condition);
+    }
+
+    /**
+     * Computes ward-level statistics of one record type, given as a
+     * {@link RecordTypeDictionary} id, over all patients.
+     *
+     * @param recordTypeId the dictionary id of the record type
+     * @param startTime    the start of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param condition    the condition a patient's sample must match to be
+     *                     counted as matching, or null
+     * @return the aggregate over every sample of the type in the range
+     */
+    public abstract PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition);
+
+    /**
+     * Summarizes the records of a single type for a specific patient in time
+     * buckets holding the minimum, maximum, sum, count and last value. The
+     * buckets are read from the coarsest pre-computed rollup tier (1 minute, 15
+     * minutes or 1 hour) that satisfies the requested resolution, so dashboards
+     * and trend checks over hours or days do not scan the raw samples.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record to summarize, e.g., "SystolicPressure"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @param resolution the widest bucket the caller accepts, in milliseconds,
+     *                   e.g. {@link Rollup#FIFTEEN_MINUTES}
+     * @return the non-empty buckets overlapping the range, in ascending time
+     *         order. Returns an empty list if the patient does not exist.
+     */
+    public List<Rollup> getRollups(int patientId, String recordType, long startTime, long endTime,
+            long resolution) {
+        return getRollups(patientId, RecordTypeDictionary.lookup(recordType), startTime, endTime, resolution);
+    }
+
+    /**
+     * Summarizes the records of a single type, given as a
+     * {@link RecordTypeDictionary} id, for a specific patient in time buckets.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordTypeId the dictionary id of the record type
+     * @param startTime    the start of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param resolution   the widest bucket the caller accepts, in milliseconds
+     * @return the non-empty buckets overlapping the range, in ascending time
+     *         order. Returns an empty list if the patient does not exist.
+     * @see Patient#getRollups(int, long, long, long)
+     */
+    public abstract List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime,
+            long resolution);
+
+    /**
+     * Removes the records of every patient that are older than their type's
+     * retention window. Series are also trimmed whenever they are appended to;
+     * this sweep covers series that have stopped receiving data.
+     *
+     * @param currentTime the current time, in milliseconds since the Unix epoch
+     * @return the number of records removed
+     * @throws java.io.UncheckedIOException if the file of an evicted cold
+     *                                      segment could not be deleted; every
+     *                                      patient is swept nonetheless
+     */
+    public abstract int evictExpired(long currentTime);
+
+    /**
+     * Returns the ids of all patients in the storage, e.g. to evaluate each of
+     * them with {@link com.alerts.AlertGenerator#evaluateData(int)}.
+     *
+     * @return the patient ids, in no particular order
+     */
+    public abstract int[] getPatientIds();
+
+    /**
+     * Returns how many samples have arrived out of order, i.e. after a sample of
+     * the same patient and type with a later timestamp, summed over all series.
+     * Useful to choose the lateness of {@link SeriesFactory#reordering}.
+     *
+     * @return the number of late samples
+     */
+    public abstract long getLateSampleCount();
+}
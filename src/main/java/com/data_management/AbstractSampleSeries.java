@@ -0,0 +1,197 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Base class for series that keep their samples in a ring of fixed-size
+ * chunks, addressed by an absolute sequence number that grows with every
+ * append. Subclasses only decide where the chunks live.
+ * <p>
+ * Concurrency model: one writer at a time (the owning {@link Patient}
+ * serializes its writers) and any number of readers that never block it.
+ * <ul>
+ * <li>An in-order append writes the sample into a slot past the end and then
+ * publishes it by advancing the volatile {@code end}.</li>
+ * <li>Eviction advances the volatile {@code first}. A chunk is only reused
+ * for new samples after every sample in it has been evicted.</li>
+ * <li>A late sample shifts newer samples in place. This is the only write to
+ * visible slots and is bracketed by an odd/even {@code version}, like a
+ * sequence lock.</li>
+ * </ul>
+ * {@link #copyRange} reads {@code first} and {@code end}, copies the samples,
+ * and then checks {@code version} and {@code first} again. The copy is retried
+ * if a late sample was inserted meanwhile, or if eviction emptied a whole chunk
+ * that may since have been reused. Samples evicted within the oldest chunk are
+ * simply dropped from the copy, since they have left the retention window.
+ */
+abstract class AbstractSampleSeries implements SampleSeries {
+    private final int recordTypeId;
+    private final long retention;
+    private final int chunkShift;
+    private volatile long first; // sequence number of the oldest sample
+    private volatile long end; // sequence number after the newest sample
+    private volatile int version; // odd while samples are being shifted
+    private volatile long lateSamples; // only incremented by the writer
+
+    AbstractSampleSeries(int recordTypeId, long retention, int chunkShift) {
+        this.recordTypeId = recordTypeId;
+        this.retention = retention;
+        this.chunkShift = chunkShift;
+    }
+
+    /**
+     * Makes the slot of the given sequence number writable, growing the ring if
+     * its chunk would overlap the chunk holding {@code first}.
+     */
+    abstract void prepare(long sequence, long first);
+
+    abstract void store(long sequence, long timestamp, double value);
+
+    /**
+     * Loads a timestamp. May be called by readers for slots that are being
+     * reused; the result is then discarded, but the call must not fail.
+     */
+    abstract long loadTimestamp(long sequence);
+
+    /**
+     * Loads a value. May be called by readers for slots that are being reused;
+     * the result is then discarded, but the call must not fail.
+     */
+    abstract double loadValue(long sequence);
+
+    /**
+     * Called after samples from {@code from} (inclusive) to {@code to}
+     * (exclusive) have been evicted.
+     */
+    void release(long from, long to) {
+    }
+
+    @Override
+    public int getRecordTypeId() {
+        return recordTypeId;
+    }
+
+    @Override
+    public long getRetention() {
+        return retention;
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        return lateSamples;
+    }
+
+    @Override
+    public int size() {
+        long oldest = first;
+        return (int) (end - oldest);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Must only be called by the series' single writer.
+     */
+    @Override
+    public void append(long timestamp, double value) {
+        long oldest = first;
+        long next = end;
+        if (next == oldest || timestamp >= loadTimestamp(next - 1)) {
+            prepare(next, oldest);
+            store(next, timestamp, value);
+            end = next + 1;
+            if (retention != RetentionPolicy.UNLIMITED) {
+                evictBefore(timestamp - retention);
+            }
+            return;
+        }
+
+        lateSamples++;
+        if (retention != RetentionPolicy.UNLIMITED && timestamp < loadTimestamp(next - 1) - retention) {
+            return;
+        }
+        prepare(next, oldest);
+        long position = oldest + upperBound(timestamp);
+        version++;
+        VarHandle.storeStoreFence(); // publish the odd version before the stores it guards
+        for (long s = next; s > position; s--) {
+            store(s, loadTimestamp(s - 1), loadValue(s - 1));
+        }
+        store(position, timestamp, value);
+        end = next + 1;
+        version++;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Must only be called by the series' single writer.
+     */
+    @Override
+    public int evictBefore(long cutoff) {
+        int count = lowerBound(cutoff);
+        if (count > 0) {
+            long oldest = first;
+            first = oldest + count;
+            release(oldest, oldest + count);
+        }
+        return count;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return loadTimestamp(first + index);
+    }
+
+    @Override
+    public double valueAt(int index) {
+        return loadValue(first + index);
+    }
+
+    @Override
+    public void copyRange(long startTime, long endTime, SampleBuffer target) {
+        int mark = target.size();
+        while (true) {
+            int expectedVersion = version;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long oldest = first;
+            long next = end;
+            long from = search(startTime, oldest, next, false);
+            long to = search(endTime, oldest, next, true);
+            for (long s = from; s < to; s++) {
+                target.add(loadTimestamp(s), loadValue(s));
+            }
+
+            VarHandle.acquireFence();
+            long current = first;
+            if (version != expectedVersion || current >>> chunkShift != oldest >>> chunkShift) {
+                target.truncate(mark);
+                continue;
+            }
+            long evicted = current - from;
+            if (evicted > 0) {
+                target.removeRange(mark, mark + (int) Math.min(evicted, to - from));
+            }
+            return;
+        }
+    }
+
+    /**
+     * Binary search over sequence numbers; returns the first sequence whose
+     * timestamp is at or after ({@code after == false}) or strictly after
+     * ({@code after == true}) the given time.
+     */
+    private long search(long timestamp, long low, long high, boolean after) {
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long t = loadTimestamp(mid);
+            if (t < timestamp || (after && t == timestamp)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
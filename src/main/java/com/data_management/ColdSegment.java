@@ -0,0 +1,212 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable file holding samples of one record type of one patient that
+ * have been moved out of memory by the {@link ColdStore}.
+ * <p>
+ * The file starts with a header: a magic number, the format version, the
+ * sample count, the first and last timestamp and the record type name. The
+ * timestamps follow in ascending order, then the values, both 8-byte aligned.
+ * The file is mapped into memory on first read and the mapping is dropped
+ * again by {@link #release()}, so an idle segment costs no heap and only a
+ * small handle.
+ */
+final class ColdSegment {
+    private static final int MAGIC = 0x434F4C44; // "COLD"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final int recordTypeId;
+    private final int count;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int dataOffset;
+    private volatile MappedByteBuffer mapped;
+
+    private ColdSegment(Path file, int recordTypeId, int count, long firstTimestamp, long lastTimestamp,
+            int dataOffset) {
+        this.file = file;
+        this.recordTypeId = recordTypeId;
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Writes the samples from position {@code from} (inclusive) to {@code to}
+     * (exclusive) of the buffer, in ascending timestamp order, to a new segment
+     * file. The file is written under a temporary name and moved into place
+     * when complete.
+     */
+    static ColdSegment write(Path file, int recordTypeId, SampleBuffer samples, int from, int to)
+            throws IOException {
+        byte[] name = RecordTypeDictionary.nameOf(recordTypeId).getBytes(StandardCharsets.UTF_8);
+        int headerBytes = 3 * Integer.BYTES + 2 * Long.BYTES + Character.BYTES + name.length;
+        int dataOffset = (headerBytes + Long.BYTES - 1) & -Long.BYTES;
+        int count = to - from;
+
+        ByteBuffer buffer = ByteBuffer.allocate(dataOffset + count * (Long.BYTES + Double.BYTES));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count)
+                .putLong(samples.timestampAt(from)).putLong(samples.timestampAt(to - 1))
+                .putChar((char) name.length).put(name);
+        buffer.position(dataOffset);
+        for (int i = from; i < to; i++) {
+            buffer.putLong(samples.timestampAt(i));
+        }
+        for (int i = from; i < to; i++) {
+            buffer.putDouble(samples.valueAt(i));
+        }
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ColdSegment(file, recordTypeId, count, samples.timestampAt(from), samples.timestampAt(to - 1),
+                dataOffset);
+    }
+
+    /**
+     * Reads the header of an existing segment file. The samples are not read.
+     */
+    static ColdSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 1024));
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+            if (header.remaining() < 3 * Integer.BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a cold segment: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cold segment version " + version + ": " + file);
+            }
+            int count = header.getInt();
+            long firstTimestamp = header.getLong();
+            long lastTimestamp = header.getLong();
+            byte[] name = new byte[header.getChar()];
+            header.get(name);
+            int dataOffset = (header.position() + Long.BYTES - 1) & -Long.BYTES;
+            if (channel.size() < dataOffset + (long) count * (Long.BYTES + Double.BYTES)) {
+                throw new IOException("Truncated cold segment: " + file);
+            }
+            int recordTypeId = RecordTypeDictionary.idOf(new String(name, StandardCharsets.UTF_8));
+            return new ColdSegment(file, recordTypeId, count, firstTimestamp, lastTimestamp, dataOffset);
+        }
+    }
+
+    int getRecordTypeId() {
+        return recordTypeId;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Copies the samples whose timestamps lie in the given range to the end of
+     * the buffer, in ascending timestamp order. Maps the file if it is not
+     * mapped.
+     */
+    void copyRange(long startTime, long endTime, SampleBuffer target) {
+        if (startTime > lastTimestamp || endTime < firstTimestamp) {
+            return;
+        }
+        MappedByteBuffer data = map();
+        int valuesOffset = dataOffset + count * Long.BYTES;
+        for (int i = lowerBound(data, startTime); i < count; i++) {
+            long timestamp = data.getLong(dataOffset + i * Long.BYTES);
+            if (timestamp > endTime) {
+                break;
+            }
+            target.add(timestamp, data.getDouble(valuesOffset + i * Double.BYTES));
+        }
+    }
+
+    /**
+     * Returns the number of samples with a timestamp before the given time.
+     * Maps the file only if the time lies within the segment.
+     */
+    int countBefore(long timestamp) {
+        if (timestamp <= firstTimestamp) {
+            return 0;
+        }
+        if (timestamp > lastTimestamp) {
+            return count;
+        }
+        return lowerBound(map(), timestamp);
+    }
+
+    /**
+     * Drops the mapping of the file. The next read maps it again.
+     */
+    void release() {
+        mapped = null;
+    }
+
+    /**
+     * Deletes the segment file.
+     */
+    void delete() throws IOException {
+        mapped = null;
+        Files.deleteIfExists(file);
+    }
+
+    private int lowerBound(MappedByteBuffer data, long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (data.getLong(dataOffset + mid * Long.BYTES) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private MappedByteBuffer map() {
+        MappedByteBuffer data = mapped;
+        if (data == null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map cold segment " + file, e);
+            }
+            mapped = data;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,121 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The directory that holds the cold tier of a {@link DataStorage}: samples
+ * older than the hot age, moved out of each patient's in-memory series into
+ * immutable {@link ColdSegment} files.
+ * <p>
+ * Every patient has a subdirectory {@code patient-<id>} holding segment files
+ * named {@code <number>.seg}. Segment numbers increase across the whole store,
+ * so files never collide, and the segments found in the directory are attached
+ * to their patients again when the store is reopened.
+ */
+final class ColdStore {
+    static final int MAX_SEGMENT_SAMPLES = 1 << 20;
+
+    private static final String PATIENT_PREFIX = "patient-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long hotAge;
+    private final AtomicLong nextSegment;
+
+    private ColdStore(Path directory, long hotAge, long nextSegment) {
+        this.directory = directory;
+        this.hotAge = hotAge;
+        this.nextSegment = new AtomicLong(nextSegment);
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     *
+     * @param directory the directory holding the patient subdirectories
+     * @param hotAge    how long samples stay in memory, in milliseconds
+     */
+    static ColdStore open(Path directory, long hotAge) throws IOException {
+        if (hotAge < 0) {
+            throw new IllegalArgumentException("Hot age must not be negative: " + hotAge);
+        }
+        Files.createDirectories(directory);
+        long highest = -1;
+        for (Path patientDirectory : list(directory, PATIENT_PREFIX + "*")) {
+            for (Path segment : list(patientDirectory, "*" + SUFFIX)) {
+                highest = Math.max(highest, segmentNumber(segment));
+            }
+        }
+        return new ColdStore(directory, hotAge, highest + 1);
+    }
+
+    long getHotAge() {
+        return hotAge;
+    }
+
+    /**
+     * Returns the ids of the patients that have a subdirectory in the store.
+     */
+    List<Integer> patientIds() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        for (Path patientDirectory : list(directory, PATIENT_PREFIX + "*")) {
+            String name = patientDirectory.getFileName().toString();
+            ids.add(Integer.parseInt(name.substring(PATIENT_PREFIX.length())));
+        }
+        return ids;
+    }
+
+    /**
+     * Opens the segments of a patient, in the order they were written.
+     */
+    List<ColdSegment> load(int patientId) throws IOException {
+        List<Path> files = list(patientDirectory(patientId), "*" + SUFFIX);
+        files.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        List<ColdSegment> segments = new ArrayList<>(files.size());
+        for (Path file : files) {
+            segments.add(ColdSegment.open(file));
+        }
+        return segments;
+    }
+
+    /**
+     * Writes samples of one record type of a patient, in ascending timestamp
+     * order, to as many segments as needed to keep each below
+     * {@link #MAX_SEGMENT_SAMPLES}.
+     */
+    List<ColdSegment> write(int patientId, int recordTypeId, SampleBuffer samples) throws IOException {
+        Path patientDirectory = patientDirectory(patientId);
+        Files.createDirectories(patientDirectory);
+        List<ColdSegment> segments = new ArrayList<>();
+        for (int from = 0; from < samples.size(); from += MAX_SEGMENT_SAMPLES) {
+            int to = Math.min(samples.size(), from + MAX_SEGMENT_SAMPLES);
+            Path file = patientDirectory.resolve(nextSegment.getAndIncrement() + SUFFIX);
+            segments.add(ColdSegment.write(file, recordTypeId, samples, from, to));
+        }
+        return segments;
+    }
+
+    private Path patientDirectory(int patientId) {
+        return directory.resolve(PATIENT_PREFIX + patientId);
+    }
+
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+                stream.forEach(paths::add);
+            }
+        }
+        return paths;
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,368 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A series that keeps only its newest chunk of samples uncompressed. When the
+ * chunk is full it is sealed into an immutable {@link GorillaBlock}, using
+ * delta-of-delta timestamps and XOR-encoded values. Regular signals such as ECG
+ * and saturation then need one to two bytes per sample instead of sixteen.
+ * Range reads decompress the overlapping blocks as a stream.
+ * <p>
+ * Samples that fall out of the retention window are skipped at the front of
+ * the oldest block until the whole block can be dropped. A late sample that
+ * belongs in a sealed block is inserted by re-encoding that block.
+ * <p>
+ * There is one writer at a time. Every change is bracketed by an odd/even
+ * {@code version}, and {@link #copyRange} retries a copy that overlapped a
+ * change, so readers never block the writer.
+ */
+public class CompressedSeries implements SampleSeries {
+    static final int CHUNK_SIZE = TimeSeries.CHUNK_SIZE;
+
+    private final int recordTypeId;
+    private final long retention;
+    private volatile Sealed sealed = Sealed.EMPTY;
+    private volatile int skip; // evicted samples at the front of the first block
+    private final long[] headTimestamps = new long[CHUNK_SIZE];
+    private final double[] headValues = new double[CHUNK_SIZE];
+    private volatile int headStart;
+    private volatile int headEnd;
+    private volatile int version; // odd while the series is being changed
+    private volatile long lateSamples; // only incremented by the writer
+
+    // last block decoded for positional access; only used by the writer
+    private GorillaBlock cachedBlock;
+    private long[] cachedTimestamps = new long[CHUNK_SIZE];
+    private double[] cachedValues = new double[CHUNK_SIZE];
+
+    /**
+     * Constructs an empty compressed series for the given record type that
+     * keeps every sample.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the type of
+     *                     record stored in this series
+     */
+    public CompressedSeries(int recordTypeId) {
+        this(recordTypeId, RetentionPolicy.UNLIMITED);
+    }
+
+    /**
+     * Constructs an empty compressed series for the given record type that
+     * keeps samples for a limited time.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the type of
+     *                     record stored in this series
+     * @param retention    how long samples are kept, in milliseconds, measured
+     *                     back from the newest sample; or
+     *                     {@link RetentionPolicy#UNLIMITED}
+     */
+    public CompressedSeries(int recordTypeId, long retention) {
+        this.recordTypeId = recordTypeId;
+        this.retention = retention;
+    }
+
+    @Override
+    public int getRecordTypeId() {
+        return recordTypeId;
+    }
+
+    @Override
+    public long getRetention() {
+        return retention;
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        return lateSamples;
+    }
+
+    @Override
+    public int size() {
+        return sealed.total - skip + headEnd - headStart;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the samples of this
+     * series: the compressed blocks plus the uncompressed newest chunk.
+     *
+     * @return the size of the sample data in bytes
+     */
+    public long sizeInBytes() {
+        long bytes = (long) CHUNK_SIZE * (Long.BYTES + Double.BYTES);
+        for (GorillaBlock block : sealed.blocks) {
+            bytes += block.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of sealed, compressed blocks.
+     *
+     * @return the block count
+     */
+    public int sealedBlocks() {
+        return sealed.blocks.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Must only be called by the series' single writer.
+     */
+    @Override
+    public void append(long timestamp, double value) {
+        boolean limited = retention != RetentionPolicy.UNLIMITED;
+        if (size() > 0 && timestamp < newestTimestamp()) {
+            lateSamples++;
+        }
+        if (limited && size() > 0 && timestamp < newestTimestamp() - retention) {
+            return;
+        }
+
+        version++;
+        VarHandle.storeStoreFence();
+        if (headEnd == CHUNK_SIZE) {
+            seal();
+        }
+        GorillaBlock[] blocks = sealed.blocks;
+        if (blocks.length == 0 || timestamp >= blocks[blocks.length - 1].lastTimestamp()) {
+            insertIntoHead(timestamp, value);
+        } else {
+            insertIntoBlock(timestamp, value);
+        }
+        if (limited) {
+            evict(newestTimestamp() - retention);
+        }
+        version++;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Must only be called by the series' single writer.
+     */
+    @Override
+    public int evictBefore(long cutoff) {
+        version++;
+        VarHandle.storeStoreFence();
+        int removed = evict(cutoff);
+        version++;
+        return removed;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        int sealedSize = sealed.total - skip;
+        if (index >= sealedSize) {
+            return headTimestamps[headStart + index - sealedSize];
+        }
+        int offset = decodeCached(index + skip); // may replace the cache arrays
+        return cachedTimestamps[offset];
+    }
+
+    @Override
+    public double valueAt(int index) {
+        int sealedSize = sealed.total - skip;
+        if (index >= sealedSize) {
+            return headValues[headStart + index - sealedSize];
+        }
+        int offset = decodeCached(index + skip);
+        return cachedValues[offset];
+    }
+
+    @Override
+    public void copyRange(long startTime, long endTime, SampleBuffer target) {
+        int mark = target.size();
+        while (true) {
+            int expectedVersion = version;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Sealed current = sealed;
+            int skipped = skip;
+            int from = headStart;
+            int to = headEnd;
+
+            boolean done = false;
+            for (int b = 0; b < current.blocks.length && !done; b++) {
+                GorillaBlock block = current.blocks[b];
+                if (block.lastTimestamp() < startTime) {
+                    continue;
+                }
+                GorillaBlock.Decoder decoder = block.decoder();
+                for (int i = 0; decoder.hasNext(); i++) {
+                    decoder.next();
+                    long timestamp = decoder.timestamp();
+                    if ((b == 0 && i < skipped) || timestamp < startTime) {
+                        continue;
+                    }
+                    if (timestamp > endTime) {
+                        done = true;
+                        break;
+                    }
+                    target.add(timestamp, decoder.value());
+                }
+            }
+            if (!done && from <= to && to <= CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    long timestamp = headTimestamps[i];
+                    if (timestamp > endTime) {
+                        break;
+                    }
+                    if (timestamp >= startTime) {
+                        target.add(timestamp, headValues[i]);
+                    }
+                }
+            }
+
+            VarHandle.acquireFence();
+            if (version == expectedVersion) {
+                return;
+            }
+            target.truncate(mark);
+        }
+    }
+
+    private long newestTimestamp() {
+        if (headEnd > headStart) {
+            return headTimestamps[headEnd - 1];
+        }
+        GorillaBlock[] blocks = sealed.blocks;
+        return blocks[blocks.length - 1].lastTimestamp();
+    }
+
+    private void seal() {
+        if (headEnd > headStart) {
+            sealed = sealed.append(GorillaBlock.encode(headTimestamps, headValues, headStart, headEnd));
+        }
+        headStart = 0;
+        headEnd = 0;
+    }
+
+    private void insertIntoHead(long timestamp, double value) {
+        int position = headEnd;
+        while (position > headStart && headTimestamps[position - 1] > timestamp) {
+            position--;
+        }
+        System.arraycopy(headTimestamps, position, headTimestamps, position + 1, headEnd - position);
+        System.arraycopy(headValues, position, headValues, position + 1, headEnd - position);
+        headTimestamps[position] = timestamp;
+        headValues[position] = value;
+        headEnd++;
+    }
+
+    /**
+     * Inserts a late sample into the first sealed block whose last timestamp is
+     * after it, by decoding and re-encoding that block.
+     */
+    private void insertIntoBlock(long timestamp, double value) {
+        GorillaBlock[] blocks = sealed.blocks;
+        int b = 0;
+        while (blocks[b].lastTimestamp() <= timestamp) {
+            b++;
+        }
+        GorillaBlock block = blocks[b];
+        long[] timestamps = new long[block.count() + 1];
+        double[] values = new double[block.count() + 1];
+        block.decode(timestamps, values);
+        int position = block.count();
+        while (position > 0 && timestamps[position - 1] > timestamp) {
+            timestamps[position] = timestamps[position - 1];
+            values[position] = values[position - 1];
+            position--;
+        }
+        timestamps[position] = timestamp;
+        values[position] = value;
+        sealed = sealed.replace(b, GorillaBlock.encode(timestamps, values, 0, timestamps.length));
+    }
+
+    private int evict(long cutoff) {
+        int removed = 0;
+        while (sealed.blocks.length > 0 && sealed.blocks[0].lastTimestamp() < cutoff) {
+            removed += sealed.blocks[0].count() - skip;
+            sealed = sealed.dropFirst();
+            skip = 0;
+        }
+        if (sealed.blocks.length > 0) {
+            if (sealed.blocks[0].firstTimestamp() < cutoff) {
+                decodeCached(0);
+                int position = skip;
+                while (cachedTimestamps[position] < cutoff) {
+                    position++;
+                }
+                removed += position - skip;
+                skip = position;
+            }
+            return removed;
+        }
+        int position = headStart;
+        while (position < headEnd && headTimestamps[position] < cutoff) {
+            position++;
+        }
+        removed += position - headStart;
+        headStart = position;
+        return removed;
+    }
+
+    /**
+     * Makes the block holding the sample at the given position from the start
+     * of the first block the cached block, and returns the sample's offset in
+     * it.
+     */
+    private int decodeCached(int position) {
+        Sealed current = sealed;
+        int b = Arrays.binarySearch(current.starts, position);
+        b = b >= 0 ? b : -b - 2;
+        GorillaBlock block = current.blocks[b];
+        if (block != cachedBlock) {
+            if (block.count() > cachedTimestamps.length) {
+                cachedTimestamps = new long[block.count()];
+                cachedValues = new double[block.count()];
+            }
+            block.decode(cachedTimestamps, cachedValues);
+            cachedBlock = block;
+        }
+        return position - current.starts[b];
+    }
+
+    /**
+     * The immutable list of sealed blocks, with the position of each block's
+     * first sample. Replaced as a whole on every change, so readers always see
+     * a consistent list.
+     */
+    private static final class Sealed {
+        static final Sealed EMPTY = new Sealed(new GorillaBlock[0]);
+
+        final GorillaBlock[] blocks;
+        final int[] starts; // starts[i] is the position of block i's first sample
+        final int total;
+
+        Sealed(GorillaBlock[] blocks) {
+            this.blocks = blocks;
+            this.starts = new int[blocks.length];
+            int position = 0;
+            for (int i = 0; i < blocks.length; i++) {
+                starts[i] = position;
+                position += blocks[i].count();
+            }
+            this.total = position;
+        }
+
+        Sealed append(GorillaBlock block) {
+            GorillaBlock[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+            grown[blocks.length] = block;
+            return new Sealed(grown);
+        }
+
+        Sealed replace(int index, GorillaBlock block) {
+            GorillaBlock[] copy = blocks.clone();
+            copy[index] = block;
+            return new Sealed(copy);
+        }
+
+        Sealed dropFirst() {
+            return new Sealed(Arrays.copyOfRange(blocks, 1, blocks.length));
+        }
+    }
+}
@@ -21,6 +21,6 @@ public interface DataReader {
      * @throws IOException if there is an error connecting to the server or reading
      *                     data
      */
-    void readData(URI serverUri, DataStorage dataStorage) throws IOException;
+    void readData(URI serverUri, AbstractDataStorage dataStorage) throws IOException;
 
 }
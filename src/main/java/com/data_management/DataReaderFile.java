@@ -9,5 +9,5 @@ public interface DataReaderFile {
      * @param dataStorage the storage where data will be stored
      * @throws IOException if there is an error reading the data
      */
-    void readData(DataStorage dataStorage) throws IOException;
+    void readData(AbstractDataStorage dataStorage) throws IOException;
 }
\ No newline at end of file
@@ -2,10 +2,19 @@ package com.data_management;
 
 import com.alerts.AlertGenerator;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
 
 /**
  * Manages storage and retrieval of patient data within a healthcare monitoring
@@ -13,54 +22,293 @@ import java.util.Map;
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
  */
-public class DataStorage {
-    private Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
+public class DataStorage extends AbstractDataStorage {
+    private PatientIndex patientMap; // Stores patient objects indexed by their unique patient ID.
+    private RetentionPolicy retentionPolicy;
+    private SeriesFactory seriesFactory;
+    private volatile WriteAheadLog writeAheadLog;
+    // shared by writers while they log and add a sample, exclusive for a checkpoint
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // log segments covered by the restored snapshot, and those that may overlap it
+    private long snapshotCoveredSegment;
+    private long snapshotOverlapSegment;
+    private volatile ColdStore coldStore;
+    private final QueryCache queryCache;
 
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
      * structure.
-     * The storage uses a ConcurrentHashMap to ensure thread-safe operations.
+     * The storage uses a {@link PatientIndex} keyed by primitive patient IDs to
+     * ensure thread-safe operations without boxing the ID on every call.
+     * Records are kept until the storage is discarded.
      */
     public DataStorage() {
-        this.patientMap = new ConcurrentHashMap<>();
+        this(RetentionPolicy.unlimited());
     }
 
     /**
-     * Adds or updates patient data in the storage.
-     * If the patient does not exist, a new Patient object is created and added to
-     * the storage.
-     * Otherwise, the new data is added to the existing patient's records.
+     * Constructs a new instance of DataStorage that keeps records of each type
+     * only for the time given by the retention policy. Each patient's series then
+     * works as a ring buffer, so memory stays flat in a long-running monitor.
      *
-     * @param patientId        the unique identifier of the patient
-     * @param measurementValue the value of the health metric being recorded
-     * @param recordType       the type of record, e.g., "HeartRate",
-     *                         "BloodPressure"
-     * @param timestamp        the time at which the measurement was taken, in
-     *                         milliseconds since the Unix epoch
-     */
-    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        patientMap.compute(patientId, (id, patient) -> {
-            if (patient == null) {
-                patient = new Patient(id);
-            }
-            patient.addRecord(measurementValue, recordType, timestamp);
-            return patient;
-        });
+     * @param retentionPolicy decides how long records of each type are kept
+     */
+    public DataStorage(RetentionPolicy retentionPolicy) {
+        this(retentionPolicy, SeriesFactory.onHeap());
     }
 
     /**
-     * Retrieves a list of PatientRecord objects for a specific patient, filtered by
-     * a time range.
+     * Constructs a new instance of DataStorage whose samples are stored in series
+     * created by the given factory. Passing an {@link OffHeapSeriesFactory} keeps
+     * the sample data in direct memory, leaving only small handles on the Java
+     * heap; the addPatientData and getRecords contract is unchanged.
      *
-     * @param patientId the unique identifier of the patient whose records are to be
-     *                  retrieved
-     * @param startTime the start of the time range, in milliseconds since the Unix
-     *                  epoch
-     * @param endTime   the end of the time range, in milliseconds since the Unix
-     *                  epoch
-     * @return a list of PatientRecord objects that fall within the specified time
-     *         range. Returns an empty list if the patient does not exist.
+     * @param retentionPolicy decides how long records of each type are kept
+     * @param seriesFactory   creates the series that store each patient's samples
+     */
+    public DataStorage(RetentionPolicy retentionPolicy, SeriesFactory seriesFactory) {
+        this.patientMap = new PatientIndex();
+        this.retentionPolicy = retentionPolicy;
+        this.seriesFactory = seriesFactory;
+        this.queryCache = new QueryCache();
+    }
+
+    @Override
+    public void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            getOrCreatePatient(patientId).addRecord(measurementValue, recordTypeId, timestamp);
+        } else {
+            Lock logging = checkpointLock.readLock();
+            logging.lock();
+            try {
+                log.append(patientId, recordTypeId, timestamp, measurementValue);
+                getOrCreatePatient(patientId).addRecord(measurementValue, recordTypeId, timestamp);
+            } finally {
+                logging.unlock();
+            }
+        }
+        publish(patientId, measurementValue, recordTypeId, timestamp);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The batch is grouped by patient, and each patient's samples are appended
+     * under a single acquisition of that patient's lock. This is much cheaper
+     * than adding the samples one at a time.
+     */
+    @Override
+    public void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int length) {
+        if (length < 0 || patientIds.length < length || recordTypeIds.length < length
+                || timestamps.length < length || values.length < length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than the batch length " + length);
+        }
+        WriteAheadLog log = writeAheadLog;
+        Lock logging = checkpointLock.readLock();
+        if (log != null) {
+            logging.lock();
+        }
+        try {
+            if (log != null) {
+                log.appendBatch(patientIds, recordTypeIds, timestamps, values, length);
+            }
+            addGrouped(patientIds, recordTypeIds, timestamps, values, length);
+        } finally {
+            if (log != null) {
+                logging.unlock();
+            }
+        }
+        publishAll(patientIds, recordTypeIds, timestamps, values, length);
+    }
+
+    private void addGrouped(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values,
+            int length) {
+        long[] order = new long[length]; // patient id in the high bits, position in the low bits
+        for (int i = 0; i < length; i++) {
+            order[i] = ((long) patientIds[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int from = 0;
+        while (from < length) {
+            int patientId = (int) (order[from] >> 32);
+            int to = from + 1;
+            while (to < length && (int) (order[to] >> 32) == patientId) {
+                to++;
+            }
+            getOrCreatePatient(patientId).addRecords(order, from, to, recordTypeIds, timestamps, values);
+            from = to;
+        }
+    }
+
+    /**
+     * Adds patient data without writing it to the write-ahead log. Used when the
+     * data is being recovered from the log itself; samples already moved to the
+     * cold tier are skipped.
+     */
+    void restorePatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        getOrCreatePatient(patientId).restoreRecord(measurementValue, recordTypeId, timestamp, false);
+    }
+
+    /**
+     * Adds recovered patient data unless the patient already holds the same
+     * sample, e.g. because it was also captured by a restored snapshot.
+     */
+    void restorePatientDataOnce(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        getOrCreatePatient(patientId).restoreRecord(measurementValue, recordTypeId, timestamp, true);
+    }
+
+    private Patient getOrCreatePatient(int patientId) {
+        return patientMap.computeIfAbsent(patientId,
+                id -> new Patient(id, retentionPolicy, seriesFactory, coldStore));
+    }
+
+    /**
+     * Adds a whole series of samples to a patient in one step, without writing
+     * it to the write-ahead log. Used when restoring a snapshot.
+     */
+    void restoreSeries(int patientId, int recordTypeId, LongBuffer timestamps, DoubleBuffer values) {
+        Patient patient = getOrCreatePatient(patientId);
+        synchronized (patient) {
+            for (int i = 0; i < timestamps.limit(); i++) {
+                patient.restoreRecord(values.get(i), recordTypeId, timestamps.get(i), false);
+            }
+        }
+    }
+
+    /**
+     * Runs an action on a patient while no sample can be added to that patient.
+     * Does nothing if the patient does not exist.
+     */
+    void readPatient(int patientId, Consumer<Patient> action) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            synchronized (patient) {
+                action.accept(patient);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a write-ahead log is open, the snapshot is also a checkpoint of the
+     * log: the segments holding only samples that the snapshot contains are
+     * deleted once it is written.
+     */
+    @Override
+    public int writeSnapshot(Path file) throws IOException {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            return StorageSnapshot.write(this, file, null, 0);
+        }
+        long coveredSegment = checkpointWriteAheadLog(log);
+        int patients = StorageSnapshot.write(this, file, log, coveredSegment);
+        log.truncate(coveredSegment);
+        return patients;
+    }
+
+    /**
+     * Ends the log's current segment while no sample is between being logged
+     * and being added, so every sample in the segments up to the returned one
+     * is already in memory.
+     */
+    private long checkpointWriteAheadLog(WriteAheadLog log) throws IOException {
+        Lock checkpoint = checkpointLock.writeLock();
+        checkpoint.lock();
+        try {
+            return log.checkpoint();
+        } finally {
+            checkpoint.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Patient sections are loaded in parallel from the memory-mapped file.
+     */
+    @Override
+    public int restoreSnapshot(Path file) throws IOException {
+        return StorageSnapshot.restore(this, file);
+    }
+
+    /**
+     * Remembers the write-ahead log position recorded in a restored snapshot.
+     */
+    void setSnapshotLogPosition(long coveredSegment, long overlapSegment) {
+        snapshotCoveredSegment = coveredSegment;
+        snapshotOverlapSegment = overlapSegment;
+    }
+
+    @Override
+    public long openWriteAheadLog(Path directory) throws IOException {
+        if (writeAheadLog != null) {
+            throw new IllegalStateException("A write-ahead log is already open");
+        }
+        WriteAheadLog log = WriteAheadLog.open(directory);
+        long recovered = log.recover(this, snapshotCoveredSegment, snapshotOverlapSegment);
+        writeAheadLog = log;
+        return recovered;
+    }
+
+    @Override
+    public void closeWriteAheadLog() throws IOException {
+        WriteAheadLog log = writeAheadLog;
+        writeAheadLog = null;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Override
+    public int openColdTier(Path directory, long hotAge) throws IOException {
+        if (coldStore != null) {
+            throw new IllegalStateException("A cold tier is already open");
+        }
+        if (patientMap.size() > 0) {
+            throw new IllegalStateException("The cold tier must be opened before data is added");
+        }
+        ColdStore store = ColdStore.open(directory, hotAge);
+        coldStore = store;
+        List<Integer> patientIds = store.patientIds();
+        for (int patientId : patientIds) {
+            getOrCreatePatient(patientId).attachColdSegments(store.load(patientId));
+        }
+        return patientIds.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cold data of series that have not been queried since the previous call
+     * is unmapped, so patients nobody looks at keep no history in memory.
      */
+    @Override
+    public long moveToColdTier(long currentTime) throws IOException {
+        long moved = 0;
+        if (coldStore != null) {
+            for (Patient patient : patientMap.values()) {
+                moved += patient.moveToColdTier(currentTime);
+            }
+        }
+        return moved;
+    }
+
+    @Override
+    public void setQueryCacheBudget(long memoryBudget) {
+        queryCache.setBudget(memoryBudget);
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return queryCache.getHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return queryCache.getMissCount();
+    }
+
+    @Override
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
         Patient patient = patientMap.get(patientId);
         if (patient != null) {
@@ -69,13 +317,172 @@ public class DataStorage {
         return new ArrayList<>(); // Return an empty list if no patient is found
     }
 
+    @Override
+    public List<PatientRecord> getRecords(int patientId, int recordTypeId, long startTime, long endTime) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            SampleSeries series = patient.getSeries(recordTypeId);
+            if (series != null && queryCache.getBudget() > 0) {
+                QueryCache.Entry cached = queryCache.get(patient, series, startTime, endTime);
+                return PatientRecordView.of(patientId, recordTypeId, cached.timestamps, cached.values);
+            }
+            return patient.getRecords(recordTypeId, startTime, endTime);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int forEach(int patientId, int recordTypeId, long startTime, long endTime, boolean descending,
+            SampleConsumer consumer) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            return 0;
+        }
+        SampleSeries series = patient.getSeries(recordTypeId);
+        if (series == null || queryCache.getBudget() == 0) {
+            return patient.forEach(recordTypeId, startTime, endTime, descending, consumer);
+        }
+        QueryCache.Entry cached = queryCache.get(patient, series, startTime, endTime);
+        long[] timestamps = cached.timestamps;
+        double[] values = cached.values;
+        if (descending) {
+            for (int i = timestamps.length - 1; i >= 0; i--) {
+                consumer.accept(timestamps[i], values[i]);
+            }
+        } else {
+            for (int i = 0; i < timestamps.length; i++) {
+                consumer.accept(timestamps[i], values[i]);
+            }
+        }
+        return timestamps.length;
+    }
+
+    /**
+     * Copies the samples of one record type of a patient in the given range to
+     * the end of the buffer, through the query cache if it is enabled. Does
+     * nothing if the patient does not exist.
+     */
+    void copyRange(int patientId, int recordTypeId, long startTime, long endTime, SampleBuffer target) {
+        Patient patient = patientMap.get(patientId);
+        SampleSeries series = patient != null ? patient.getSeries(recordTypeId) : null;
+        if (series == null) {
+            return;
+        }
+        if (queryCache.getBudget() == 0) {
+            series.copyRange(startTime, endTime, target);
+            return;
+        }
+        QueryCache.Entry cached = queryCache.get(patient, series, startTime, endTime);
+        for (int i = 0; i < cached.timestamps.length; i++) {
+            target.add(cached.timestamps[i], cached.values[i]);
+        }
+    }
+
+    @Override
+    public PatientRecord getLatestRecord(int patientId, String recordType) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            return patient.getLatestRecord(RecordTypeDictionary.lookup(recordType));
+        }
+        return null;
+    }
+
+    @Override
+    public List<PatientRecord> getLatestRecords(int patientId) {
+        List<PatientRecord> records = new ArrayList<>();
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            patient.forEachLatest((id, recordTypeId, timestamp, value) -> records
+                    .add(new PatientRecord(id, value, recordTypeId, timestamp)));
+        }
+        return records;
+    }
+
+    @Override
+    public void forEachLatest(LatestSampleConsumer consumer) {
+        for (Patient patient : patientMap.values()) {
+            patient.forEachLatest(consumer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Per-patient partial aggregates are computed in parallel on the common
+     * fork/join pool and merged.
+     */
+    @Override
+    public PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition) {
+        List<Patient> patients = patientMap.values();
+        return ForkJoinPool.commonPool().invoke(new PopulationAggregation(patients, 0, patients.size(),
+                recordTypeId, startTime, endTime, condition));
+    }
+
+    @Override
+    public List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime, long resolution) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            return patient.getRollups(recordTypeId, startTime, endTime, resolution);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int evictExpired(long currentTime) {
+        int removed = 0;
+        UncheckedIOException failure = null;
+        for (Patient patient : patientMap.values()) {
+            try {
+                removed += patient.evictExpired(currentTime);
+            } catch (UncheckedIOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return removed;
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        long late = 0;
+        for (Patient patient : getAllPatients()) {
+            for (SampleSeries series : patient.getAllSeries()) {
+                late += series.getLateSampleCount();
+            }
+        }
+        return late;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The ids are in the order the patients were first added.
+     */
+    @Override
+    public int[] getPatientIds() {
+        List<Patient> patients = patientMap.values();
+        int[] patientIds = new int[patients.size()];
+        for (int i = 0; i < patientIds.length; i++) {
+            patientIds[i] = patients.get(i).getPatientId();
+        }
+        return patientIds;
+    }
+
     /**
      * Retrieves a collection of all patients stored in the data storage.
+     * The returned list is a read-only view of the patients present at the time
+     * of the call, in the order they were first added; it is not a copy and is
+     * not affected by patients added later.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patientMap.values());
+        return patientMap.values();
     }
 
     /**
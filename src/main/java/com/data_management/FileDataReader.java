@@ -1,19 +1,63 @@
 package com.data_management;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileDataReader implements DataReaderFile {
 
+    static final int BATCH_SIZE = 8192; // samples handed to the storage per call
+    private static final long DEFAULT_SPLIT_SIZE = 32L << 20;
+
     private String dirPath;
+    private final int parallelism;
+    private final long splitSize;
+    private final LongAdder malformedLines = new LongAdder();
 
     public FileDataReader(String tempDirectory) {
+        this(tempDirectory, 1);
+    }
+
+    /**
+     * Constructs a reader that parses the files of a directory concurrently
+     * when the parallelism is greater than 1. Files larger than 32 MiB are
+     * split into byte ranges that are parsed in parallel as well.
+     *
+     * @param tempDirectory the directory holding the {@code .txt} files
+     * @param parallelism   the number of threads parsing at once
+     */
+    public FileDataReader(String tempDirectory, int parallelism) {
+        this(tempDirectory, parallelism, DEFAULT_SPLIT_SIZE);
+    }
+
+    /**
+     * Constructs a reader that parses the files of a directory concurrently,
+     * splitting files larger than the split size into byte ranges of at most
+     * that size. Each range is aligned to line boundaries, and every worker
+     * hands its samples to the storage in batches. Samples of one patient may
+     * then reach the storage out of order, which its series absorb.
+     *
+     * @param tempDirectory the directory holding the {@code .txt} files
+     * @param parallelism   the number of threads parsing at once
+     * @param splitSize     the largest byte range parsed by a single worker
+     */
+    public FileDataReader(String tempDirectory, int parallelism, long splitSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (splitSize < 1) {
+            throw new IllegalArgumentException("Split size must be positive: " + splitSize);
+        }
         this.dirPath = tempDirectory;
+        this.parallelism = parallelism;
+        this.splitSize = splitSize;
     }
 
-    public void readData(DataStorage dataStorage) {
+    public void readData(AbstractDataStorage dataStorage) {
         File dir = new File(dirPath);
         if (!dir.exists() || !dir.isDirectory()) {
             throw new IllegalArgumentException("Specified path is not a directory: " + dirPath);
@@ -25,40 +69,51 @@ public class FileDataReader implements DataReaderFile {
             throw new IllegalArgumentException("No files in the directory: " + dirPath);
         }
 
-        for (File file : files) {
-            parseFile(file, dataStorage);
+        if (parallelism == 1) {
+            for (File file : files) {
+                parseFile(file, dataStorage);
+            }
+            return;
         }
-    }
-
-    public void parseFile(File file, DataStorage dataStorage) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
 
-            while ((line = reader.readLine()) != null) {
-                PatientRecord record = parseLineToPatientRecord(line);
-                if (record != null) {
-                    dataStorage.addPatientData(record.getPatientId(), record.getMeasurementValue(),
-                            record.getRecordType(), record.getTimestamp());
-                }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>(files.length);
+            for (File file : files) {
+                tasks.add(pool.submit(new FileRangeParse(file.toPath(), 0, file.length(), splitSize, dataStorage,
+                        malformedLines)));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            for (ForkJoinTask<Void> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
         }
     }
 
-    private PatientRecord parseLineToPatientRecord(String line) {
-        String[] parts = line.split(",");
-
+    /**
+     * Parses a data file into the storage. The file is memory-mapped and its
+     * lines are decoded straight from the mapped bytes; malformed lines are
+     * skipped and counted, see {@link #getMalformedLineCount()}.
+     *
+     * @param file        the file to parse
+     * @param dataStorage receives the samples
+     */
+    public void parseFile(File file, AbstractDataStorage dataStorage) {
         try {
-            int patientId = Integer.parseInt(parts[0].trim());
-            double measurementValue = Double.parseDouble(parts[1].trim());
-            String recordType = parts[2].trim();
-            long timestamp = Long.parseLong(parts[3].trim());
-
-            return new PatientRecord(patientId, measurementValue, recordType, timestamp);
-        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            new FileRangeParse(file.toPath(), 0, file.length(), Long.MAX_VALUE, dataStorage, malformedLines)
+                    .parseRange();
+        } catch (IOException e) {
             e.printStackTrace();
-            return null;
         }
     }
+
+    /**
+     * Returns the number of malformed lines skipped by this reader so far.
+     *
+     * @return the malformed line count
+     */
+    public long getMalformedLineCount() {
+        return malformedLines.sum();
+    }
 }
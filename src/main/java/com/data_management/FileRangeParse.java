@@ -0,0 +1,204 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fork/join task that parses the lines of a byte range of a data file into a
+ * {@link DataStorage}. Ranges larger than the split size are split in half;
+ * each leaf memory-maps its range, decodes the lines with a
+ * {@link SampleLineParser} and hands the samples to the storage in batches.
+ * <p>
+ * A range owns the lines that start inside it. A leaf therefore skips the
+ * line in progress at its start, which belongs to the previous range, and
+ * reads past its end to finish its last line.
+ * <p>
+ * The ranges of a file are parsed in parallel but stored in file order, so
+ * the samples of a time-sorted file reach every series in order and are
+ * appended rather than inserted in place. The leaf holding the first range
+ * not yet stored hands its batches to the storage as it parses them; a leaf
+ * further on keeps its batches until every range before it is stored.
+ */
+final class FileRangeParse extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final long WINDOW_SIZE = 64L << 20; // bytes mapped at a time
+
+    private final Path file;
+    private final long start;
+    private final long end;
+    private final long splitSize;
+    private final LongAdder malformedLines;
+    private final RangeOrder order;
+
+    FileRangeParse(Path file, long start, long end, long splitSize, AbstractDataStorage storage,
+            LongAdder malformedLines) {
+        this(file, start, end, splitSize, malformedLines, new RangeOrder(storage, start));
+    }
+
+    private FileRangeParse(Path file, long start, long end, long splitSize, LongAdder malformedLines,
+            RangeOrder order) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.splitSize = splitSize;
+        this.malformedLines = malformedLines;
+        this.order = order;
+    }
+
+    @Override
+    protected void compute() {
+        if (end - start <= splitSize) {
+            try {
+                parseRange();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        long middle = (start + end) >>> 1;
+        invokeAll(new FileRangeParse(file, start, middle, splitSize, malformedLines, order),
+                new FileRangeParse(file, middle, end, splitSize, malformedLines, order));
+    }
+
+    /**
+     * Parses the lines that start in this task's range, on the calling thread.
+     *
+     * @throws IOException if the file cannot be read, or holds a line longer
+     *                     than the mapping window
+     */
+    void parseRange() throws IOException {
+        SampleLineParser parser = new SampleLineParser();
+        SampleBatch batch = new SampleBatch(FileDataReader.BATCH_SIZE);
+        long malformed = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            // starting one byte early, the skipped line is empty if a line starts exactly at start
+            long lineStart = start > 0 ? start - 1 : 0;
+            boolean skipping = start > 0;
+
+            while (lineStart < end && lineStart < fileSize) {
+                int windowSize = (int) Math.min(fileSize - lineStart, WINDOW_SIZE);
+                boolean lastWindow = lineStart + windowSize == fileSize;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, lineStart, windowSize);
+                int from = 0;
+                while (lineStart + from < end) {
+                    int lineEnd = from;
+                    while (lineEnd < windowSize && window.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    if (lineEnd == windowSize && !lastWindow) {
+                        break; // the line continues in the next window
+                    }
+                    if (!skipping && !SampleLineParser.isBlank(window, from, lineEnd)) {
+                        if (!parser.parse(window, from, lineEnd, batch)) {
+                            malformed++;
+                        } else if (batch.size() == FileDataReader.BATCH_SIZE) {
+                            if (order.offer(start, batch)) {
+                                batch.clear();
+                            } else {
+                                batch = new SampleBatch(FileDataReader.BATCH_SIZE);
+                            }
+                        }
+                    }
+                    skipping = false;
+                    from = Math.min(lineEnd + 1, windowSize);
+                    if (from == windowSize) {
+                        break;
+                    }
+                }
+                if (from == 0 && !lastWindow) {
+                    throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at " + lineStart + " in " + file);
+                }
+                lineStart += from;
+                if (lastWindow && from == windowSize) {
+                    break;
+                }
+            }
+        } finally {
+            malformedLines.add(malformed);
+            order.finish(start, end, batch);
+        }
+    }
+
+    /**
+     * Hands the batches of one file's ranges to the storage in range order.
+     * Ranges are identified by their start offset; the head is the first range
+     * whose batches have not all been stored.
+     */
+    private static final class RangeOrder {
+        private final AbstractDataStorage storage;
+        private final Map<Long, List<SampleBatch>> kept = new HashMap<>(); // by range start
+        private final Map<Long, Long> finished = new HashMap<>(); // range end by range start
+        private long head;
+
+        RangeOrder(AbstractDataStorage storage, long start) {
+            this.storage = storage;
+            this.head = start;
+        }
+
+        /**
+         * Stores a batch of a range if the range is the head, or keeps it.
+         *
+         * @return true if the batch was stored and may be reused, false if it
+         *         is kept
+         */
+        boolean offer(long rangeStart, SampleBatch batch) {
+            synchronized (this) {
+                if (rangeStart != head) {
+                    kept.computeIfAbsent(rangeStart, s -> new ArrayList<>()).add(batch);
+                    return false;
+                }
+            }
+            // only the head range's own thread moves the head away from it
+            storage.addBatch(batch);
+            return true;
+        }
+
+        /**
+         * Stores or keeps the last batch of a range, and if the range is the
+         * head, moves the head on, storing the batches kept by the ranges it
+         * passes.
+         */
+        void finish(long rangeStart, long rangeEnd, SampleBatch last) {
+            if (last.size() > 0) {
+                offer(rangeStart, last);
+            }
+            long next;
+            synchronized (this) {
+                finished.put(rangeStart, rangeEnd);
+                if (rangeStart != head) {
+                    return;
+                }
+                next = rangeEnd;
+            }
+            while (true) {
+                List<SampleBatch> batches;
+                synchronized (this) {
+                    batches = kept.remove(next);
+                    if (batches == null) {
+                        // nothing kept: the range can store its own batches from now on
+                        head = next;
+                        Long nextEnd = finished.get(next);
+                        if (nextEnd == null) {
+                            return;
+                        }
+                        next = nextEnd;
+                        continue;
+                    }
+                }
+                for (SampleBatch batch : batches) {
+                    storage.addBatch(batch);
+                }
+            }
+        }
+    }
+}
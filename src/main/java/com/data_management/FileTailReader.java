@@ -0,0 +1,254 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows the {@code .txt} files that the simulator's file output keeps
+ * appending to, and ingests only the bytes added since the previous read. A
+ * byte offset is remembered per file, and only complete lines are consumed, so
+ * a line that is still being written is read once it is finished.
+ * <p>
+ * Lines may be in the simulator's format,
+ * {@code Patient ID: 7, Timestamp: 1714376789050, Label: Saturation, Data: 97.0%},
+ * or in the {@code patientId,value,recordType,timestamp} format read by
+ * {@link FileDataReader}. Malformed lines are skipped and counted.
+ * <p>
+ * {@link #readData(AbstractDataStorage)} reads the new bytes once.
+ * {@link #follow(AbstractDataStorage)} additionally watches the directory with
+ * a {@link WatchService} and reads each file as soon as it changes; while no
+ * data arrives, the watching thread sleeps and costs nothing.
+ */
+public class FileTailReader implements DataReaderFile, Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final Map<Path, Long> offsets = new HashMap<>();
+    private final SampleLineParser parser = new SampleLineParser();
+    private final SampleBatch batch = new SampleBatch(FileDataReader.BATCH_SIZE);
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long ingestedLines;
+    private long malformedLines;
+    private WatchService watchService;
+    private Thread follower;
+
+    /**
+     * Constructs a reader for the files of a directory. Nothing is read until
+     * {@link #readData(AbstractDataStorage)} or
+     * {@link #follow(AbstractDataStorage)} is called.
+     *
+     * @param directory the directory the simulator writes its files to
+     */
+    public FileTailReader(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Ingests the lines appended to every file of the directory since the
+     * previous read; on the first read, the whole files.
+     *
+     * @param dataStorage receives the samples
+     * @throws IOException if the directory or a file cannot be read
+     */
+    @Override
+    public synchronized void readData(AbstractDataStorage dataStorage) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Specified path is not a directory: " + directory);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path file : files) {
+                readNew(file, dataStorage);
+            }
+        }
+    }
+
+    /**
+     * Catches up with the files of the directory and then keeps ingesting the
+     * lines appended to them, on a background thread, until the reader is
+     * closed.
+     *
+     * @param dataStorage receives the samples
+     * @throws IOException if the directory cannot be watched or read
+     */
+    public synchronized void follow(AbstractDataStorage dataStorage) throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("Already following " + directory);
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        // watch before catching up, so that no append falls between the two
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        readData(dataStorage);
+
+        WatchService watcher = watchService;
+        follower = new Thread(() -> watch(watcher, dataStorage), "file-tail-" + directory.getFileName());
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    private void watch(WatchService watcher, AbstractDataStorage dataStorage) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            readData(dataStorage); // events were lost; check every file
+                        } else {
+                            Path file = directory.resolve((Path) event.context());
+                            if (file.toString().endsWith(".txt")) {
+                                synchronized (this) {
+                                    readNew(file, dataStorage);
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Error following " + directory + ": " + e.getMessage());
+                    }
+                }
+                if (!key.reset()) {
+                    return; // the directory is gone
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Ingests the complete lines appended to a file since its remembered
+     * offset. A file that has shrunk was replaced and is read from the start.
+     */
+    private void readNew(Path file, AbstractDataStorage dataStorage) throws IOException {
+        long offset = offsets.getOrDefault(file, 0L);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                offset = 0;
+            }
+            while (offset < size) {
+                buffer.clear();
+                int read = channel.read(buffer, offset);
+                if (read <= 0) {
+                    break;
+                }
+                int consumed = parseLines(read, dataStorage);
+                if (consumed == 0) {
+                    if (read < buffer.capacity()) {
+                        break; // the last line is not finished yet
+                    }
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                offset += consumed;
+            }
+        } finally {
+            offsets.put(file, offset);
+            if (batch.size() > 0) {
+                dataStorage.addBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Parses the complete lines among the first {@code length} bytes of the
+     * buffer into the batch, storing the batch whenever it is full.
+     *
+     * @return the number of bytes consumed, up to and including the last line
+     *         break
+     */
+    private int parseLines(int length, AbstractDataStorage dataStorage) {
+        int from = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+            if (!SampleLineParser.isBlank(buffer, from, i)) {
+                boolean parsed = startsWithLetter(from, i) ? parser.parseSimulatorLine(buffer, from, i, batch)
+                        : parser.parse(buffer, from, i, batch);
+                if (parsed) {
+                    ingestedLines++;
+                    if (batch.size() >= FileDataReader.BATCH_SIZE) {
+                        dataStorage.addBatch(batch);
+                        batch.clear();
+                    }
+                } else {
+                    malformedLines++;
+                }
+            }
+            from = i + 1;
+        }
+        return from;
+    }
+
+    private boolean startsWithLetter(int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t') {
+                return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of lines ingested so far.
+     *
+     * @return the ingested line count
+     */
+    public synchronized long getIngestedLineCount() {
+        return ingestedLines;
+    }
+
+    /**
+     * Returns the number of malformed lines skipped so far.
+     *
+     * @return the malformed line count
+     */
+    public synchronized long getMalformedLineCount() {
+        return malformedLines;
+    }
+
+    /**
+     * Stops following the directory. Lines appended afterwards are picked up
+     * by the next read.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        WatchService watcher;
+        Thread thread;
+        synchronized (this) {
+            watcher = watchService;
+            thread = follower;
+            watchService = null;
+            follower = null;
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
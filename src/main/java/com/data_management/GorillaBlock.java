@@ -0,0 +1,243 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed run of samples in ascending timestamp order, using
+ * the encoding of Facebook's Gorilla time series database.
+ * <ul>
+ * <li>Timestamps are stored as the delta of their delta: a perfectly regular
+ * sampling interval costs one bit per sample, and small jitter 9 to 16
+ * bits.</li>
+ * <li>Values are XORed with the previous value and only the meaningful bits of
+ * the result are stored: a repeated value costs one bit, a slowly changing one
+ * a few bits more than its changing mantissa bits.</li>
+ * </ul>
+ * The first sample is stored in full. Blocks are decoded front to back with a
+ * {@link Decoder}; there is no random access.
+ */
+final class GorillaBlock {
+    private final long[] words;
+    private final int count;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+
+    private GorillaBlock(long[] words, int count, long firstTimestamp, long lastTimestamp) {
+        this.words = words;
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    /**
+     * Compresses the samples from {@code from} (inclusive) to {@code to}
+     * (exclusive) of the given arrays, which must be sorted by timestamp and
+     * contain at least one sample.
+     */
+    static GorillaBlock encode(long[] timestamps, double[] values, int from, int to) {
+        BitWriter out = new BitWriter((to - from) / 4 + 4);
+        out.write(timestamps[from], 64);
+        out.write(Double.doubleToRawLongBits(values[from]), 64);
+
+        long previousTimestamp = timestamps[from];
+        long previousDelta = 0;
+        long previousBits = Double.doubleToRawLongBits(values[from]);
+        int previousLeading = Integer.MAX_VALUE;
+        int previousTrailing = 0;
+        for (int i = from + 1; i < to; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (leading >= previousLeading && trailing >= previousTrailing) {
+                    out.write(0b10, 2);
+                    out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                } else {
+                    int length = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(length - 1, 6);
+                    out.write(xor >>> trailing, length);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            previousBits = bits;
+        }
+        return new GorillaBlock(out.toArray(), to - from, timestamps[from], timestamps[to - 1]);
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Returns the number of bytes used by the compressed bit stream.
+     */
+    long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * Decodes every sample into the given arrays, starting at index 0.
+     */
+    void decode(long[] timestamps, double[] values) {
+        Decoder decoder = decoder();
+        for (int i = 0; i < count; i++) {
+            decoder.next();
+            timestamps[i] = decoder.timestamp;
+            values[i] = decoder.value;
+        }
+    }
+
+    Decoder decoder() {
+        return new Decoder();
+    }
+
+    /**
+     * Streams the samples of the block in order. Call {@link #next()} before
+     * reading the first sample.
+     */
+    final class Decoder {
+        private int position; // bit position in the stream
+        private int decoded;
+        private long timestamp;
+        private double value;
+        private long delta;
+        private long bits;
+        private int leading;
+        private int trailing;
+
+        boolean hasNext() {
+            return decoded < count;
+        }
+
+        void next() {
+            if (decoded == 0) {
+                timestamp = read(64);
+                bits = read(64);
+            } else {
+                long deltaOfDelta;
+                if (read(1) == 0) {
+                    deltaOfDelta = 0;
+                } else if (read(1) == 0) {
+                    deltaOfDelta = signed(read(7), 7);
+                } else if (read(1) == 0) {
+                    deltaOfDelta = signed(read(9), 9);
+                } else if (read(1) == 0) {
+                    deltaOfDelta = signed(read(12), 12);
+                } else {
+                    deltaOfDelta = read(64);
+                }
+                delta += deltaOfDelta;
+                timestamp += delta;
+
+                if (read(1) != 0) {
+                    if (read(1) != 0) {
+                        leading = (int) read(5);
+                        int length = (int) read(6) + 1;
+                        trailing = 64 - leading - length;
+                    }
+                    bits ^= read(64 - leading - trailing) << trailing;
+                }
+            }
+            value = Double.longBitsToDouble(bits);
+            decoded++;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return value;
+        }
+
+        private long read(int length) {
+            int word = position >>> 6;
+            int offset = position & 63;
+            position += length;
+            long result = words[word] << offset;
+            if (offset + length > 64) {
+                result |= words[word + 1] >>> (64 - offset);
+            }
+            return length == 64 ? result : result >>> (64 - length);
+        }
+    }
+
+    /**
+     * Decodes a value of the given width written in two's complement. The
+     * ranges above are shifted by one so that e.g. 7 bits hold -63 to 64.
+     */
+    private static long signed(long raw, int length) {
+        long limit = 1L << (length - 1);
+        return raw > limit ? raw - (1L << length) : raw;
+    }
+
+    /**
+     * Appends bit fields, most significant bit first, to a growable array of
+     * words.
+     */
+    private static final class BitWriter {
+        private long[] words;
+        private int position;
+
+        BitWriter(int initialBits) {
+            words = new long[Math.max(2, (initialBits + 63) / 64)];
+        }
+
+        void write(long value, int length) {
+            if (length < 64) {
+                value &= (1L << length) - 1;
+            }
+            int word = position >>> 6;
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int offset = position & 63;
+            int free = 64 - offset;
+            if (length <= free) {
+                words[word] |= value << (free - length);
+            } else {
+                words[word] |= value >>> (length - free);
+                words[word + 1] |= value << (64 - (length - free));
+            }
+            position += length;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+}
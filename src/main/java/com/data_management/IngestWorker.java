@@ -0,0 +1,151 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An ingest stage that decouples the threads receiving samples, such as a
+ * WebSocket client's I/O thread, from the storage. Receivers put samples into
+ * a lock-free {@link SampleRingBuffer}; a single worker thread drains it in
+ * batches and stores each batch with
+ * {@link AbstractDataStorage#addBatch(SampleBatch)}.
+ * A storage stall therefore fills the buffer, and is handled by its overflow
+ * policy, instead of holding up the receiver.
+ */
+public class IngestWorker implements Closeable {
+    private static final int MAX_BATCH = FileDataReader.BATCH_SIZE;
+    private static final long IDLE_PARK_NANOS = 1_000_000; // bounds a missed wake-up
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final AbstractDataStorage storage;
+    private final SampleRingBuffer buffer;
+    private final Thread worker;
+    private final LongAdder storedSamples = new LongAdder();
+    private volatile boolean sleeping;
+    private volatile boolean working;
+    private volatile boolean closed;
+
+    /**
+     * Constructs and starts a worker that stores samples into a storage.
+     *
+     * @param storage        receives the samples
+     * @param capacity       the number of samples the buffer holds
+     * @param overflowPolicy what to do with a sample when the buffer is full
+     */
+    public IngestWorker(AbstractDataStorage storage, int capacity, OverflowPolicy overflowPolicy) {
+        this.storage = storage;
+        this.buffer = new SampleRingBuffer(capacity, overflowPolicy);
+        this.worker = new Thread(this::drain, "ingest-worker-" + THREAD_NUMBER.incrementAndGet());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public AbstractDataStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Hands a sample to the worker. Returns as soon as the sample is in the
+     * buffer, unless the buffer is full and its policy is to block.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     * @return true if the sample was queued, false if it was dropped
+     */
+    public boolean submit(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        boolean queued = buffer.offer(patientId, measurementValue, recordTypeId, timestamp);
+        if (sleeping) {
+            LockSupport.unpark(worker);
+        }
+        return queued;
+    }
+
+    private void drain() {
+        SampleBatch batch = new SampleBatch(MAX_BATCH);
+        while (true) {
+            working = true;
+            batch.clear();
+            if (buffer.drainTo(batch, MAX_BATCH) > 0) {
+                try {
+                    storage.addBatch(batch);
+                    storedSamples.add(batch.size());
+                } catch (RuntimeException e) {
+                    System.err.println("Ingest failed: " + e.getMessage());
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            working = false;
+            if (closed && buffer.isEmpty()) {
+                return;
+            }
+            sleeping = true;
+            if (buffer.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Waits until every sample submitted before this call has been stored or
+     * dropped.
+     */
+    public void flush() {
+        while (!buffer.isEmpty() || working) {
+            if (!worker.isAlive()) {
+                return;
+            }
+            LockSupport.unpark(worker);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Returns the number of samples stored so far.
+     *
+     * @return the stored sample count
+     */
+    public long getStoredCount() {
+        return storedSamples.sum();
+    }
+
+    /**
+     * Returns the number of samples dropped by the buffer's overflow policy.
+     *
+     * @return the dropped sample count
+     */
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of samples waiting in the buffer.
+     *
+     * @return the queued sample count
+     */
+    public int getQueuedCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Stores the samples still queued and stops the worker thread. Samples
+     * submitted afterwards are dropped once the buffer is full.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        buffer.close();
+    }
+}
@@ -0,0 +1,20 @@
+package com.data_management;
+
+/**
+ * Receives the latest sample of a record type for a patient, as visited by
+ * {@link DataStorage#forEachLatest(LatestSampleConsumer)}.
+ */
+@FunctionalInterface
+public interface LatestSampleConsumer {
+
+    /**
+     * Receives one latest sample.
+     *
+     * @param patientId    the patient the sample belongs to
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param timestamp    the time of the measurement, in milliseconds since
+     *                     UNIX epoch
+     * @param value        the measurement value
+     */
+    void accept(int patientId, int recordTypeId, long timestamp, double value);
+}
@@ -0,0 +1,165 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoublePredicate;
+
+/**
+ * A shard held in this JVM: its own {@link DataStorage}, with its own patient
+ * index and locks, and a single ingest thread that stores queued samples.
+ */
+public class LocalShard implements StorageShard {
+    private final DataStorage storage;
+    private final ExecutorService ingestExecutor;
+
+    /**
+     * Constructs a shard around the given storage.
+     *
+     * @param storage the storage holding this shard's patients
+     * @param name    the name of the shard, used for its ingest thread
+     */
+    public LocalShard(DataStorage storage, String name) {
+        this.storage = storage;
+        this.ingestExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, name + "-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the storage holding this shard's patients.
+     *
+     * @return the shard's storage
+     */
+    public DataStorage getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        storage.addPatientData(patientId, measurementValue, recordTypeId, timestamp);
+    }
+
+    @Override
+    public void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int length) {
+        storage.addBatch(patientIds, recordTypeIds, timestamps, values, length);
+    }
+
+    @Override
+    public void ingest(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        ingestExecutor.execute(() -> storage.addPatientData(patientId, measurementValue, recordTypeId, timestamp));
+    }
+
+    @Override
+    public void flush() {
+        try {
+            ingestExecutor.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ingest failed", e.getCause());
+        }
+    }
+
+    @Override
+    public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
+        return storage.getRecords(patientId, startTime, endTime);
+    }
+
+    @Override
+    public void copyRange(int patientId, int recordTypeId, long startTime, long endTime, SampleBuffer target) {
+        storage.copyRange(patientId, recordTypeId, startTime, endTime, target);
+    }
+
+    @Override
+    public List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime,
+            long resolution) {
+        return storage.getRollups(patientId, recordTypeId, startTime, endTime, resolution);
+    }
+
+    @Override
+    public List<PatientRecord> getLatestRecords(int patientId) {
+        return storage.getLatestRecords(patientId);
+    }
+
+    @Override
+    public void forEachLatest(LatestSampleConsumer consumer) {
+        storage.forEachLatest(consumer);
+    }
+
+    @Override
+    public PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition) {
+        return storage.aggregate(recordTypeId, startTime, endTime, condition);
+    }
+
+    @Override
+    public int evictExpired(long currentTime) {
+        return storage.evictExpired(currentTime);
+    }
+
+    @Override
+    public int patientCount() {
+        return storage.getAllPatients().size();
+    }
+
+    @Override
+    public int[] patientIds() {
+        return storage.getPatientIds();
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        return storage.getLateSampleCount();
+    }
+
+    @Override
+    public int writeSnapshot(Path file) throws IOException {
+        return storage.writeSnapshot(file);
+    }
+
+    @Override
+    public int restoreSnapshot(Path file) throws IOException {
+        return storage.restoreSnapshot(file);
+    }
+
+    @Override
+    public long openWriteAheadLog(Path directory) throws IOException {
+        return storage.openWriteAheadLog(directory);
+    }
+
+    @Override
+    public void closeWriteAheadLog() throws IOException {
+        storage.closeWriteAheadLog();
+    }
+
+    @Override
+    public int openColdTier(Path directory, long hotAge) throws IOException {
+        return storage.openColdTier(directory, hotAge);
+    }
+
+    @Override
+    public long moveToColdTier(long currentTime) throws IOException {
+        return storage.moveToColdTier(currentTime);
+    }
+
+    /**
+     * Stores the samples still queued and stops the ingest thread.
+     */
+    @Override
+    public void close() {
+        ingestExecutor.shutdown();
+        try {
+            ingestExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.data_management;
+
+import static com.data_management.OffHeapSeriesFactory.BLOCK_MASK;
+import static com.data_management.OffHeapSeriesFactory.BLOCK_SHIFT;
+
+import java.util.Arrays;
+
+/**
+ * A series whose samples live in off-heap blocks handed out by an
+ * {@link OffHeapSeriesFactory}. The series itself only holds a ring of block
+ * handles; blocks emptied by retention are given back to the factory.
+ */
+class OffHeapSeries extends AbstractSampleSeries {
+    private static final int NO_BLOCK = -1;
+
+    private final OffHeapSeriesFactory factory;
+    private volatile int[] blocks; // ring of block handles, length is a power of two
+
+    OffHeapSeries(OffHeapSeriesFactory factory, int recordTypeId, long retention) {
+        super(recordTypeId, retention, BLOCK_SHIFT);
+        this.factory = factory;
+        this.blocks = new int[] { NO_BLOCK };
+    }
+
+    @Override
+    void prepare(long sequence, long first) {
+        int[] current = blocks;
+        long block = sequence >>> BLOCK_SHIFT;
+        long firstBlock = first >>> BLOCK_SHIFT;
+        if (block - firstBlock >= current.length) {
+            int length = current.length * 2;
+            while (block - firstBlock >= length) {
+                length *= 2;
+            }
+            int[] grown = new int[length];
+            Arrays.fill(grown, NO_BLOCK);
+            for (long b = firstBlock; b < block; b++) {
+                grown[(int) b & (length - 1)] = current[(int) b & (current.length - 1)];
+            }
+            current = grown;
+            blocks = current;
+        }
+        int slot = (int) block & (current.length - 1);
+        if (current[slot] == NO_BLOCK) {
+            current[slot] = factory.allocateBlock();
+        }
+    }
+
+    @Override
+    void store(long sequence, long timestamp, double value) {
+        factory.put(handle(sequence), (int) sequence & BLOCK_MASK, timestamp, value);
+    }
+
+    @Override
+    long loadTimestamp(long sequence) {
+        int handle = handle(sequence);
+        return handle != NO_BLOCK ? factory.getTimestamp(handle, (int) sequence & BLOCK_MASK) : 0L;
+    }
+
+    @Override
+    double loadValue(long sequence) {
+        int handle = handle(sequence);
+        return handle != NO_BLOCK ? factory.getValue(handle, (int) sequence & BLOCK_MASK) : 0.0;
+    }
+
+    @Override
+    void release(long from, long to) {
+        int[] current = blocks;
+        // only blocks whose last sample has been evicted can be given back
+        for (long b = from >>> BLOCK_SHIFT; b < to >>> BLOCK_SHIFT; b++) {
+            int slot = (int) b & (current.length - 1);
+            if (current[slot] != NO_BLOCK) {
+                factory.freeBlock(current[slot]);
+                current[slot] = NO_BLOCK;
+            }
+        }
+    }
+
+    private int handle(long sequence) {
+        int[] current = blocks;
+        return current[(int) (sequence >>> BLOCK_SHIFT) & (current.length - 1)];
+    }
+}
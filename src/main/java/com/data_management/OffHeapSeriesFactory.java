@@ -0,0 +1,121 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Creates series whose samples are stored off-heap, in direct ByteBuffer
+ * slabs. Each slab is divided into fixed-size blocks; a block holds the
+ * timestamps and then the values of {@link #BLOCK_SAMPLES} samples. A series
+ * only keeps the int handles of its blocks on the Java heap, so heap usage
+ * stays small no matter how many samples are stored.
+ * <p>
+ * Blocks freed by retention are returned to a shared free list and reused by
+ * any series created by the same factory.
+ */
+public class OffHeapSeriesFactory implements SeriesFactory {
+    static final int BLOCK_SHIFT = 8;
+    static final int BLOCK_SAMPLES = 1 << BLOCK_SHIFT;
+    static final int BLOCK_MASK = BLOCK_SAMPLES - 1;
+    static final int BLOCK_BYTES = BLOCK_SAMPLES * (Long.BYTES + Double.BYTES);
+    private static final int VALUES_OFFSET = BLOCK_SAMPLES * Long.BYTES;
+    private static final int DEFAULT_SLAB_BYTES = 64 * 1024 * 1024;
+
+    private final int blocksPerSlab;
+    private final int slabShift;
+    private volatile ByteBuffer[] slabs;
+    private int nextBlock; // next never-used block in the last slab
+    private int[] freeBlocks;
+    private int freeCount;
+
+    /**
+     * Constructs a factory that allocates 64 MB slabs.
+     */
+    public OffHeapSeriesFactory() {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * Constructs a factory that allocates slabs of the given size.
+     *
+     * @param slabBytes the size of each direct buffer; rounded down to a power
+     *                  of two number of blocks
+     */
+    public OffHeapSeriesFactory(int slabBytes) {
+        if (slabBytes < BLOCK_BYTES) {
+            throw new IllegalArgumentException("Slab must hold at least one block: " + slabBytes);
+        }
+        this.slabShift = 31 - Integer.numberOfLeadingZeros(slabBytes / BLOCK_BYTES);
+        this.blocksPerSlab = 1 << slabShift;
+        this.slabs = new ByteBuffer[0];
+        this.nextBlock = blocksPerSlab;
+        this.freeBlocks = new int[16];
+    }
+
+    @Override
+    public SampleSeries create(int recordTypeId, long retention) {
+        return new OffHeapSeries(this, recordTypeId, retention);
+    }
+
+    /**
+     * Returns the number of bytes of direct memory allocated by this factory.
+     *
+     * @return the allocated off-heap bytes
+     */
+    public long allocatedBytes() {
+        return (long) slabs.length * blocksPerSlab * BLOCK_BYTES;
+    }
+
+    /**
+     * Returns the number of blocks that are allocated but not in use by any
+     * series.
+     *
+     * @return the free block count
+     */
+    public synchronized int freeBlockCount() {
+        return freeCount + (slabs.length == 0 ? 0 : blocksPerSlab - nextBlock);
+    }
+
+    synchronized int allocateBlock() {
+        if (freeCount > 0) {
+            return freeBlocks[--freeCount];
+        }
+        if (nextBlock == blocksPerSlab) {
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slabs.length] = ByteBuffer.allocateDirect(blocksPerSlab * BLOCK_BYTES);
+            slabs = grown;
+            nextBlock = 0;
+        }
+        return ((slabs.length - 1) << slabShift) | nextBlock++;
+    }
+
+    synchronized void freeBlock(int block) {
+        if (freeCount == freeBlocks.length) {
+            freeBlocks = Arrays.copyOf(freeBlocks, freeBlocks.length * 2);
+        }
+        freeBlocks[freeCount++] = block;
+    }
+
+    long getTimestamp(int block, int offset) {
+        return slab(block).getLong(base(block) + offset * Long.BYTES);
+    }
+
+    double getValue(int block, int offset) {
+        return slab(block).getDouble(base(block) + VALUES_OFFSET + offset * Double.BYTES);
+    }
+
+    void put(int block, int offset, long timestamp, double value) {
+        ByteBuffer slab = slab(block);
+        int base = base(block);
+        slab.putLong(base + offset * Long.BYTES, timestamp);
+        slab.putDouble(base + VALUES_OFFSET + offset * Double.BYTES, value);
+    }
+
+    private ByteBuffer slab(int block) {
+        return slabs[block >>> slabShift];
+    }
+
+    private int base(int block) {
+        return (block & (blocksPerSlab - 1)) * BLOCK_BYTES;
+    }
+}
@@ -0,0 +1,23 @@
+package com.data_management;
+
+/**
+ * Decides what happens to a sample offered to a full bounded queue.
+ */
+public enum OverflowPolicy {
+    /**
+     * The producer waits until the queue has room, so no sample is lost but a
+     * slow consumer slows ingestion down.
+     */
+    BLOCK,
+
+    /**
+     * The oldest queued sample is discarded to make room, so the consumer sees
+     * the most recent samples.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The offered sample is discarded, so the consumer sees an unbroken prefix.
+     */
+    DROP_NEWEST
+}
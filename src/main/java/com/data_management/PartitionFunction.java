@@ -0,0 +1,43 @@
+package com.data_management;
+
+/**
+ * Decides which shard of a {@link ShardedDataStorage} holds a patient.
+ * The function must always map a patient to the same shard for a given shard
+ * count.
+ */
+@FunctionalInterface
+public interface PartitionFunction {
+
+    /**
+     * Returns the shard of a patient.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param shardCount the number of shards
+     * @return the shard index, from 0 to shardCount - 1
+     */
+    int shardOf(int patientId, int shardCount);
+
+    /**
+     * Returns a partition function that spreads consecutive patient IDs over the
+     * shards round-robin.
+     *
+     * @return the modulo partition function
+     */
+    static PartitionFunction modulo() {
+        return (patientId, shardCount) -> Math.floorMod(patientId, shardCount);
+    }
+
+    /**
+     * Returns a partition function that keeps blocks of consecutive patient IDs,
+     * e.g. one ward, on the same shard.
+     *
+     * @param patientsPerBlock the number of consecutive IDs in a block
+     * @return the range partition function
+     */
+    static PartitionFunction ranges(int patientsPerBlock) {
+        if (patientsPerBlock <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + patientsPerBlock);
+        }
+        return (patientId, shardCount) -> Math.floorMod(Math.floorDiv(patientId, patientsPerBlock), shardCount);
+    }
+}
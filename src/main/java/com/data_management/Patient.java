@@ -1,35 +1,102 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Represents a patient and manages their medical records.
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ * Records are kept in one columnar {@link SampleSeries} per record type instead
+ * of one object per record. The series are indexed by their
+ * {@link RecordTypeDictionary} id.
+ * <p>
+ * Writers (methods that add or evict records) are serialized on the patient's
+ * monitor; with one ingest thread per patient that lock is never contended.
+ * Readers never take it: they see series through a volatile array that is
+ * replaced, not modified, when a new record type appears, and each series
+ * gives them a consistent snapshot without blocking the writer.
  */
 public class Patient {
+    private static final VarHandle APPEND_VERSION = MethodHandles.arrayElementVarHandle(long[].class);
+
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    private RetentionPolicy retentionPolicy;
+    private SeriesFactory seriesFactory;
+    private ColdStore coldStore; // null unless the storage has a cold tier
+    private volatile SampleSeries[] seriesByType;
+    private volatile RollupSeries[] rollupsByType;
+    private volatile long[] appendVersions; // per record type, bumped after every change to its series
+    private volatile Latest latest; // newest sample of each record type
+    private volatile int latestVersion; // odd while a latest sample is being replaced
+    private final QueryCache.Section queryCacheSection = new QueryCache.Section();
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series that keep every record.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, RetentionPolicy.unlimited());
+    }
+
+    /**
+     * Constructs a new Patient whose records are kept according to the given
+     * retention policy.
+     *
+     * @param patientId       the unique identifier for the patient
+     * @param retentionPolicy decides how long records of each type are kept
+     */
+    public Patient(int patientId, RetentionPolicy retentionPolicy) {
+        this(patientId, retentionPolicy, SeriesFactory.onHeap());
+    }
+
+    /**
+     * Constructs a new Patient whose records are kept according to the given
+     * retention policy, in series created by the given factory.
+     *
+     * @param patientId       the unique identifier for the patient
+     * @param retentionPolicy decides how long records of each type are kept
+     * @param seriesFactory   creates the series that store the records
+     */
+    public Patient(int patientId, RetentionPolicy retentionPolicy, SeriesFactory seriesFactory) {
+        this(patientId, retentionPolicy, seriesFactory, null);
+    }
+
+    /**
+     * Constructs a new Patient whose samples older than the store's hot age can
+     * be moved to cold segment files with {@link #moveToColdTier(long)}.
+     */
+    Patient(int patientId, RetentionPolicy retentionPolicy, SeriesFactory seriesFactory, ColdStore coldStore) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.retentionPolicy = retentionPolicy;
+        this.seriesFactory = seriesFactory;
+        this.coldStore = coldStore;
+        this.seriesByType = new SampleSeries[0];
+        this.rollupsByType = new RollupSeries[0];
+        this.appendVersions = new long[0];
+        this.latest = new Latest(0);
     }
 
     public int getPatientId() {
         return patientId;
     }
 
+    /**
+     * Returns this patient's entries in the storage's query cache.
+     */
+    QueryCache.Section getQueryCacheSection() {
+        return queryCacheSection;
+    }
+
     /**
      * Adds a new record to this patient's list of medical records.
      * The record is created with the specified measurement value, record type, and
@@ -42,14 +109,344 @@ public class Patient {
      *                         milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        addRecord(measurementValue, RecordTypeDictionary.idOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record whose type is given as a dictionary id.
+     * The record is also added to the rollups of its type.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordTypeId     the {@link RecordTypeDictionary} id of the record
+     *                         type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     */
+    public synchronized void addRecord(double measurementValue, int recordTypeId, long timestamp) {
+        SampleSeries series = getSeries(recordTypeId);
+        if (series == null) {
+            series = createSeries(recordTypeId);
+        }
+        series.append(timestamp, measurementValue);
+        rollupsByType[recordTypeId].add(timestamp, measurementValue);
+        updateLatest(recordTypeId, timestamp, measurementValue);
+        bumpAppendVersion(recordTypeId);
+    }
+
+    /**
+     * Adds a group of records taking the patient's lock only once. The low 32
+     * bits of each element of {@code order} from {@code from} (inclusive) to
+     * {@code to} (exclusive) give the position of a record in the columnar
+     * arrays.
+     */
+    synchronized void addRecords(long[] order, int from, int to, int[] recordTypeIds, long[] timestamps,
+            double[] values) {
+        for (int i = from; i < to; i++) {
+            int index = (int) order[i];
+            addRecord(values[index], recordTypeIds[index], timestamps[index]);
+        }
+    }
+
+    /**
+     * Adds a record that is being recovered, e.g. from a write-ahead log,
+     * unless it has already been moved to the cold tier and so was recovered
+     * from there.
+     *
+     * @param deduplicate whether to skip the record if the series already holds
+     *                    a sample with the same timestamp and value
+     */
+    synchronized void restoreRecord(double measurementValue, int recordTypeId, long timestamp,
+            boolean deduplicate) {
+        SampleSeries series = getSeries(recordTypeId);
+        if (series instanceof TieredSeries && ((TieredSeries) series).isCold(timestamp)
+                && ((TieredSeries) series).coldContains(timestamp, measurementValue)) {
+            return;
+        }
+        if (deduplicate && series != null && contains(series, timestamp, measurementValue)) {
+            return;
+        }
+        addRecord(measurementValue, recordTypeId, timestamp);
+    }
+
+    private static boolean contains(SampleSeries series, long timestamp, double measurementValue) {
+        long bits = Double.doubleToLongBits(measurementValue);
+        for (int i = series.lowerBound(timestamp); i < series.size() && series.timestampAt(i) == timestamp; i++) {
+            if (Double.doubleToLongBits(series.valueAt(i)) == bits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SampleSeries createSeries(int recordTypeId) {
+        long retention = retentionPolicy.getRetention(recordTypeId);
+        SampleSeries series = seriesFactory.create(recordTypeId, retention);
+        if (coldStore != null) {
+            series = new TieredSeries(series);
+        }
+        RollupSeries[] rollups = Arrays.copyOf(rollupsByType, Math.max(rollupsByType.length, recordTypeId + 1));
+        rollups[recordTypeId] = new RollupSeries(retention);
+        rollupsByType = rollups;
+        appendVersions = Arrays.copyOf(appendVersions, Math.max(appendVersions.length, recordTypeId + 1));
+        SampleSeries[] updated = Arrays.copyOf(seriesByType, Math.max(seriesByType.length, recordTypeId + 1));
+        updated[recordTypeId] = series;
+        seriesByType = updated;
+        return series;
+    }
+
+    /**
+     * Attaches cold segments found on disk to this patient's series. Their
+     * samples are added to the rollups and the latest values, and the segments
+     * are unmapped again afterwards.
+     */
+    synchronized void attachColdSegments(List<ColdSegment> segments) {
+        SampleBuffer samples = new SampleBuffer();
+        for (ColdSegment segment : segments) {
+            int recordTypeId = segment.getRecordTypeId();
+            SampleSeries series = getSeries(recordTypeId);
+            if (series == null) {
+                series = createSeries(recordTypeId);
+            }
+            ((TieredSeries) series).attach(List.of(segment));
+            bumpAppendVersion(recordTypeId);
+            samples.clear();
+            segment.copyRange(Long.MIN_VALUE, Long.MAX_VALUE, samples);
+            segment.release();
+            for (int i = 0; i < samples.size(); i++) {
+                rollupsByType[recordTypeId].add(samples.timestampAt(i), samples.valueAt(i));
+                updateLatest(recordTypeId, samples.timestampAt(i), samples.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Moves the samples older than the cold store's hot age, measured back from
+     * the given time, from memory to cold segment files. The cold segments of
+     * series that have not been read since the previous call are unmapped.
+     * Rollups and latest values are not affected.
+     *
+     * @param currentTime the current time, in milliseconds since UNIX epoch
+     * @return the number of samples moved
+     * @throws IOException if a segment cannot be written
+     */
+    synchronized int moveToColdTier(long currentTime) throws IOException {
+        if (coldStore == null) {
+            return 0;
+        }
+        long cutoff = currentTime - coldStore.getHotAge();
+        int moved = 0;
+        for (SampleSeries series : seriesByType) {
+            if (series != null) {
+                TieredSeries tiered = (TieredSeries) series;
+                tiered.releaseIfIdle();
+                moved += tiered.moveToCold(cutoff, coldStore, patientId);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Publishes a change to the series of the given type. Must only be called
+     * by the writer, after the change is complete.
+     */
+    private void bumpAppendVersion(int recordTypeId) {
+        long[] versions = appendVersions;
+        APPEND_VERSION.setRelease(versions, recordTypeId, versions[recordTypeId] + 1);
+    }
+
+    /**
+     * Returns the append version of the series of the given type: a counter
+     * that changes whenever samples are added to or removed from the series.
+     * A copy of the series taken after reading a version holds every change up
+     * to that version, so it can be reused for as long as the version stays the
+     * same.
+     *
+     * @return the version, or 0 if no record of this type has been added
+     */
+    long getAppendVersion(int recordTypeId) {
+        long[] versions = appendVersions;
+        if (recordTypeId < 0 || recordTypeId >= versions.length) {
+            return 0;
+        }
+        return (long) APPEND_VERSION.getAcquire(versions, recordTypeId);
+    }
+
+    private void updateLatest(int recordTypeId, long timestamp, double measurementValue) {
+        Latest current = latest;
+        if (recordTypeId >= current.timestamps.length) {
+            current = current.grow(recordTypeId + 1);
+            latest = current;
+        }
+        if (timestamp >= current.timestamps[recordTypeId]) {
+            latestVersion++;
+            VarHandle.storeStoreFence();
+            current.timestamps[recordTypeId] = timestamp;
+            current.values[recordTypeId] = measurementValue;
+            latestVersion++;
+        }
+    }
+
+    /**
+     * Passes the newest sample of the given record type to a consumer, in
+     * constant time and without taking a lock. The newest sample is tracked on
+     * every append, so it is kept even after retention has evicted it from the
+     * series.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param consumer     receives the timestamp and value of the newest sample
+     * @return true if a sample was passed, false if no record of this type has
+     *         been added
+     */
+    public boolean readLatest(int recordTypeId, SampleConsumer consumer) {
+        while (true) {
+            int expectedVersion = latestVersion;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Latest current = latest;
+            if (recordTypeId < 0 || recordTypeId >= current.timestamps.length) {
+                return false;
+            }
+            long timestamp = current.timestamps[recordTypeId];
+            double value = current.values[recordTypeId];
+            VarHandle.acquireFence();
+            if (latestVersion != expectedVersion) {
+                continue;
+            }
+            if (timestamp == Latest.NONE) {
+                return false;
+            }
+            consumer.accept(timestamp, value);
+            return true;
+        }
+    }
+
+    /**
+     * Passes the newest sample of every record type of this patient to a
+     * consumer, in order of record type id, without taking a lock.
+     *
+     * @param consumer receives the patient id, record type id, timestamp and
+     *                 value of each newest sample
+     */
+    public void forEachLatest(LatestSampleConsumer consumer) {
+        int types = latest.timestamps.length;
+        for (int recordTypeId = 0; recordTypeId < types; recordTypeId++) {
+            while (true) {
+                int expectedVersion = latestVersion;
+                if ((expectedVersion & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                Latest current = latest;
+                long timestamp = current.timestamps[recordTypeId];
+                double value = current.values[recordTypeId];
+                VarHandle.acquireFence();
+                if (latestVersion == expectedVersion) {
+                    if (timestamp != Latest.NONE) {
+                        consumer.accept(patientId, recordTypeId, timestamp, value);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the newest record of the given type.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @return the newest record, or null if no record of this type has been
+     *         added
+     */
+    public PatientRecord getLatestRecord(int recordTypeId) {
+        long[] timestamp = new long[1];
+        double[] value = new double[1];
+        if (!readLatest(recordTypeId, (t, v) -> {
+            timestamp[0] = t;
+            value[0] = v;
+        })) {
+            return null;
+        }
+        return new PatientRecord(patientId, value[0], recordTypeId, timestamp[0]);
+    }
+
+    /**
+     * Removes the records that are older than their type's retention window,
+     * measured back from the given time.
+     *
+     * @param currentTime the current time, in milliseconds since UNIX epoch
+     * @return the number of records removed
+     * @throws UncheckedIOException if the file of an evicted cold segment could
+     *                              not be deleted; every series is evicted
+     *                              nonetheless
+     */
+    public synchronized int evictExpired(long currentTime) {
+        int removed = 0;
+        UncheckedIOException failure = null;
+        for (SampleSeries series : seriesByType) {
+            if (series != null && series.getRetention() != RetentionPolicy.UNLIMITED) {
+                long cutoff = currentTime - series.getRetention();
+                int evicted = 0;
+                try {
+                    evicted = series.evictBefore(cutoff);
+                } catch (UncheckedIOException e) {
+                    // the samples are gone, only the file of a cold segment is left
+                    bumpAppendVersion(series.getRecordTypeId());
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+                rollupsByType[series.getRecordTypeId()].evictBefore(cutoff);
+                if (evicted > 0) {
+                    bumpAppendVersion(series.getRecordTypeId());
+                }
+                removed += evicted;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the series holding this patient's records of the given type.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @return the series, or null if no record of this type has been added
+     */
+    public SampleSeries getSeries(int recordTypeId) {
+        SampleSeries[] current = seriesByType;
+        if (recordTypeId < 0 || recordTypeId >= current.length) {
+            return null;
+        }
+        return current[recordTypeId];
+    }
+
+    /**
+     * Returns every series of this patient, in order of record type id.
+     *
+     * @return the series that hold at least one record type
+     */
+    List<SampleSeries> getAllSeries() {
+        List<SampleSeries> series = new ArrayList<>();
+        for (SampleSeries s : seriesByType) {
+            if (s != null) {
+                series.add(s);
+            }
+        }
+        return series;
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
-     * The method filters records based on the start and end times provided.
+     * The bounds of the range are located in each record type's series by binary
+     * search, and the matching ranges are merged in timestamp order. The returned
+     * list is a read-only view that creates records as they are accessed.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -58,14 +455,152 @@ public class Patient {
      *         range
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
-        return patientRecords.stream()
-                .filter(record -> {
-                    long timestamp = record.getTimestamp();
-                    return timestamp >= startTime && timestamp <= endTime;
-                })
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .collect(Collectors.toList());
+        List<SampleSeries> series = getAllSeries();
+        if (series.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return PatientRecordView.merge(patientId, series, startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of a single type that fall within a specified time
+     * range, in ascending timestamp order.
+     *
+     * @param recordType the type of record to retrieve
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @return a read-only list of the matching records
+     */
+    public List<PatientRecord> getRecords(String recordType, long startTime, long endTime) {
+        return getRecords(RecordTypeDictionary.lookup(recordType), startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of a single type, given as a dictionary id, that fall
+     * within a specified time range, in ascending timestamp order.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @return a read-only list of the matching records
+     */
+    public List<PatientRecord> getRecords(int recordTypeId, long startTime, long endTime) {
+        SampleSeries series = getSeries(recordTypeId);
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        return PatientRecordView.of(patientId, series, startTime, endTime);
+    }
 
+    /**
+     * Streams the records of a single type that fall within a specified time
+     * range to a consumer as primitive (timestamp, value) pairs, without
+     * creating a record object per sample. The samples come from a consistent
+     * snapshot of the series, copied into a buffer that the calling thread
+     * reuses, so repeated queries do not allocate.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param descending   true to visit the newest sample first, false to visit
+     *                     the oldest sample first
+     * @param consumer     receives each sample
+     * @return the number of samples visited
+     */
+    public int forEach(int recordTypeId, long startTime, long endTime, boolean descending,
+            SampleConsumer consumer) {
+        SampleSeries series = getSeries(recordTypeId);
+        if (series == null) {
+            return 0;
+        }
+        SampleBuffer buffer = SampleBuffer.borrow();
+        try {
+            series.copyRange(startTime, endTime, buffer);
+            int size = buffer.size();
+            if (descending) {
+                for (int i = size - 1; i >= 0; i--) {
+                    consumer.accept(buffer.timestampAt(i), buffer.valueAt(i));
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    consumer.accept(buffer.timestampAt(i), buffer.valueAt(i));
+                }
+            }
+            return size;
+        } finally {
+            SampleBuffer.release(buffer);
+        }
+    }
+
+    /**
+     * Summarizes the records of a single type in time buckets, for queries over
+     * long ranges. The buckets come from the coarsest rollup tier (1 minute, 15
+     * minutes or 1 hour) that is no coarser than the requested resolution, so a
+     * query over a day reads at most a few thousand buckets. For a resolution
+     * finer than one minute the buckets are computed from the raw records.
+     * Buckets that only partly overlap the range are included whole.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param resolution   the widest bucket the caller accepts, in milliseconds
+     * @return the non-empty buckets overlapping the range, in ascending time
+     *         order
+     * @throws IllegalArgumentException if the resolution is not positive
+     */
+    public List<Rollup> getRollups(int recordTypeId, long startTime, long endTime, long resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        RollupSeries[] rollups = rollupsByType;
+        if (recordTypeId < 0 || recordTypeId >= rollups.length || rollups[recordTypeId] == null) {
+            return Collections.emptyList();
+        }
+        int tier = RollupSeries.tierFor(resolution);
+        if (tier >= 0) {
+            return rollups[recordTypeId].query(tier, startTime, endTime);
+        }
+        SampleSeries series = getSeries(recordTypeId);
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        SampleBuffer samples = new SampleBuffer();
+        long bucketStart = Math.floorDiv(startTime, resolution) * resolution;
+        long lastBucket = Math.floorDiv(endTime, resolution) * resolution;
+        long bucketEnd = lastBucket > Long.MAX_VALUE - resolution ? Long.MAX_VALUE : lastBucket + resolution - 1;
+        series.copyRange(bucketStart, bucketEnd, samples);
+        return RollupSeries.aggregate(samples, resolution);
     }
 
+    /**
+     * The newest timestamp and value of each record type, indexed by record
+     * type id. Only ever grows, and is replaced rather than resized.
+     */
+    private static final class Latest {
+        static final long NONE = Long.MIN_VALUE;
+
+        final long[] timestamps;
+        final double[] values;
+
+        Latest(int types) {
+            this.timestamps = new long[types];
+            this.values = new double[types];
+            Arrays.fill(timestamps, NONE);
+        }
+
+        Latest grow(int types) {
+            Latest grown = new Latest(types);
+            System.arraycopy(timestamps, 0, grown.timestamps, 0, timestamps.length);
+            System.arraycopy(values, 0, grown.values, 0, values.length);
+            return grown;
+        }
+    }
 }
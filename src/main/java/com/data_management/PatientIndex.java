@@ -0,0 +1,171 @@
+package com.data_management;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+/**
+ * Maps primitive patient ids to patients without boxing the id.
+ * Small non-negative ids, such as the simulator's 1..N, index a dense array
+ * directly; any other id goes to an open-addressing hash table with linear
+ * probing. Patients are never removed.
+ * <p>
+ * Lookups take no lock. Inserts are serialized on the index and publish each
+ * patient with a release store, so a reader that finds a patient also sees it
+ * fully constructed. Arrays are replaced, never shrunk, when they grow; a
+ * reader holding an old array still finds every patient it held.
+ */
+final class PatientIndex {
+    static final int DENSE_LIMIT = 1 << 16;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Patient[].class);
+
+    private volatile Patient[] dense = new Patient[16];
+    private volatile Patient[] table = new Patient[16]; // power of two, at most half full
+    private int tableSize;
+    private volatile Patient[] patients = new Patient[16]; // in insertion order
+    private volatile int size;
+
+    /**
+     * Returns the patient with the given id, or null if there is none.
+     */
+    Patient get(int patientId) {
+        if (patientId >= 0 && patientId < DENSE_LIMIT) {
+            Patient[] current = dense;
+            return patientId < current.length ? (Patient) SLOT.getAcquire(current, patientId) : null;
+        }
+        Patient[] current = table;
+        int mask = current.length - 1;
+        for (int slot = hash(patientId) & mask;; slot = (slot + 1) & mask) {
+            Patient patient = (Patient) SLOT.getAcquire(current, slot);
+            if (patient == null || patient.getPatientId() == patientId) {
+                return patient;
+            }
+        }
+    }
+
+    /**
+     * Returns the patient with the given id, creating it with the given function
+     * if there is none. The function is called at most once per id.
+     */
+    Patient computeIfAbsent(int patientId, IntFunction<Patient> factory) {
+        Patient patient = get(patientId);
+        if (patient != null) {
+            return patient;
+        }
+        synchronized (this) {
+            patient = get(patientId);
+            if (patient == null) {
+                patient = factory.apply(patientId);
+                insert(patient);
+            }
+            return patient;
+        }
+    }
+
+    /**
+     * Returns the number of patients in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only list of the patients in insertion order. The list is
+     * a view of the patients present when it was created, not a copy, and is
+     * unaffected by later inserts.
+     */
+    List<Patient> values() {
+        int count = size; // read before the array, which is replaced before size grows
+        return new Snapshot(patients, count);
+    }
+
+    private void insert(Patient patient) {
+        int patientId = patient.getPatientId();
+        if (patientId >= 0 && patientId < DENSE_LIMIT) {
+            Patient[] current = dense;
+            if (patientId >= current.length) {
+                int length = current.length;
+                while (patientId >= length) {
+                    length *= 2;
+                }
+                current = copy(current, length);
+                dense = current;
+            }
+            SLOT.setRelease(current, patientId, patient);
+        } else {
+            if (2 * (tableSize + 1) > table.length) {
+                table = rehash(table, table.length * 2);
+            }
+            place(table, patient);
+            tableSize++;
+        }
+
+        Patient[] ordered = patients;
+        if (size == ordered.length) {
+            ordered = copy(ordered, ordered.length * 2);
+            patients = ordered;
+        }
+        SLOT.setRelease(ordered, size, patient);
+        size++;
+    }
+
+    private static Patient[] rehash(Patient[] current, int length) {
+        Patient[] grown = new Patient[length];
+        for (Patient patient : current) {
+            if (patient != null) {
+                place(grown, patient);
+            }
+        }
+        VarHandle.releaseFence();
+        return grown;
+    }
+
+    private static void place(Patient[] target, Patient patient) {
+        int mask = target.length - 1;
+        int slot = hash(patient.getPatientId()) & mask;
+        while (target[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        SLOT.setRelease(target, slot, patient);
+    }
+
+    private static Patient[] copy(Patient[] current, int length) {
+        Patient[] grown = new Patient[length];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        return grown;
+    }
+
+    private static int hash(int patientId) {
+        int h = patientId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A fixed-size read-only view of a prefix of the insertion-ordered array.
+     */
+    private static final class Snapshot extends AbstractList<Patient> implements RandomAccess {
+        private final Patient[] patients;
+        private final int size;
+
+        Snapshot(Patient[] patients, int size) {
+            this.patients = patients;
+            this.size = size;
+        }
+
+        @Override
+        public Patient get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (Patient) SLOT.getAcquire(patients, index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -8,10 +8,11 @@ package com.data_management;
  * pressure),
  * the measurement value, and the exact timestamp when the measurement was
  * taken.
+ * The record type is stored as its id in the {@link RecordTypeDictionary}.
  */
 public class PatientRecord {
     private int patientId;
-    private String recordType; // Example: ECG, blood pressure, etc.
+    private int recordTypeId; // Dictionary id of the type, e.g. ECG, blood pressure, etc.
     private double measurementValue; // Example: heart rate
     private long timestamp;
 
@@ -26,9 +27,23 @@ public class PatientRecord {
      *                         milliseconds since epoch
      */
     public PatientRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        this(patientId, measurementValue, RecordTypeDictionary.idOf(recordType), timestamp);
+    }
+
+    /**
+     * Constructs a new patient record whose type is given as a dictionary id.
+     * 
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param recordTypeId     the id of the measurement type in the
+     *                         {@link RecordTypeDictionary}
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    public PatientRecord(int patientId, double measurementValue, int recordTypeId, long timestamp) {
         this.patientId = patientId;
         this.measurementValue = measurementValue;
-        this.recordType = recordType;
+        this.recordTypeId = recordTypeId;
         this.timestamp = timestamp;
     }
 
@@ -65,6 +80,15 @@ public class PatientRecord {
      * @return the record type
      */
     public String getRecordType() {
-        return recordType;
+        return RecordTypeDictionary.nameOf(recordTypeId);
+    }
+
+    /**
+     * Returns the dictionary id of the record type.
+     * 
+     * @return the record type id
+     */
+    public int getRecordTypeId() {
+        return recordTypeId;
     }
 }
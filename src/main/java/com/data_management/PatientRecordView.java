@@ -0,0 +1,124 @@
+package com.data_management;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of patient records backed by a primitive snapshot of one
+ * or more sample series.
+ * The samples are copied into primitive arrays when the view is created, so
+ * the view is consistent and unaffected by later appends. A PatientRecord
+ * object is only created when an element is accessed, so a query over
+ * millions of samples does not allocate millions of records up front.
+ */
+class PatientRecordView extends AbstractList<PatientRecord> implements RandomAccess {
+    private final int patientId;
+    private final long[] timestamps;
+    private final double[] values;
+    private final int[] recordTypeIds; // null when every record has the same type
+    private final int recordTypeId;
+
+    private PatientRecordView(int patientId, long[] timestamps, double[] values, int[] recordTypeIds,
+            int recordTypeId) {
+        this.patientId = patientId;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.recordTypeIds = recordTypeIds;
+        this.recordTypeId = recordTypeId;
+    }
+
+    /**
+     * Creates a view over the samples of a single series whose timestamps lie in
+     * the given range.
+     *
+     * @param patientId the patient the series belongs to
+     * @param series    the series to view
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @return a view of the matching samples in ascending timestamp order
+     */
+    static PatientRecordView of(int patientId, SampleSeries series, long startTime, long endTime) {
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(startTime, endTime, buffer);
+        long[] timestamps = new long[buffer.size()];
+        double[] values = new double[buffer.size()];
+        for (int i = 0; i < buffer.size(); i++) {
+            timestamps[i] = buffer.timestampAt(i);
+            values[i] = buffer.valueAt(i);
+        }
+        return new PatientRecordView(patientId, timestamps, values, null, series.getRecordTypeId());
+    }
+
+    /**
+     * Creates a view over samples of one record type that have already been
+     * copied. The arrays are shared, not copied, and must not be modified.
+     *
+     * @param patientId    the patient the samples belong to
+     * @param recordTypeId the record type of every sample
+     * @param timestamps   the timestamps, in ascending order
+     * @param values       the values
+     * @return a view of the samples
+     */
+    static PatientRecordView of(int patientId, int recordTypeId, long[] timestamps, double[] values) {
+        return new PatientRecordView(patientId, timestamps, values, null, recordTypeId);
+    }
+
+    /**
+     * Creates a view over the samples of several series whose timestamps lie in
+     * the given range. The range of each series is copied separately and the
+     * copies are merged by timestamp.
+     *
+     * @param patientId the patient the series belong to
+     * @param series    the series to view
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @return a view of the matching samples in ascending timestamp order
+     */
+    static PatientRecordView merge(int patientId, List<SampleSeries> series, long startTime, long endTime) {
+        if (series.size() == 1) {
+            return of(patientId, series.get(0), startTime, endTime);
+        }
+
+        SampleBuffer[] sources = new SampleBuffer[series.size()];
+        int total = 0;
+        for (int s = 0; s < sources.length; s++) {
+            sources[s] = new SampleBuffer();
+            series.get(s).copyRange(startTime, endTime, sources[s]);
+            total += sources[s].size();
+        }
+
+        long[] timestamps = new long[total];
+        double[] values = new double[total];
+        int[] recordTypeIds = new int[total];
+        int[] cursors = new int[sources.length];
+        for (int i = 0; i < total; i++) {
+            int next = -1;
+            for (int s = 0; s < sources.length; s++) {
+                if (cursors[s] < sources[s].size() && (next < 0
+                        || sources[s].timestampAt(cursors[s]) < sources[next].timestampAt(cursors[next]))) {
+                    next = s;
+                }
+            }
+            timestamps[i] = sources[next].timestampAt(cursors[next]);
+            values[i] = sources[next].valueAt(cursors[next]);
+            recordTypeIds[i] = series.get(next).getRecordTypeId();
+            cursors[next]++;
+        }
+        return new PatientRecordView(patientId, timestamps, values, recordTypeIds, 0);
+    }
+
+    @Override
+    public PatientRecord get(int index) {
+        if (index < 0 || index >= timestamps.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + timestamps.length);
+        }
+        int type = recordTypeIds != null ? recordTypeIds[index] : recordTypeId;
+        return new PatientRecord(patientId, values[index], type, timestamps[index]);
+    }
+
+    @Override
+    public int size() {
+        return timestamps.length;
+    }
+}
@@ -0,0 +1,108 @@
+package com.data_management;
+
+/**
+ * Statistics of one record type across a population of patients over a time
+ * range: the samples' count, sum, minimum and maximum, how many patients
+ * contributed samples, and how many patients had at least one sample matching
+ * a condition.
+ */
+public class PopulationAggregate {
+    private long patientCount;
+    private long matchingPatientCount;
+    private long sampleCount;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    PopulationAggregate() {
+    }
+
+    PopulationAggregate(long patientCount, long matchingPatientCount, long sampleCount, double sum, double min,
+            double max) {
+        this.patientCount = patientCount;
+        this.matchingPatientCount = matchingPatientCount;
+        this.sampleCount = sampleCount;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of patients with at least one sample in the range.
+     *
+     * @return the patient count
+     */
+    public long getPatientCount() {
+        return patientCount;
+    }
+
+    /**
+     * Returns the number of patients with at least one sample in the range that
+     * matched the condition of the query, or 0 if the query had none.
+     *
+     * @return the matching patient count
+     */
+    public long getMatchingPatientCount() {
+        return matchingPatientCount;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the smallest sample value, or positive infinity if there were no
+     * samples.
+     *
+     * @return the minimum value
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest sample value, or negative infinity if there were no
+     * samples.
+     *
+     * @return the maximum value
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of all samples, or NaN if there were no samples.
+     *
+     * @return the mean value
+     */
+    public double getMean() {
+        return sum / sampleCount;
+    }
+
+    void add(double value) {
+        sampleCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    void addPatient(boolean matching) {
+        patientCount++;
+        if (matching) {
+            matchingPatientCount++;
+        }
+    }
+
+    void merge(PopulationAggregate other) {
+        patientCount += other.patientCount;
+        matchingPatientCount += other.matchingPatientCount;
+        sampleCount += other.sampleCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+}
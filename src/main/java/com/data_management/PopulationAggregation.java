@@ -0,0 +1,80 @@
+package com.data_management;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoublePredicate;
+
+/**
+ * Fork/join task that aggregates one record type over a slice of the
+ * patients. Slices larger than {@link #LEAF_SIZE} are split in half; each
+ * leaf streams its patients' samples into its own partial aggregate, and the
+ * partials are merged on the way back up.
+ */
+final class PopulationAggregation extends RecursiveTask<PopulationAggregate> {
+    private static final long serialVersionUID = 1L;
+    static final int LEAF_SIZE = 256;
+
+    private final List<Patient> patients;
+    private final int from;
+    private final int to;
+    private final int recordTypeId;
+    private final long startTime;
+    private final long endTime;
+    private final DoublePredicate condition;
+
+    PopulationAggregation(List<Patient> patients, int from, int to, int recordTypeId, long startTime,
+            long endTime, DoublePredicate condition) {
+        this.patients = patients;
+        this.from = from;
+        this.to = to;
+        this.recordTypeId = recordTypeId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.condition = condition;
+    }
+
+    @Override
+    protected PopulationAggregate compute() {
+        if (to - from <= LEAF_SIZE) {
+            return computeLeaf();
+        }
+        int middle = (from + to) >>> 1;
+        PopulationAggregation left = new PopulationAggregation(patients, from, middle, recordTypeId, startTime,
+                endTime, condition);
+        PopulationAggregation right = new PopulationAggregation(patients, middle, to, recordTypeId, startTime,
+                endTime, condition);
+        left.fork();
+        PopulationAggregate result = right.compute();
+        result.merge(left.join());
+        return result;
+    }
+
+    private PopulationAggregate computeLeaf() {
+        PopulationAggregate result = new PopulationAggregate();
+        LeafConsumer consumer = new LeafConsumer(result);
+        for (int i = from; i < to; i++) {
+            consumer.matched = false;
+            if (patients.get(i).forEach(recordTypeId, startTime, endTime, false, consumer) > 0) {
+                result.addPatient(consumer.matched);
+            }
+        }
+        return result;
+    }
+
+    private final class LeafConsumer implements SampleConsumer {
+        private final PopulationAggregate result;
+        private boolean matched;
+
+        LeafConsumer(PopulationAggregate result) {
+            this.result = result;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            result.add(value);
+            if (!matched && condition != null && condition.test(value)) {
+                matched = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.data_management;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A least-recently-used cache of query results: the samples of one series of
+ * one patient in a time window. Each entry remembers the append version of the
+ * series it was copied from, and is only served while the series still has
+ * that version, so a cached result is never stale.
+ * <p>
+ * Every patient keeps its own LRU list of entries, in a {@link Section} locked
+ * separately, so queries on different patients never contend. The memory
+ * budget is shared: while the entries of all patients exceed it, the patients
+ * holding entries are visited in turn and their least recently used entry is
+ * evicted.
+ */
+final class QueryCache {
+    private static final long ENTRY_OVERHEAD = 128; // key, entry and array headers, map node
+    private static final long BYTES_PER_SAMPLE = Long.BYTES + Double.BYTES;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<Section> sectionsWithEntries = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long budget;
+
+    /**
+     * Sets the memory budget, evicting entries if they no longer fit. A budget
+     * of 0 disables the cache.
+     */
+    void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budget);
+        }
+        this.budget = budget;
+        evictToBudget();
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the cached samples of a patient's series in a window, copying
+     * them from the series if there is no entry for its current version.
+     */
+    Entry get(Patient patient, SampleSeries series, long startTime, long endTime) {
+        int recordTypeId = series.getRecordTypeId();
+        Section section = patient.getQueryCacheSection();
+        Key key = new Key(recordTypeId, startTime, endTime);
+        long version = patient.getAppendVersion(recordTypeId);
+        Entry cached = section.get(key);
+        if (cached != null && cached.version == version) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        // the version is read before the copy, so the copy holds at least that version
+        SampleBuffer buffer = SampleBuffer.borrow();
+        try {
+            series.copyRange(startTime, endTime, buffer);
+            Entry entry = new Entry(version, buffer);
+            put(section, key, entry);
+            return entry;
+        } finally {
+            SampleBuffer.release(buffer);
+        }
+    }
+
+    private void put(Section section, Key key, Entry entry) {
+        if (entry.sizeInBytes() > budget) {
+            return;
+        }
+        boolean enqueue;
+        synchronized (section) {
+            Entry previous = section.entries.put(key, entry);
+            long added = entry.sizeInBytes() - (previous == null ? 0 : previous.sizeInBytes());
+            usedBytes.addAndGet(added);
+            enqueue = !section.queued;
+            section.queued = true;
+        }
+        if (enqueue) {
+            sectionsWithEntries.offer(section);
+        }
+        evictToBudget();
+    }
+
+    private void evictToBudget() {
+        while (usedBytes.get() > budget) {
+            Section section = sectionsWithEntries.poll();
+            if (section == null) {
+                return;
+            }
+            boolean keep;
+            synchronized (section) {
+                Iterator<Entry> eldest = section.entries.values().iterator();
+                if (eldest.hasNext()) {
+                    long size = eldest.next().sizeInBytes();
+                    eldest.remove();
+                    usedBytes.addAndGet(-size);
+                }
+                keep = !section.entries.isEmpty();
+                section.queued = keep;
+            }
+            if (keep) {
+                sectionsWithEntries.offer(section);
+            }
+        }
+    }
+
+    /**
+     * The cached entries of one patient, least recently used first.
+     */
+    static final class Section {
+        // guarded by the section itself
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(4, 0.75f, true);
+        private boolean queued; // whether it is waiting in sectionsWithEntries
+
+        synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+    }
+
+    private static final class Key {
+        private final int recordTypeId;
+        private final long startTime;
+        private final long endTime;
+
+        Key(int recordTypeId, long startTime, long endTime) {
+            this.recordTypeId = recordTypeId;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return recordTypeId == key.recordTypeId && startTime == key.startTime && endTime == key.endTime;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * recordTypeId + Long.hashCode(startTime);
+            return 31 * hash + Long.hashCode(endTime);
+        }
+    }
+
+    /**
+     * The samples of a series in a window, as of one append version. The
+     * arrays are never modified once the entry is created.
+     */
+    static final class Entry {
+        final long version;
+        final long[] timestamps;
+        final double[] values;
+
+        Entry(long version, SampleBuffer samples) {
+            this.version = version;
+            this.timestamps = new long[samples.size()];
+            this.values = new double[samples.size()];
+            for (int i = 0; i < samples.size(); i++) {
+                timestamps[i] = samples.timestampAt(i);
+                values[i] = samples.valueAt(i);
+            }
+        }
+
+        long sizeInBytes() {
+            return ENTRY_OVERHEAD + BYTES_PER_SAMPLE * timestamps.length;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary that maps record type names to small integer ids.
+ * Type names are encoded once when data is ingested; storage, queries and
+ * alert rules then work on the ids, so filtering by type is an int compare
+ * instead of a String comparison. Ids are assigned in order of first use,
+ * starting at 0, and are never reused.
+ */
+public final class RecordTypeDictionary {
+    /** Returned by {@link #lookup(String)} when a name has not been registered. */
+    public static final int UNKNOWN = -1;
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    private RecordTypeDictionary() {
+    }
+
+    /**
+     * Returns the id of the given record type, registering the type if it has
+     * not been seen before.
+     *
+     * @param recordType the type name, e.g., "ECG"
+     * @return the id of the type
+     */
+    public static int idOf(String recordType) {
+        Integer id = IDS.get(recordType);
+        if (id != null) {
+            return id;
+        }
+        return register(recordType);
+    }
+
+    /**
+     * Returns the id of the given record type without registering it.
+     *
+     * @param recordType the type name, e.g., "ECG"
+     * @return the id of the type, or {@link #UNKNOWN} if it has not been
+     *         registered
+     */
+    public static int lookup(String recordType) {
+        Integer id = IDS.get(recordType);
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * Returns the name of the record type with the given id.
+     *
+     * @param id the id of the type
+     * @return the type name
+     * @throws IllegalArgumentException if no type has this id
+     */
+    public static String nameOf(int id) {
+        String[] current = names;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown record type id: " + id);
+        }
+        return current[id];
+    }
+
+    /**
+     * Returns the number of registered record types. Valid ids range from 0 to
+     * size() - 1.
+     *
+     * @return the number of registered types
+     */
+    public static int size() {
+        return names.length;
+    }
+
+    private static synchronized int register(String recordType) {
+        Integer id = IDS.get(recordType);
+        if (id != null) {
+            return id;
+        }
+        String[] current = names;
+        String[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = recordType;
+        names = updated;
+        IDS.put(recordType, current.length);
+        return current.length;
+    }
+}
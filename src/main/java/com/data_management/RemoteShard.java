@@ -0,0 +1,417 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * A shard served by a {@link ShardServer}, usually in another JVM. Requests are
+ * sent over one connection, one at a time. Samples passed to {@link #ingest}
+ * are buffered and sent without waiting for a reply; {@link #flush} sends the
+ * buffer, waits until the server has stored it, and fails if any of those
+ * samples could not be stored.
+ * <p>
+ * Record type ids are translated to names on the way out and back, because
+ * the server has its own {@link RecordTypeDictionary}. Paths are sent as
+ * absolute paths and resolved by the server, which runs on the same host. A
+ * failed request throws an {@link UncheckedIOException}, except for the
+ * requests that can throw an {@link IOException} themselves.
+ */
+public class RemoteShard implements StorageShard {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private RemoteShard(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Connects to a shard server.
+     *
+     * @param host the host the server runs on
+     * @param port the port the server listens on
+     * @return the connected shard
+     * @throws IOException if the connection cannot be made
+     */
+    public static RemoteShard connect(String host, int port) throws IOException {
+        return new RemoteShard(new Socket(host, port));
+    }
+
+    @Override
+    public synchronized void addPatientData(int patientId, double measurementValue, int recordTypeId,
+            long timestamp) {
+        try {
+            writeSample(ShardServer.ADD, patientId, measurementValue, recordTypeId, timestamp);
+            awaitReply();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The batch is sent as one request: a table of its record type names, then
+     * each column in turn.
+     */
+    @Override
+    public synchronized void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values,
+            int length) {
+        // label index of each dictionary id, plus one; 0 until the id is seen
+        int[] labelOf = new int[RecordTypeDictionary.size()];
+        int[] labels = new int[Math.min(length, labelOf.length)];
+        int labelCount = 0;
+        int[] labelIndexes = new int[length];
+        for (int i = 0; i < length; i++) {
+            int recordTypeId = recordTypeIds[i];
+            if (recordTypeId < 0 || recordTypeId >= labelOf.length) {
+                throw new IllegalArgumentException("Unknown record type id: " + recordTypeId);
+            }
+            if (labelOf[recordTypeId] == 0) {
+                labels[labelCount++] = recordTypeId;
+                labelOf[recordTypeId] = labelCount;
+            }
+            labelIndexes[i] = labelOf[recordTypeId] - 1;
+        }
+        try {
+            out.writeByte(ShardServer.BATCH);
+            out.writeInt(labelCount);
+            for (int i = 0; i < labelCount; i++) {
+                out.writeUTF(RecordTypeDictionary.nameOf(labels[i]));
+            }
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                out.writeInt(patientIds[i]);
+            }
+            for (int i = 0; i < length; i++) {
+                out.writeInt(labelIndexes[i]);
+            }
+            for (int i = 0; i < length; i++) {
+                out.writeLong(timestamps[i]);
+            }
+            for (int i = 0; i < length; i++) {
+                out.writeDouble(values[i]);
+            }
+            awaitReply();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void ingest(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        try {
+            writeSample(ShardServer.INGEST, patientId, measurementValue, recordTypeId, timestamp);
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            out.writeByte(ShardServer.FLUSH);
+            awaitReply();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
+        try {
+            out.writeByte(ShardServer.RECORDS);
+            out.writeInt(patientId);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            awaitReply();
+            return readRecords();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void copyRange(int patientId, int recordTypeId, long startTime, long endTime,
+            SampleBuffer target) {
+        if (recordTypeId == RecordTypeDictionary.UNKNOWN) {
+            return;
+        }
+        try {
+            out.writeByte(ShardServer.COPY_RANGE);
+            out.writeInt(patientId);
+            out.writeUTF(RecordTypeDictionary.nameOf(recordTypeId));
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            awaitReply();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                target.add(in.readLong(), in.readDouble());
+            }
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime,
+            long resolution) {
+        List<Rollup> rollups = new ArrayList<>();
+        if (recordTypeId == RecordTypeDictionary.UNKNOWN) {
+            return rollups;
+        }
+        try {
+            out.writeByte(ShardServer.ROLLUPS);
+            out.writeInt(patientId);
+            out.writeUTF(RecordTypeDictionary.nameOf(recordTypeId));
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.writeLong(resolution);
+            awaitReply();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                rollups.add(new Rollup(in.readLong(), in.readLong(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readLong(), in.readDouble()));
+            }
+            return rollups;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<PatientRecord> getLatestRecords(int patientId) {
+        try {
+            out.writeByte(ShardServer.LATEST);
+            out.writeInt(patientId);
+            awaitReply();
+            return readRecords();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void forEachLatest(LatestSampleConsumer consumer) {
+        try {
+            out.writeByte(ShardServer.FOR_EACH_LATEST);
+            awaitReply();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                consumer.accept(in.readInt(), RecordTypeDictionary.idOf(in.readUTF()), in.readLong(),
+                        in.readDouble());
+            }
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * A condition cannot be sent to the server, so with a condition the server
+     * sends the values of every patient in the range instead, and the aggregate
+     * is computed here.
+     */
+    @Override
+    public synchronized PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition) {
+        if (recordTypeId == RecordTypeDictionary.UNKNOWN) {
+            return new PopulationAggregate();
+        }
+        if (condition != null) {
+            return aggregateValues(recordTypeId, startTime, endTime, condition);
+        }
+        try {
+            out.writeByte(ShardServer.AGGREGATE);
+            out.writeUTF(RecordTypeDictionary.nameOf(recordTypeId));
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            awaitReply();
+            return new PopulationAggregate(in.readLong(), in.readLong(), in.readLong(), in.readDouble(),
+                    in.readDouble(), in.readDouble());
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    private PopulationAggregate aggregateValues(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition) {
+        try {
+            out.writeByte(ShardServer.AGGREGATE_VALUES);
+            out.writeUTF(RecordTypeDictionary.nameOf(recordTypeId));
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            awaitReply();
+            PopulationAggregate aggregate = new PopulationAggregate();
+            int patients = in.readInt();
+            for (int p = 0; p < patients; p++) {
+                int count = in.readInt();
+                boolean matched = false;
+                for (int i = 0; i < count; i++) {
+                    double value = in.readDouble();
+                    aggregate.add(value);
+                    if (!matched && condition.test(value)) {
+                        matched = true;
+                    }
+                }
+                aggregate.addPatient(matched);
+            }
+            return aggregate;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int evictExpired(long currentTime) {
+        try {
+            out.writeByte(ShardServer.EVICT);
+            out.writeLong(currentTime);
+            awaitReply();
+            return in.readInt();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int patientCount() {
+        try {
+            out.writeByte(ShardServer.PATIENT_COUNT);
+            awaitReply();
+            return in.readInt();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int[] patientIds() {
+        try {
+            out.writeByte(ShardServer.PATIENT_IDS);
+            awaitReply();
+            int[] patientIds = new int[in.readInt()];
+            for (int i = 0; i < patientIds.length; i++) {
+                patientIds[i] = in.readInt();
+            }
+            return patientIds;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized long getLateSampleCount() {
+        try {
+            out.writeByte(ShardServer.LATE_SAMPLE_COUNT);
+            awaitReply();
+            return in.readLong();
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int writeSnapshot(Path file) throws IOException {
+        out.writeByte(ShardServer.WRITE_SNAPSHOT);
+        out.writeUTF(file.toAbsolutePath().toString());
+        awaitReply();
+        return in.readInt();
+    }
+
+    @Override
+    public synchronized int restoreSnapshot(Path file) throws IOException {
+        out.writeByte(ShardServer.RESTORE_SNAPSHOT);
+        out.writeUTF(file.toAbsolutePath().toString());
+        awaitReply();
+        return in.readInt();
+    }
+
+    @Override
+    public synchronized long openWriteAheadLog(Path directory) throws IOException {
+        out.writeByte(ShardServer.OPEN_WRITE_AHEAD_LOG);
+        out.writeUTF(directory.toAbsolutePath().toString());
+        awaitReply();
+        return in.readLong();
+    }
+
+    @Override
+    public synchronized void closeWriteAheadLog() throws IOException {
+        out.writeByte(ShardServer.CLOSE_WRITE_AHEAD_LOG);
+        awaitReply();
+    }
+
+    @Override
+    public synchronized int openColdTier(Path directory, long hotAge) throws IOException {
+        out.writeByte(ShardServer.OPEN_COLD_TIER);
+        out.writeUTF(directory.toAbsolutePath().toString());
+        out.writeLong(hotAge);
+        awaitReply();
+        return in.readInt();
+    }
+
+    @Override
+    public synchronized long moveToColdTier(long currentTime) throws IOException {
+        out.writeByte(ShardServer.MOVE_TO_COLD_TIER);
+        out.writeLong(currentTime);
+        awaitReply();
+        return in.readLong();
+    }
+
+    /**
+     * Sends the samples still buffered and closes the connection.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void writeSample(byte opcode, int patientId, double measurementValue, int recordTypeId, long timestamp)
+            throws IOException {
+        out.writeByte(opcode);
+        out.writeInt(patientId);
+        out.writeDouble(measurementValue);
+        out.writeUTF(RecordTypeDictionary.nameOf(recordTypeId));
+        out.writeLong(timestamp);
+    }
+
+    /**
+     * Sends the pending request and reads the status of the reply.
+     */
+    private void awaitReply() throws IOException {
+        out.flush();
+        if (in.readByte() != ShardServer.OK) {
+            throw new IOException("Shard request failed: " + in.readUTF());
+        }
+    }
+
+    private List<PatientRecord> readRecords() throws IOException {
+        int count = in.readInt();
+        List<PatientRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int patientId = in.readInt();
+            String recordType = in.readUTF();
+            records.add(new PatientRecord(patientId, in.readDouble(), recordType, in.readLong()));
+        }
+        return records;
+    }
+
+    private static UncheckedIOException failed(IOException e) {
+        return new UncheckedIOException("Remote shard request failed", e);
+    }
+}
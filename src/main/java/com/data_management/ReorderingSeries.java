@@ -0,0 +1,193 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A series that absorbs late samples in a small sorted reorder buffer in front
+ * of another series. Samples stay in the buffer until they fall behind the
+ * lateness watermark, i.e. until they are more than {@code lateness}
+ * milliseconds older than the newest sample, and are then appended to the
+ * underlying series in order. The underlying series therefore only sees
+ * in-order appends, its fast path, as long as samples arrive no later than
+ * the watermark. A sample that arrives later than that is inserted into the
+ * underlying series directly.
+ * <p>
+ * Every sample of the underlying series is older than every buffered sample,
+ * so the series as a whole stays sorted and reads never sort.
+ * <p>
+ * There is one writer at a time. Every append is bracketed by an odd/even
+ * {@code version}, and {@link #copyRange} retries a copy that overlapped one.
+ */
+final class ReorderingSeries implements SampleSeries {
+    private final SampleSeries flushed;
+    private final long lateness;
+    private volatile long[] pendingTimestamps = new long[16];
+    private volatile double[] pendingValues = new double[16];
+    private volatile int pendingCount;
+    private long newest = Long.MIN_VALUE;
+    private volatile long lateSamples; // only incremented by the writer
+    private volatile int version; // odd while the series is being changed
+
+    /**
+     * Constructs a series that buffers samples in front of another series.
+     *
+     * @param flushed  the series that receives the samples in order
+     * @param lateness how far behind the newest sample a sample may arrive and
+     *                 still be reordered in the buffer, in milliseconds
+     */
+    ReorderingSeries(SampleSeries flushed, long lateness) {
+        if (lateness < 0) {
+            throw new IllegalArgumentException("Lateness must not be negative: " + lateness);
+        }
+        this.flushed = flushed;
+        this.lateness = lateness;
+    }
+
+    @Override
+    public int getRecordTypeId() {
+        return flushed.getRecordTypeId();
+    }
+
+    @Override
+    public long getRetention() {
+        return flushed.getRetention();
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        return lateSamples;
+    }
+
+    @Override
+    public int size() {
+        return flushed.size() + pendingCount;
+    }
+
+    @Override
+    public void append(long timestamp, double value) {
+        version++;
+        VarHandle.storeStoreFence();
+        if (timestamp < newest) {
+            lateSamples++;
+        }
+        int count = pendingCount;
+        int flushedSize = flushed.size();
+        if (flushedSize > 0 && timestamp < flushed.timestampAt(flushedSize - 1)) {
+            flushed.append(timestamp, value);
+        } else {
+            insertPending(timestamp, value, count);
+            newest = Math.max(newest, timestamp);
+            flushBefore(newest < Long.MIN_VALUE + lateness ? Long.MIN_VALUE : newest - lateness);
+        }
+        version++;
+    }
+
+    private void insertPending(long timestamp, double value, int count) {
+        long[] timestamps = pendingTimestamps;
+        double[] values = pendingValues;
+        if (count == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        int position = count;
+        while (position > 0 && timestamps[position - 1] > timestamp) {
+            position--;
+        }
+        System.arraycopy(timestamps, position, timestamps, position + 1, count - position);
+        System.arraycopy(values, position, values, position + 1, count - position);
+        timestamps[position] = timestamp;
+        values[position] = value;
+        pendingTimestamps = timestamps;
+        pendingValues = values;
+        pendingCount = count + 1;
+    }
+
+    /**
+     * Appends the buffered samples older than the watermark to the underlying
+     * series and removes them from the buffer.
+     */
+    private void flushBefore(long watermark) {
+        long[] timestamps = pendingTimestamps;
+        double[] values = pendingValues;
+        int count = pendingCount;
+        int moved = 0;
+        while (moved < count && timestamps[moved] < watermark) {
+            flushed.append(timestamps[moved], values[moved]);
+            moved++;
+        }
+        if (moved > 0) {
+            System.arraycopy(timestamps, moved, timestamps, 0, count - moved);
+            System.arraycopy(values, moved, values, 0, count - moved);
+            pendingCount = count - moved;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Buffered samples before the cutoff are removed as well.
+     */
+    @Override
+    public int evictBefore(long cutoff) {
+        version++;
+        VarHandle.storeStoreFence();
+        int removed = flushed.evictBefore(cutoff);
+        long[] timestamps = pendingTimestamps;
+        double[] values = pendingValues;
+        int count = pendingCount;
+        int dropped = 0;
+        while (dropped < count && timestamps[dropped] < cutoff) {
+            dropped++;
+        }
+        if (dropped > 0) {
+            System.arraycopy(timestamps, dropped, timestamps, 0, count - dropped);
+            System.arraycopy(values, dropped, values, 0, count - dropped);
+            pendingCount = count - dropped;
+        }
+        version++;
+        return removed + dropped;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        int flushedSize = flushed.size();
+        return index < flushedSize ? flushed.timestampAt(index) : pendingTimestamps[index - flushedSize];
+    }
+
+    @Override
+    public double valueAt(int index) {
+        int flushedSize = flushed.size();
+        return index < flushedSize ? flushed.valueAt(index) : pendingValues[index - flushedSize];
+    }
+
+    @Override
+    public void copyRange(long startTime, long endTime, SampleBuffer target) {
+        int mark = target.size();
+        while (true) {
+            int expectedVersion = version;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            flushed.copyRange(startTime, endTime, target);
+            long[] timestamps = pendingTimestamps;
+            double[] values = pendingValues;
+            int count = Math.min(pendingCount, Math.min(timestamps.length, values.length));
+            for (int i = 0; i < count; i++) {
+                long timestamp = timestamps[i];
+                if (timestamp > endTime) {
+                    break;
+                }
+                if (timestamp >= startTime) {
+                    target.add(timestamp, values[i]);
+                }
+            }
+
+            VarHandle.acquireFence();
+            if (version == expectedVersion) {
+                return;
+            }
+            target.truncate(mark);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Defines how long samples of each record type are kept in storage.
+ * Types without an explicit retention use the default retention, which is
+ * unlimited unless configured otherwise.
+ */
+public class RetentionPolicy {
+    /** Retention value meaning that samples are never evicted. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long defaultRetention;
+    private volatile long[] retentionByType;
+
+    /**
+     * Constructs a policy that keeps samples of every type for the given time.
+     *
+     * @param defaultRetention the retention in milliseconds for types without an
+     *                         explicit setting, or {@link #UNLIMITED}
+     */
+    public RetentionPolicy(long defaultRetention) {
+        if (defaultRetention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive: " + defaultRetention);
+        }
+        this.defaultRetention = defaultRetention;
+        this.retentionByType = new long[0];
+    }
+
+    /**
+     * Returns a policy that never evicts any sample.
+     *
+     * @return an unlimited retention policy
+     */
+    public static RetentionPolicy unlimited() {
+        return new RetentionPolicy(UNLIMITED);
+    }
+
+    /**
+     * Returns a policy that keeps exactly the history the alert rules look at: 10
+     * minutes of saturation, 1 hour of ECG and 24 hours of blood pressure. Other
+     * types are kept for 24 hours.
+     *
+     * @return the retention policy used for alert monitoring
+     */
+    public static RetentionPolicy forAlerting() {
+        return new RetentionPolicy(86400000L)
+                .withRetention("Saturation", 600000L)
+                .withRetention("ECG", 3600000L)
+                .withRetention("SystolicPressure", 86400000L)
+                .withRetention("DiastolicPressure", 86400000L);
+    }
+
+    /**
+     * Sets the retention of one record type.
+     *
+     * @param recordType the type of record, e.g., "ECG"
+     * @param retention  how long samples of this type are kept, in milliseconds
+     * @return this policy, for chaining
+     */
+    public RetentionPolicy withRetention(String recordType, long retention) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive: " + retention);
+        }
+        int id = RecordTypeDictionary.idOf(recordType);
+        synchronized (this) {
+            long[] updated = Arrays.copyOf(retentionByType, Math.max(retentionByType.length, id + 1));
+            updated[id] = retention;
+            retentionByType = updated;
+        }
+        return this;
+    }
+
+    /**
+     * Returns how long samples of the given type are kept.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the type
+     * @return the retention in milliseconds, or {@link #UNLIMITED}
+     */
+    public long getRetention(int recordTypeId) {
+        long[] current = retentionByType;
+        if (recordTypeId < current.length && current[recordTypeId] > 0) {
+            return current[recordTypeId];
+        }
+        return defaultRetention;
+    }
+}
@@ -0,0 +1,82 @@
+package com.data_management;
+
+/**
+ * Summary of the samples of one record type that fall in a fixed time bucket:
+ * their minimum, maximum, sum, count and the value of the newest sample.
+ * Rollups let long-range queries read one bucket instead of every raw sample
+ * in it.
+ */
+public class Rollup {
+    /** Width of the finest rollup tier, in milliseconds. */
+    public static final long ONE_MINUTE = 60_000L;
+    /** Width of the middle rollup tier, in milliseconds. */
+    public static final long FIFTEEN_MINUTES = 15 * ONE_MINUTE;
+    /** Width of the coarsest rollup tier, in milliseconds. */
+    public static final long ONE_HOUR = 60 * ONE_MINUTE;
+
+    private final long startTime;
+    private final long duration;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long count;
+    private final double last;
+
+    /**
+     * Constructs a rollup of a bucket.
+     *
+     * @param startTime the start of the bucket, in milliseconds since UNIX epoch
+     * @param duration  the width of the bucket, in milliseconds
+     * @param min       the smallest value in the bucket
+     * @param max       the largest value in the bucket
+     * @param sum       the sum of the values in the bucket
+     * @param count     the number of samples in the bucket
+     * @param last      the value of the sample with the newest timestamp
+     */
+    public Rollup(long startTime, long duration, double min, double max, double sum, long count, double last) {
+        this.startTime = startTime;
+        this.duration = duration;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+        this.last = last;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the mean of the values in the bucket.
+     *
+     * @return the sum divided by the count
+     */
+    public double getAverage() {
+        return sum / count;
+    }
+}
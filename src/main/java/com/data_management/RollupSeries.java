@@ -0,0 +1,284 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rollups of one series at 1 minute, 15 minute and 1 hour resolution, kept up
+ * to date as samples are appended. Each tier stores its buckets in columnar
+ * arrays in ascending start time order.
+ * <p>
+ * Like {@link AbstractSampleSeries} there is a single writer (the owning
+ * {@link Patient}) and readers that never block it: every change is bracketed
+ * by an odd/even {@code version}, and {@link #query} retries a copy that
+ * overlapped a change.
+ */
+class RollupSeries {
+    static final long[] TIER_WIDTHS = { Rollup.ONE_MINUTE, Rollup.FIFTEEN_MINUTES, Rollup.ONE_HOUR };
+
+    private final long retention;
+    private final Tier[] tiers;
+    private long newest = Long.MIN_VALUE;
+    private volatile int version;
+
+    /**
+     * @param retention how long buckets are kept, in milliseconds measured back
+     *                  from the newest sample, or {@link RetentionPolicy#UNLIMITED}.
+     *                  A bucket is dropped once all of it is out of the window.
+     */
+    RollupSeries(long retention) {
+        this.retention = retention;
+        this.tiers = new Tier[TIER_WIDTHS.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(TIER_WIDTHS[i]);
+        }
+    }
+
+    /**
+     * Returns the index of the coarsest tier whose buckets are no wider than the
+     * given resolution, or -1 if every tier is too coarse.
+     */
+    static int tierFor(long resolution) {
+        for (int i = TIER_WIDTHS.length - 1; i >= 0; i--) {
+            if (TIER_WIDTHS[i] <= resolution) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a sample to the bucket of every tier. Samples that the series drops
+     * for being later than its retention window are dropped here as well.
+     */
+    void add(long timestamp, double value) {
+        boolean limited = retention != RetentionPolicy.UNLIMITED;
+        if (limited && newest != Long.MIN_VALUE && timestamp < newest - retention) {
+            return;
+        }
+        version++;
+        VarHandle.storeStoreFence();
+        for (Tier tier : tiers) {
+            tier.add(timestamp, value);
+        }
+        if (timestamp > newest) {
+            newest = timestamp;
+            if (limited) {
+                for (Tier tier : tiers) {
+                    tier.evictBefore(timestamp - retention);
+                }
+            }
+        }
+        version++;
+    }
+
+    /**
+     * Removes the buckets that end at or before the given time.
+     */
+    void evictBefore(long cutoff) {
+        version++;
+        VarHandle.storeStoreFence();
+        for (Tier tier : tiers) {
+            tier.evictBefore(cutoff);
+        }
+        version++;
+    }
+
+    /**
+     * Returns the buckets of the given tier that overlap the given time range,
+     * in ascending start time order.
+     */
+    List<Rollup> query(int tierIndex, long startTime, long endTime) {
+        Tier tier = tiers[tierIndex];
+        List<Rollup> result = new ArrayList<>();
+        while (true) {
+            int expectedVersion = version;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (tier.copy(startTime, endTime, result)) {
+                VarHandle.acquireFence();
+                if (version == expectedVersion) {
+                    return result;
+                }
+            }
+            result.clear();
+        }
+    }
+
+    /**
+     * Aggregates sorted raw samples into buckets of the given width, for
+     * resolutions finer than the finest tier.
+     */
+    static List<Rollup> aggregate(SampleBuffer samples, long width) {
+        List<Rollup> result = new ArrayList<>();
+        int i = 0;
+        while (i < samples.size()) {
+            long bucket = Math.floorDiv(samples.timestampAt(i), width) * width;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            int start = i;
+            for (; i < samples.size() && samples.timestampAt(i) < bucket + width; i++) {
+                double value = samples.valueAt(i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            result.add(new Rollup(bucket, width, min, max, sum, i - start, samples.valueAt(i - 1)));
+        }
+        return result;
+    }
+
+    /**
+     * One resolution. The live buckets are {@code first} (inclusive) to
+     * {@code end} (exclusive) of the current {@link Buckets}.
+     */
+    private static final class Tier {
+        private final long width;
+        private volatile Buckets buckets = new Buckets(8);
+        private int first;
+        private int end;
+
+        Tier(long width) {
+            this.width = width;
+        }
+
+        void add(long timestamp, double value) {
+            long start = Math.floorDiv(timestamp, width) * width;
+            Buckets b = buckets;
+            int index;
+            if (end > first && b.starts[end - 1] == start) {
+                index = end - 1;
+            } else if (end == first || start > b.starts[end - 1]) {
+                index = open(end);
+            } else {
+                index = lowerBound(start);
+                if (buckets.starts[index] != start) {
+                    index = open(index);
+                }
+            }
+
+            b = buckets;
+            if (b.counts[index] == 0) {
+                b.starts[index] = start;
+                b.mins[index] = value;
+                b.maxs[index] = value;
+                b.sums[index] = value;
+                b.counts[index] = 1;
+                b.lasts[index] = value;
+                b.lastTimes[index] = timestamp;
+                return;
+            }
+            b.mins[index] = Math.min(b.mins[index], value);
+            b.maxs[index] = Math.max(b.maxs[index], value);
+            b.sums[index] += value;
+            b.counts[index]++;
+            if (timestamp >= b.lastTimes[index]) {
+                b.lasts[index] = value;
+                b.lastTimes[index] = timestamp;
+            }
+        }
+
+        /**
+         * Makes room for an empty bucket at the given position, shifting later
+         * buckets up by one, and returns the position of the empty bucket.
+         */
+        private int open(int index) {
+            if (end == buckets.starts.length) {
+                Buckets grown = new Buckets(Math.max(8, 2 * (end - first + 1)));
+                buckets.copyTo(first, grown, 0, end - first);
+                index -= first;
+                end -= first;
+                first = 0;
+                buckets = grown;
+            }
+            Buckets b = buckets;
+            b.copyTo(index, b, index + 1, end - index);
+            b.counts[index] = 0;
+            end++;
+            return index;
+        }
+
+        void evictBefore(long cutoff) {
+            Buckets b = buckets;
+            while (first < end && b.starts[first] + width <= cutoff) {
+                first++;
+            }
+        }
+
+        private int lowerBound(long start) {
+            long[] starts = buckets.starts;
+            int low = first;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] < start) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Copies the buckets overlapping the range for a reader. Returns false if
+         * the fields were read mid-change and the copy must be retried.
+         */
+        boolean copy(long startTime, long endTime, List<Rollup> target) {
+            Buckets b = buckets;
+            int from = first;
+            int to = end;
+            if (from > to || to > b.starts.length) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                long start = b.starts[i];
+                if (start > endTime) {
+                    break;
+                }
+                if (start + width > startTime) {
+                    target.add(new Rollup(start, width, b.mins[i], b.maxs[i], b.sums[i], b.counts[i], b.lasts[i]));
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Columnar bucket arrays. Replaced as a whole when they grow, so a reader
+     * always sees arrays of the same length.
+     */
+    private static final class Buckets {
+        final long[] starts;
+        final double[] mins;
+        final double[] maxs;
+        final double[] sums;
+        final long[] counts;
+        final double[] lasts;
+        final long[] lastTimes;
+
+        Buckets(int capacity) {
+            starts = new long[capacity];
+            mins = new double[capacity];
+            maxs = new double[capacity];
+            sums = new double[capacity];
+            counts = new long[capacity];
+            lasts = new double[capacity];
+            lastTimes = new long[capacity];
+        }
+
+        void copyTo(int from, Buckets target, int to, int length) {
+            System.arraycopy(starts, from, target.starts, to, length);
+            System.arraycopy(mins, from, target.mins, to, length);
+            System.arraycopy(maxs, from, target.maxs, to, length);
+            System.arraycopy(sums, from, target.sums, to, length);
+            System.arraycopy(counts, from, target.counts, to, length);
+            System.arraycopy(lasts, from, target.lasts, to, length);
+            System.arraycopy(lastTimes, from, target.lastTimes, to, length);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of samples for {@link DataStorage#addBatch(SampleBatch)},
+ * held as columnar primitive arrays: patient ids, record type ids, timestamps
+ * and values. Readers fill a batch and hand it to the storage in one call
+ * instead of adding samples one at a time.
+ */
+public class SampleBatch {
+    private int[] patientIds;
+    private int[] recordTypeIds;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param capacity the number of samples the batch holds before growing
+     */
+    public SampleBatch(int capacity) {
+        int initial = Math.max(1, capacity);
+        this.patientIds = new int[initial];
+        this.recordTypeIds = new int[initial];
+        this.timestamps = new long[initial];
+        this.values = new double[initial];
+    }
+
+    /**
+     * Adds a sample to the end of the batch.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     */
+    public void add(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        if (size == patientIds.length) {
+            patientIds = Arrays.copyOf(patientIds, size * 2);
+            recordTypeIds = Arrays.copyOf(recordTypeIds, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        patientIds[size] = patientId;
+        recordTypeIds[size] = recordTypeId;
+        timestamps[size] = timestamp;
+        values[size] = measurementValue;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int patientIdAt(int index) {
+        return patientIds[index];
+    }
+
+    public int recordTypeIdAt(int index) {
+        return recordTypeIds[index];
+    }
+
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Removes all samples, keeping the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    int[] patientIds() {
+        return patientIds;
+    }
+
+    int[] recordTypeIds() {
+        return recordTypeIds;
+    }
+
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    double[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,166 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A growable pair of primitive arrays holding (timestamp, value) samples.
+ * Used to take consistent copies of series without creating an object per
+ * sample. A buffer can be cleared and reused across queries.
+ */
+public class SampleBuffer {
+    private static final ThreadLocal<SampleBuffer> SCRATCH = ThreadLocal.withInitial(SampleBuffer::new);
+    private static final int MAX_SCRATCH_CAPACITY = 1 << 16;
+
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+    private boolean borrowed;
+
+    /**
+     * Constructs an empty buffer with a small initial capacity.
+     */
+    public SampleBuffer() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param capacity the number of samples the buffer holds before growing
+     */
+    public SampleBuffer(int capacity) {
+        this.timestamps = new long[Math.max(1, capacity)];
+        this.values = new double[Math.max(1, capacity)];
+    }
+
+    /**
+     * Adds a sample to the end of the buffer.
+     *
+     * @param timestamp the time of the sample
+     * @param value     the value of the sample
+     */
+    public void add(long timestamp, double value) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Removes all samples, keeping the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes the samples from {@code from} (inclusive) to {@code to}
+     * (exclusive), moving later samples down.
+     *
+     * @param from the first position to remove
+     * @param to   the position after the last one to remove
+     */
+    void removeRange(int from, int to) {
+        System.arraycopy(timestamps, to, timestamps, from, size - to);
+        System.arraycopy(values, to, values, from, size - to);
+        size -= to - from;
+    }
+
+    /**
+     * Shrinks the buffer to the given number of samples.
+     *
+     * @param newSize the number of samples to keep
+     */
+    void truncate(int newSize) {
+        size = newSize;
+    }
+
+    /**
+     * Sorts the samples from the given position to the end by timestamp,
+     * keeping samples with equal timestamps in their order. Does nothing if they
+     * are already sorted, which is the common case.
+     *
+     * @param from the first position to sort
+     */
+    void sortFrom(int from) {
+        int unsorted = from + 1;
+        while (unsorted < size && timestamps[unsorted - 1] <= timestamps[unsorted]) {
+            unsorted++;
+        }
+        if (unsorted >= size) {
+            return;
+        }
+        long[] timestampScratch = new long[size - from];
+        double[] valueScratch = new double[size - from];
+        for (int width = 1; width < size - from; width *= 2) {
+            for (int low = from; low < size - width; low += 2 * width) {
+                merge(low, low + width, Math.min(low + 2 * width, size), timestampScratch, valueScratch);
+            }
+        }
+    }
+
+    private void merge(int low, int middle, int high, long[] timestampScratch, double[] valueScratch) {
+        int length = middle - low;
+        System.arraycopy(timestamps, low, timestampScratch, 0, length);
+        System.arraycopy(values, low, valueScratch, 0, length);
+        int left = 0;
+        int right = middle;
+        int out = low;
+        while (left < length && right < high) {
+            if (timestamps[right] < timestampScratch[left]) {
+                timestamps[out] = timestamps[right];
+                values[out++] = values[right++];
+            } else {
+                timestamps[out] = timestampScratch[left];
+                values[out++] = valueScratch[left++];
+            }
+        }
+        while (left < length) {
+            timestamps[out] = timestampScratch[left];
+            values[out++] = valueScratch[left++];
+        }
+    }
+
+    /**
+     * Returns an empty buffer that is reused by the calling thread, so that
+     * streaming queries do not allocate once the buffer has grown. A nested
+     * call gets a new buffer. Must be handed back with {@link #release}.
+     */
+    static SampleBuffer borrow() {
+        SampleBuffer buffer = SCRATCH.get();
+        if (buffer.borrowed) {
+            return new SampleBuffer();
+        }
+        buffer.borrowed = true;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Hands back a buffer obtained from {@link #borrow}. A buffer that has grown
+     * very large is dropped rather than kept by the thread.
+     */
+    static void release(SampleBuffer buffer) {
+        if (buffer == SCRATCH.get()) {
+            buffer.borrowed = false;
+            if (buffer.timestamps.length > MAX_SCRATCH_CAPACITY) {
+                SCRATCH.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.data_management;
+
+/**
+ * Receives the samples of a streaming query as primitive (timestamp, value)
+ * pairs, so that a query does not have to create a record object per sample.
+ */
+@FunctionalInterface
+public interface SampleConsumer {
+
+    /**
+     * Receives one sample.
+     *
+     * @param timestamp the time of the measurement, in milliseconds since UNIX
+     *                  epoch
+     * @param value     the measurement value
+     */
+    void accept(long timestamp, double value);
+}
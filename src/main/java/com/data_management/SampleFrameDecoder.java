@@ -0,0 +1,107 @@
+package com.data_management;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the binary frames sent by the simulator's WebSocket output when
+ * binary output is enabled, into a {@link SampleBatch}. The format is
+ * described by {@code com.cardio_generator.outputs.SampleFrameEncoder}: a
+ * version byte, a table of the frame's labels, then per sample the zigzag
+ * varints of the patient id, the label index with an integral-value flag, the
+ * timestamp difference to the previous sample and, for integral values, the
+ * value; other values are the 8 bytes of a double.
+ * <p>
+ * Labels are resolved through {@link RecordTypeDictionary} once per frame, and
+ * only after the whole frame has been parsed, so a malformed frame registers
+ * no record types.
+ */
+final class SampleFrameDecoder {
+    static final byte FORMAT_VERSION = 1;
+
+    private String[] labels = new String[8];
+    private int[] typeIds = new int[8];
+
+    /**
+     * Decodes a frame into an empty batch. A malformed frame leaves the batch
+     * empty.
+     *
+     * @param frame the frame, from its position to its limit; the position is
+     *              not changed
+     * @param batch receives the samples
+     * @return the number of samples added, or -1 if the frame is malformed
+     */
+    int decode(ByteBuffer frame, SampleBatch batch) {
+        ByteBuffer in = frame.duplicate();
+        try {
+            if (in.get() != FORMAT_VERSION) {
+                return -1;
+            }
+            int labelCount = readLength(in);
+            if (labels.length < labelCount) {
+                labels = new String[labelCount];
+            }
+            for (int i = 0; i < labelCount; i++) {
+                byte[] name = new byte[readLength(in)];
+                in.get(name);
+                labels[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            int sampleCount = readLength(in);
+            long timestamp = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                long patientId = unzigzag(readVarint(in));
+                long type = readVarint(in);
+                if (patientId != (int) patientId || type >>> 1 >= labelCount) {
+                    throw new IllegalArgumentException();
+                }
+                timestamp += unzigzag(readVarint(in));
+                double value = (type & 1) != 0 ? unzigzag(readVarint(in)) : in.getDouble();
+                // holds the label index until the frame is known to be well-formed
+                batch.add((int) patientId, value, (int) (type >>> 1), timestamp);
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException();
+            }
+            if (typeIds.length < labelCount) {
+                typeIds = new int[labelCount];
+            }
+            for (int i = 0; i < labelCount; i++) {
+                typeIds[i] = RecordTypeDictionary.idOf(labels[i]);
+                labels[i] = null;
+            }
+            int[] recordTypeIds = batch.recordTypeIds();
+            for (int i = 0; i < sampleCount; i++) {
+                recordTypeIds[i] = typeIds[recordTypeIds[i]];
+            }
+            return sampleCount;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            batch.clear();
+            return -1;
+        }
+    }
+
+    private static int readLength(ByteBuffer in) {
+        long length = readVarint(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException(); // every entry takes at least one byte
+        }
+        return (int) length;
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException(); // longer than 10 bytes
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
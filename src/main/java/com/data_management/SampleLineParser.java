@@ -0,0 +1,341 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses {@code patientId,value,recordType,timestamp} lines, and the
+ * {@code Patient ID: ..., Timestamp: ..., Label: ..., Data: ...} lines written
+ * by the simulator's file output, straight from the bytes of a buffer,
+ * typically a memory-mapped file, into a {@link SampleBatch}. Numbers are
+ * decoded from the bytes without creating a String per line or per field, and
+ * record type names are resolved through a small cache of the names already
+ * seen, so a well-formed line allocates nothing. Spaces around fields are
+ * ignored, as are comma-separated fields after the fourth.
+ * <p>
+ * Values with more significant digits than a double holds exactly, or with a
+ * large exponent, fall back to {@link Double#parseDouble(String)} so that they
+ * are still rounded correctly.
+ * <p>
+ * A parser keeps its name cache between calls and is not safe for use by
+ * several threads at once.
+ */
+final class SampleLineParser {
+    private static final int MAX_CACHED_TYPES = 64;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final byte[] PATIENT_ID = bytes("Patient ID:");
+    private static final byte[] TIMESTAMP = bytes("Timestamp:");
+    private static final byte[] LABEL = bytes("Label:");
+    private static final byte[] DATA = bytes("Data:");
+    private static final byte[] TRIGGERED = bytes("triggered");
+    private static final byte[] RESOLVED = bytes("resolved");
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private byte[][] typeNames = new byte[8][];
+    private int[] typeIds = new int[8];
+    private int typeCount;
+
+    // the end of the field decoded last, set by the field decoders
+    private int fieldEnd;
+    private long longValue;
+    private double doubleValue;
+    private int recordTypeId;
+
+    /**
+     * Parses one line and adds its sample to the batch.
+     *
+     * @param buffer the bytes, read with absolute gets
+     * @param from   the position of the first byte of the line
+     * @param to     the position after the last byte of the line, excluding
+     *               the line break
+     * @param batch  receives the sample
+     * @return true if the line was added, false if it is malformed
+     */
+    boolean parse(ByteBuffer buffer, int from, int to, SampleBatch batch) {
+        if (!decodeLong(buffer, from, to) || longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE
+                || !expectComma(buffer, to)) {
+            return false;
+        }
+        int patientId = (int) longValue;
+        if (!decodeDouble(buffer, fieldEnd + 1, to) || !expectComma(buffer, to)) {
+            return false;
+        }
+        double value = doubleValue;
+        if (!decodeType(buffer, fieldEnd + 1, to) || !expectComma(buffer, to)) {
+            return false;
+        }
+        if (!decodeLong(buffer, fieldEnd + 1, to)) {
+            return false;
+        }
+        int end = skipSpaces(buffer, fieldEnd, to);
+        if (end < to && buffer.get(end) != ',') {
+            return false;
+        }
+        batch.add(patientId, value, recordTypeId, longValue);
+        return true;
+    }
+
+    /**
+     * Parses one line in the simulator's file output format, e.g.
+     * {@code Patient ID: 7, Timestamp: 1714376789050, Label: Saturation, Data: 97.0%},
+     * and adds its sample to the batch. A trailing percent sign is dropped, and
+     * the alert states {@code triggered} and {@code resolved} are stored as 1
+     * and 0.
+     *
+     * @param buffer the bytes, read with absolute gets
+     * @param from   the position of the first byte of the line
+     * @param to     the position after the last byte of the line, excluding
+     *               the line break
+     * @param batch  receives the sample
+     * @return true if the line was added, false if it is malformed
+     */
+    boolean parseSimulatorLine(ByteBuffer buffer, int from, int to, SampleBatch batch) {
+        int position = expect(buffer, from, to, PATIENT_ID);
+        if (position < 0 || !decodeLong(buffer, position, to) || longValue < Integer.MIN_VALUE
+                || longValue > Integer.MAX_VALUE || !expectComma(buffer, to)) {
+            return false;
+        }
+        int patientId = (int) longValue;
+        position = expect(buffer, fieldEnd + 1, to, TIMESTAMP);
+        if (position < 0 || !decodeLong(buffer, position, to) || !expectComma(buffer, to)) {
+            return false;
+        }
+        long timestamp = longValue;
+        position = expect(buffer, fieldEnd + 1, to, LABEL);
+        if (position < 0 || !decodeType(buffer, position, to) || !expectComma(buffer, to)) {
+            return false;
+        }
+        position = expect(buffer, fieldEnd + 1, to, DATA);
+        if (position < 0) {
+            return false;
+        }
+        position = skipSpaces(buffer, position, to);
+        if (expect(buffer, position, to, TRIGGERED) >= 0) {
+            doubleValue = 1.0;
+            fieldEnd = position + TRIGGERED.length;
+        } else if (expect(buffer, position, to, RESOLVED) >= 0) {
+            doubleValue = 0.0;
+            fieldEnd = position + RESOLVED.length;
+        } else if (!decodeDouble(buffer, position, to)) {
+            return false;
+        }
+        int end = skipSpaces(buffer, fieldEnd, to);
+        if (end < to && buffer.get(end) == '%') {
+            end = skipSpaces(buffer, end + 1, to);
+        }
+        if (end < to) {
+            return false;
+        }
+        batch.add(patientId, doubleValue, recordTypeId, timestamp);
+        return true;
+    }
+
+    /**
+     * Returns the position after the given text if it follows the position,
+     * after optional spaces, or -1 if it does not.
+     */
+    private static int expect(ByteBuffer buffer, int from, int to, byte[] text) {
+        int position = skipSpaces(buffer, from, to);
+        if (to - position < text.length || !matches(buffer, position, text)) {
+            return -1;
+        }
+        return position + text.length;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns whether a line holds nothing but spaces and a carriage return.
+     */
+    static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean expectComma(ByteBuffer buffer, int to) {
+        int position = skipSpaces(buffer, fieldEnd, to);
+        fieldEnd = position;
+        return position < to && buffer.get(position) == ',';
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int position, int to) {
+        while (position < to) {
+            byte b = buffer.get(position);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private boolean decodeLong(ByteBuffer buffer, int from, int to) {
+        int position = skipSpaces(buffer, from, to);
+        boolean negative = false;
+        if (position < to && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+        int digitsStart = position;
+        long result = 0;
+        while (position < to) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                return false; // overflow
+            }
+            result = result * 10 - digit; // accumulated negatively to reach Long.MIN_VALUE
+            position++;
+        }
+        if (position == digitsStart || (!negative && result == Long.MIN_VALUE)) {
+            return false;
+        }
+        longValue = negative ? result : -result;
+        fieldEnd = position;
+        return true;
+    }
+
+    private boolean decodeDouble(ByteBuffer buffer, int from, int to) {
+        int start = skipSpaces(buffer, from, to);
+        int position = start;
+        boolean negative = false;
+        if (position < to && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0; // digits after the decimal point
+        boolean exact = true;
+        boolean point = false;
+        while (position < to) {
+            byte b = buffer.get(position);
+            if (b == '.' && !point) {
+                point = true;
+            } else if (b >= '0' && b <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point) {
+                        scale++;
+                    }
+                } else {
+                    exact = false;
+                }
+                digits++;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits == 0) {
+            return decodeDoubleSlowly(buffer, start, to); // e.g. NaN or Infinity
+        }
+        int exponent = 0;
+        if (position < to && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            position++;
+            byte next = position < to ? buffer.get(position) : 0;
+            if (next != '-' && next != '+' && (next < '0' || next > '9')) {
+                return false;
+            }
+            if (!decodeLong(buffer, position, to) || Math.abs(longValue) > 400) {
+                return decodeDoubleSlowly(buffer, start, to);
+            }
+            exponent = (int) longValue;
+            position = fieldEnd;
+        }
+        int power = exponent - scale;
+        if (!exact || power < -22 || power > 22) {
+            return decodeDoubleSlowly(buffer, start, to);
+        }
+        double result = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+        doubleValue = negative ? -result : result;
+        fieldEnd = position;
+        return true;
+    }
+
+    private boolean decodeDoubleSlowly(ByteBuffer buffer, int from, int to) {
+        int end = from;
+        while (end < to && buffer.get(end) != ',' && buffer.get(end) != '%') {
+            end++;
+        }
+        byte[] bytes = new byte[end - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        try {
+            doubleValue = Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1).trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        fieldEnd = end;
+        return true;
+    }
+
+    private boolean decodeType(ByteBuffer buffer, int from, int to) {
+        int start = skipSpaces(buffer, from, to);
+        int end = start;
+        int last = start; // after the last character that is not a space
+        while (end < to) {
+            byte b = buffer.get(end);
+            if (b == ',') {
+                break;
+            }
+            end++;
+            if (b != ' ' && b != '\t' && b != '\r') {
+                last = end;
+            }
+        }
+        if (last == start) {
+            return false;
+        }
+        recordTypeId = lookupType(buffer, start, last);
+        fieldEnd = end;
+        return true;
+    }
+
+    private int lookupType(ByteBuffer buffer, int from, int to) {
+        int length = to - from;
+        for (int t = 0; t < typeCount; t++) {
+            byte[] name = typeNames[t];
+            if (name.length == length && matches(buffer, from, name)) {
+                return typeIds[t];
+            }
+        }
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = buffer.get(from + i);
+        }
+        int id = RecordTypeDictionary.idOf(new String(name, StandardCharsets.UTF_8));
+        if (typeCount < MAX_CACHED_TYPES) {
+            if (typeCount == typeNames.length) {
+                typeNames = Arrays.copyOf(typeNames, typeCount * 2);
+                typeIds = Arrays.copyOf(typeIds, typeCount * 2);
+            }
+            typeNames[typeCount] = name;
+            typeIds[typeCount] = id;
+            typeCount++;
+        }
+        return id;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int from, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
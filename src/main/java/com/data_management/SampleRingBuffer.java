@@ -0,0 +1,212 @@
+package com.data_management;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue of samples held in primitive columns, for handing
+ * samples from a network thread to an ingest thread without taking a lock or
+ * creating an object per sample. Any number of threads may offer and drain.
+ * <p>
+ * Every slot carries a sequence number that tells producers and consumers
+ * whether it is free or filled for the current lap around the ring: a
+ * producer claims a slot by advancing the tail with a compare-and-set, writes
+ * the sample and then publishes the slot by releasing its sequence; a consumer
+ * does the same with the head. What happens to a sample offered while the
+ * buffer is full is decided by its {@link OverflowPolicy}; dropped samples are
+ * counted.
+ */
+public class SampleRingBuffer {
+    private static final long BLOCK_PARK_NANOS = 10_000;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] patientIds;
+    private final int[] recordTypeIds;
+    private final long[] timestamps;
+    private final double[] values;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param capacity       the number of samples the buffer holds, rounded up
+     *                       to a power of two
+     * @param overflowPolicy what to do with a sample offered to a full buffer
+     */
+    public SampleRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.patientIds = new int[size];
+        this.recordTypeIds = new int[size];
+        this.timestamps = new long[size];
+        this.values = new double[size];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of samples in the buffer. Only an estimate while other
+     * threads offer or drain.
+     *
+     * @return the sample count
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the number of samples discarded because the buffer was full, or
+     * closed while a producer waited for room.
+     *
+     * @return the dropped sample count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Adds a sample, applying the overflow policy if the buffer is full.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     * @return true if the sample was added, false if it was dropped
+     */
+    public boolean offer(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        while (!tryOffer(patientId, measurementValue, recordTypeId, timestamp)) {
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+                case DROP_OLDEST:
+                    if (discardOldest()) {
+                        dropped.increment();
+                    }
+                    break;
+                default:
+                    dropped.increment();
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryOffer(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    patientIds[index] = patientId;
+                    recordTypeIds[index] = recordTypeId;
+                    timestamps[index] = timestamp;
+                    values[index] = measurementValue;
+                    sequences.setRelease(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // the slot still holds a sample from the previous lap
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private boolean discardOldest() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    sequences.setRelease(index, position + capacity());
+                    return true;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return false; // empty, or the slot is still being written
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} samples, oldest first, to the end of a batch.
+     *
+     * @param batch receives the samples
+     * @param max   the most samples to move
+     * @return the number of samples moved
+     */
+    public int drainTo(SampleBatch batch, int max) {
+        int moved = 0;
+        long position = head.get();
+        while (moved < max) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    batch.add(patientIds[index], values[index], recordTypeIds[index], timestamps[index]);
+                    sequences.setRelease(index, position + capacity());
+                    moved++;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                break; // empty, or the next slot is still being written
+            } else {
+                position = head.get();
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Returns whether every sample offered so far has been drained or dropped.
+     *
+     * @return true if the buffer is empty
+     */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * Makes producers waiting for room, and later offers to a full buffer, give
+     * up their samples instead of waiting.
+     */
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,140 @@
+package com.data_management;
+
+/**
+ * A time-ordered series of (timestamp, value) samples of one record type for
+ * one patient. Positions run from 0 (oldest sample) to size() - 1 (newest
+ * sample), and samples are kept in ascending timestamp order.
+ * Implementations decide where the samples live, e.g. on the Java heap
+ * ({@link TimeSeries}) or in direct memory ({@link OffHeapSeriesFactory}).
+ * <p>
+ * A series has a single writer at a time. {@link #copyRange} may be called
+ * from any thread at any time and returns a consistent copy. The positional
+ * methods ({@link #size()}, {@link #timestampAt(int)}, {@link #valueAt(int)}
+ * and the bound searches) are only reliable for the writer, or for a reader
+ * that holds the owning patient's writer lock.
+ */
+public interface SampleSeries {
+
+    /**
+     * Returns the {@link RecordTypeDictionary} id of the record type stored in
+     * this series.
+     *
+     * @return the record type id
+     */
+    int getRecordTypeId();
+
+    /**
+     * Returns how long samples are kept, measured back from the newest sample.
+     *
+     * @return the retention in milliseconds, or {@link RetentionPolicy#UNLIMITED}
+     */
+    long getRetention();
+
+    /**
+     * Returns the number of samples stored in this series.
+     *
+     * @return the sample count
+     */
+    int size();
+
+    /**
+     * Adds a sample at its sorted position and evicts samples that have fallen
+     * out of the retention window.
+     *
+     * @param timestamp the time of the measurement, in milliseconds since UNIX
+     *                  epoch
+     * @param value     the measurement value
+     */
+    void append(long timestamp, double value);
+
+    /**
+     * Removes all samples with a timestamp before the given time.
+     *
+     * @param cutoff the oldest timestamp to keep, in milliseconds since UNIX
+     *               epoch
+     * @return the number of samples removed
+     */
+    int evictBefore(long cutoff);
+
+    /**
+     * Returns the number of samples that arrived after a sample with a later
+     * timestamp, i.e. out of order, including late samples that were dropped
+     * because they were already outside the retention window.
+     *
+     * @return the late sample count
+     */
+    default long getLateSampleCount() {
+        return 0;
+    }
+
+    /**
+     * Returns the timestamp of the sample at the given position.
+     *
+     * @param index the position of the sample, from 0 (oldest) to size() - 1
+     * @return the timestamp of the sample
+     */
+    long timestampAt(int index);
+
+    /**
+     * Returns the value of the sample at the given position.
+     *
+     * @param index the position of the sample, from 0 (oldest) to size() - 1
+     * @return the measurement value of the sample
+     */
+    double valueAt(int index);
+
+    /**
+     * Copies the samples whose timestamps lie in the given range to the end of
+     * the target buffer, in ascending timestamp order. The copy is a consistent
+     * snapshot taken without blocking the writer.
+     *
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @param target    the buffer that receives the samples
+     */
+    void copyRange(long startTime, long endTime, SampleBuffer target);
+
+    /**
+     * Finds the position of the first sample whose timestamp is at or after the
+     * given time.
+     *
+     * @param timestamp the time to search for
+     * @return the first position with a timestamp of at least {@code timestamp},
+     *         or size() if there is none
+     */
+    default int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the position of the first sample whose timestamp is after the given
+     * time.
+     *
+     * @param timestamp the time to search for
+     * @return the first position with a timestamp greater than
+     *         {@code timestamp}, or size() if there is none
+     */
+    default int upperBound(long timestamp) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
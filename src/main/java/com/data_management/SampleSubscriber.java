@@ -0,0 +1,19 @@
+package com.data_management;
+
+/**
+ * Receives the samples appended to a {@link DataStorage}, pushed to it as they
+ * arrive, e.g. by an alert engine or an exporter. See
+ * {@link DataStorage#subscribe(SampleSubscriber, int, OverflowPolicy)}.
+ */
+@FunctionalInterface
+public interface SampleSubscriber {
+
+    /**
+     * Receives the next samples in the order they were appended. Called on the
+     * subscription's own thread, never concurrently.
+     *
+     * @param batch the samples; it is reused once this method returns, so it
+     *              must not be kept
+     */
+    void onSamples(SampleBatch batch);
+}
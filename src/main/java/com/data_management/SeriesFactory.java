@@ -0,0 +1,57 @@
+package com.data_management;
+
+/**
+ * Creates the series that hold a patient's samples. The factory decides which
+ * storage backend is used, so the same {@link DataStorage} contract can be
+ * served from the Java heap or from direct memory.
+ */
+@FunctionalInterface
+public interface SeriesFactory {
+
+    /**
+     * Creates an empty series.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param retention    how long samples are kept, in milliseconds, or
+     *                     {@link RetentionPolicy#UNLIMITED}
+     * @return the new series
+     */
+    SampleSeries create(int recordTypeId, long retention);
+
+    /**
+     * Returns the factory for series stored on the Java heap.
+     *
+     * @return the heap series factory
+     */
+    static SeriesFactory onHeap() {
+        return TimeSeries::new;
+    }
+
+    /**
+     * Returns the factory for heap series that compress full chunks of samples,
+     * trading some CPU on range reads for a much smaller memory footprint.
+     *
+     * @return the compressed series factory
+     */
+    static SeriesFactory compressed() {
+        return CompressedSeries::new;
+    }
+
+    /**
+     * Returns a factory that puts a reorder buffer in front of the series
+     * created by another factory. Samples arriving up to the given lateness
+     * behind the newest sample are sorted in the buffer, so the underlying
+     * series only ever takes in-order appends.
+     *
+     * @param factory  creates the underlying series
+     * @param lateness how late a sample may arrive and still be reordered in the
+     *                 buffer, in milliseconds
+     * @return the reordering series factory
+     */
+    static SeriesFactory reordering(SeriesFactory factory, long lateness) {
+        if (lateness < 0) {
+            throw new IllegalArgumentException("Lateness must not be negative: " + lateness);
+        }
+        return (recordTypeId, retention) -> new ReorderingSeries(factory.create(recordTypeId, retention), lateness);
+    }
+}
@@ -0,0 +1,420 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serves a {@link DataStorage} to {@link RemoteShard} clients over a loopback
+ * socket, so that shards can run in separate JVMs on one host.
+ * <p>
+ * This is a stand-in for a real RPC layer. Every connection is served by its
+ * own thread, one request at a time. A request is an opcode followed by its
+ * arguments; record types travel by name, since each JVM has its own
+ * {@link RecordTypeDictionary}. Every request except {@link #INGEST} is
+ * answered with a status byte and, on success, the result. A sample that
+ * cannot be ingested is reported instead by the reply to the next
+ * {@link #FLUSH} on the same connection.
+ */
+public class ShardServer implements Closeable {
+    static final byte INGEST = 1;
+    static final byte ADD = 2;
+    static final byte FLUSH = 3;
+    static final byte RECORDS = 4;
+    static final byte COPY_RANGE = 5;
+    static final byte ROLLUPS = 6;
+    static final byte LATEST = 7;
+    static final byte FOR_EACH_LATEST = 8;
+    static final byte AGGREGATE = 9;
+    static final byte EVICT = 10;
+    static final byte PATIENT_COUNT = 11;
+    static final byte BATCH = 12;
+    static final byte PATIENT_IDS = 13;
+    static final byte LATE_SAMPLE_COUNT = 14;
+    static final byte AGGREGATE_VALUES = 15;
+    static final byte WRITE_SNAPSHOT = 16;
+    static final byte RESTORE_SNAPSHOT = 17;
+    static final byte OPEN_WRITE_AHEAD_LOG = 18;
+    static final byte CLOSE_WRITE_AHEAD_LOG = 19;
+    static final byte OPEN_COLD_TIER = 20;
+    static final byte MOVE_TO_COLD_TIER = 21;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private final DataStorage storage;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Starts serving the given storage on a loopback port.
+     *
+     * @param storage the storage to serve
+     * @param port    the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public ShardServer(DataStorage storage, int port) throws IOException {
+        this.storage = storage;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptConnections, "shard-server-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> serve(socket), "shard-connection-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Shard server failed to accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            RuntimeException ingestFailure = null; // the first since the last flush
+            while (true) {
+                byte opcode = in.readByte();
+                if (opcode == INGEST) {
+                    int patientId = in.readInt();
+                    double measurementValue = in.readDouble();
+                    String recordType = in.readUTF();
+                    long timestamp = in.readLong();
+                    try {
+                        storage.addPatientData(patientId, measurementValue, recordType, timestamp);
+                    } catch (RuntimeException e) {
+                        if (ingestFailure == null) {
+                            ingestFailure = e;
+                        }
+                    }
+                    continue;
+                }
+                if (opcode == FLUSH && ingestFailure != null) {
+                    out.writeByte(ERROR);
+                    out.writeUTF("Ingest failed: " + ingestFailure.getMessage());
+                    ingestFailure = null;
+                } else {
+                    try {
+                        handle(opcode, in, out);
+                    } catch (RuntimeException e) {
+                        out.writeByte(ERROR);
+                        out.writeUTF(String.valueOf(e.getMessage()));
+                    }
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // client disconnected
+        } catch (IOException e) {
+            System.err.println("Shard connection failed: " + e.getMessage());
+        }
+    }
+
+    private void handle(byte opcode, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (opcode) {
+            case ADD: {
+                storage.addPatientData(in.readInt(), in.readDouble(), in.readUTF(), in.readLong());
+                out.writeByte(OK);
+                break;
+            }
+            case BATCH: {
+                int[] labelIds = new int[in.readInt()];
+                for (int i = 0; i < labelIds.length; i++) {
+                    labelIds[i] = RecordTypeDictionary.idOf(in.readUTF());
+                }
+                int length = in.readInt();
+                int[] patientIds = new int[length];
+                int[] recordTypeIds = new int[length];
+                long[] timestamps = new long[length];
+                double[] values = new double[length];
+                for (int i = 0; i < length; i++) {
+                    patientIds[i] = in.readInt();
+                }
+                for (int i = 0; i < length; i++) {
+                    recordTypeIds[i] = labelIds[in.readInt()];
+                }
+                for (int i = 0; i < length; i++) {
+                    timestamps[i] = in.readLong();
+                }
+                for (int i = 0; i < length; i++) {
+                    values[i] = in.readDouble();
+                }
+                storage.addBatch(patientIds, recordTypeIds, timestamps, values, length);
+                out.writeByte(OK);
+                break;
+            }
+            case FLUSH:
+                out.writeByte(OK);
+                break;
+            case RECORDS: {
+                List<PatientRecord> records = storage.getRecords(in.readInt(), in.readLong(), in.readLong());
+                out.writeByte(OK);
+                writeRecords(records, out);
+                break;
+            }
+            case COPY_RANGE: {
+                int patientId = in.readInt();
+                int recordTypeId = RecordTypeDictionary.lookup(in.readUTF());
+                SampleBuffer buffer = new SampleBuffer();
+                storage.copyRange(patientId, recordTypeId, in.readLong(), in.readLong(), buffer);
+                out.writeByte(OK);
+                out.writeInt(buffer.size());
+                for (int i = 0; i < buffer.size(); i++) {
+                    out.writeLong(buffer.timestampAt(i));
+                    out.writeDouble(buffer.valueAt(i));
+                }
+                break;
+            }
+            case ROLLUPS: {
+                int patientId = in.readInt();
+                String recordType = in.readUTF();
+                List<Rollup> rollups = storage.getRollups(patientId, recordType, in.readLong(), in.readLong(),
+                        in.readLong());
+                out.writeByte(OK);
+                out.writeInt(rollups.size());
+                for (Rollup rollup : rollups) {
+                    out.writeLong(rollup.getStartTime());
+                    out.writeLong(rollup.getDuration());
+                    out.writeDouble(rollup.getMin());
+                    out.writeDouble(rollup.getMax());
+                    out.writeDouble(rollup.getSum());
+                    out.writeLong(rollup.getCount());
+                    out.writeDouble(rollup.getLast());
+                }
+                break;
+            }
+            case LATEST: {
+                List<PatientRecord> records = storage.getLatestRecords(in.readInt());
+                out.writeByte(OK);
+                writeRecords(records, out);
+                break;
+            }
+            case FOR_EACH_LATEST: {
+                LatestSamples latest = new LatestSamples();
+                storage.forEachLatest(latest);
+                out.writeByte(OK);
+                out.writeInt(latest.size);
+                for (int i = 0; i < latest.size; i++) {
+                    out.writeInt(latest.patientIds[i]);
+                    out.writeUTF(RecordTypeDictionary.nameOf(latest.recordTypeIds[i]));
+                    out.writeLong(latest.timestamps[i]);
+                    out.writeDouble(latest.values[i]);
+                }
+                break;
+            }
+            case AGGREGATE: {
+                PopulationAggregate aggregate = storage.aggregate(in.readUTF(), in.readLong(), in.readLong());
+                out.writeByte(OK);
+                out.writeLong(aggregate.getPatientCount());
+                out.writeLong(aggregate.getMatchingPatientCount());
+                out.writeLong(aggregate.getSampleCount());
+                out.writeDouble(aggregate.getSum());
+                out.writeDouble(aggregate.getMin());
+                out.writeDouble(aggregate.getMax());
+                break;
+            }
+            case AGGREGATE_VALUES: {
+                int recordTypeId = RecordTypeDictionary.lookup(in.readUTF());
+                long startTime = in.readLong();
+                long endTime = in.readLong();
+                List<Patient> patients = storage.getAllPatients();
+                int[] counts = new int[patients.size()];
+                SampleBuffer samples = new SampleBuffer();
+                int withSamples = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    int before = samples.size();
+                    storage.copyRange(patients.get(i).getPatientId(), recordTypeId, startTime, endTime, samples);
+                    counts[i] = samples.size() - before;
+                    if (counts[i] > 0) {
+                        withSamples++;
+                    }
+                }
+                out.writeByte(OK);
+                out.writeInt(withSamples);
+                int offset = 0;
+                for (int count : counts) {
+                    if (count > 0) {
+                        out.writeInt(count);
+                        for (int i = offset; i < offset + count; i++) {
+                            out.writeDouble(samples.valueAt(i));
+                        }
+                        offset += count;
+                    }
+                }
+                break;
+            }
+            case WRITE_SNAPSHOT: {
+                Path file = Path.of(in.readUTF());
+                int patients = unchecked(() -> storage.writeSnapshot(file));
+                out.writeByte(OK);
+                out.writeInt(patients);
+                break;
+            }
+            case RESTORE_SNAPSHOT: {
+                Path file = Path.of(in.readUTF());
+                int patients = unchecked(() -> storage.restoreSnapshot(file));
+                out.writeByte(OK);
+                out.writeInt(patients);
+                break;
+            }
+            case OPEN_WRITE_AHEAD_LOG: {
+                Path directory = Path.of(in.readUTF());
+                long recovered = unchecked(() -> storage.openWriteAheadLog(directory));
+                out.writeByte(OK);
+                out.writeLong(recovered);
+                break;
+            }
+            case CLOSE_WRITE_AHEAD_LOG:
+                unchecked(() -> {
+                    storage.closeWriteAheadLog();
+                    return null;
+                });
+                out.writeByte(OK);
+                break;
+            case OPEN_COLD_TIER: {
+                Path directory = Path.of(in.readUTF());
+                long hotAge = in.readLong();
+                int patients = unchecked(() -> storage.openColdTier(directory, hotAge));
+                out.writeByte(OK);
+                out.writeInt(patients);
+                break;
+            }
+            case MOVE_TO_COLD_TIER: {
+                long currentTime = in.readLong();
+                long moved = unchecked(() -> storage.moveToColdTier(currentTime));
+                out.writeByte(OK);
+                out.writeLong(moved);
+                break;
+            }
+            case EVICT: {
+                int removed = storage.evictExpired(in.readLong());
+                out.writeByte(OK);
+                out.writeInt(removed);
+                break;
+            }
+            case PATIENT_COUNT:
+                out.writeByte(OK);
+                out.writeInt(storage.getAllPatients().size());
+                break;
+            case PATIENT_IDS: {
+                int[] patientIds = storage.getPatientIds();
+                out.writeByte(OK);
+                out.writeInt(patientIds.length);
+                for (int patientId : patientIds) {
+                    out.writeInt(patientId);
+                }
+                break;
+            }
+            case LATE_SAMPLE_COUNT:
+                out.writeByte(OK);
+                out.writeLong(storage.getLateSampleCount());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Collects the newest samples passed by {@link DataStorage#forEachLatest},
+     * so they can be written after the status byte.
+     */
+    private static final class LatestSamples implements LatestSampleConsumer {
+        private int[] patientIds = new int[16];
+        private int[] recordTypeIds = new int[16];
+        private long[] timestamps = new long[16];
+        private double[] values = new double[16];
+        private int size;
+
+        @Override
+        public void accept(int patientId, int recordTypeId, long timestamp, double value) {
+            if (size == patientIds.length) {
+                int capacity = size * 2;
+                patientIds = Arrays.copyOf(patientIds, capacity);
+                recordTypeIds = Arrays.copyOf(recordTypeIds, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            patientIds[size] = patientId;
+            recordTypeIds[size] = recordTypeId;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    /**
+     * Runs a storage operation that can fail with an {@link IOException},
+     * turning the failure into an error reply rather than a broken connection.
+     */
+    private static <T> T unchecked(StorageCall<T> call) {
+        try {
+            return call.call();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface StorageCall<T> {
+        T call() throws IOException;
+    }
+
+    private static void writeRecords(List<PatientRecord> records, DataOutputStream out) throws IOException {
+        out.writeInt(records.size());
+        for (PatientRecord record : records) {
+            out.writeInt(record.getPatientId());
+            out.writeUTF(record.getRecordType());
+            out.writeDouble(record.getMeasurementValue());
+            out.writeLong(record.getTimestamp());
+        }
+    }
+
+    /**
+     * Runs a shard server in its own JVM until the process is killed. Prints the
+     * port it listens on as the first line of standard output.
+     *
+     * @param args optionally the port to listen on; a free port by default
+     * @throws IOException          if the port cannot be opened
+     * @throws InterruptedException if the main thread is interrupted while
+     *                              serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        ShardServer server = new ShardServer(new DataStorage(), port);
+        System.out.println(server.getPort());
+        System.out.flush();
+        Thread.currentThread().join();
+    }
+}
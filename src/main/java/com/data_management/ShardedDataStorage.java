@@ -0,0 +1,470 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * A storage whose patients are spread over independent shards, so
+ * that ingestion into different shards never contends on the same index or
+ * locks. A {@link PartitionFunction} maps every patient to one shard; queries
+ * about a patient go to that shard only, while population-wide queries fan out
+ * to every shard in parallel and merge the partial results.
+ * <p>
+ * Shards may be held in this JVM ({@link LocalShard}) or served by another
+ * process ({@link RemoteShard}), and the two can be mixed. Snapshots,
+ * write-ahead logs and cold tiers are kept per shard: a shard's snapshot file
+ * is named after the given file with the shard's index appended, e.g.
+ * {@code ward.snapshot.0}, and its log and cold segments go to the
+ * subdirectory {@code shard-0} of the given directory. The sharded storage
+ * itself holds no patients; every query is answered by the shards.
+ */
+public class ShardedDataStorage extends AbstractDataStorage implements Closeable {
+    private final StorageShard[] shards;
+    private final PartitionFunction partitionFunction;
+
+    /**
+     * Constructs a sharded storage over the given shards.
+     *
+     * @param shards            the shards, indexed as the partition function
+     *                          expects
+     * @param partitionFunction maps each patient to a shard
+     */
+    public ShardedDataStorage(List<? extends StorageShard> shards, PartitionFunction partitionFunction) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards.toArray(new StorageShard[0]);
+        this.partitionFunction = partitionFunction;
+    }
+
+    /**
+     * Constructs a sharded storage over the given number of new, empty local
+     * shards.
+     *
+     * @param shardCount        the number of shards
+     * @param partitionFunction maps each patient to a shard
+     */
+    public ShardedDataStorage(int shardCount, PartitionFunction partitionFunction) {
+        this(localShards(shardCount), partitionFunction);
+    }
+
+    private static List<LocalShard> localShards(int shardCount) {
+        List<LocalShard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new LocalShard(new DataStorage(), "shard-" + i));
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard that holds a patient.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the patient's shard
+     */
+    public StorageShard shardFor(int patientId) {
+        return shards[partitionFunction.shardOf(patientId, shards.length)];
+    }
+
+    @Override
+    public void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        shardFor(patientId).addPatientData(patientId, measurementValue, recordTypeId, timestamp);
+        publish(patientId, measurementValue, recordTypeId, timestamp);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The batch is split by shard, keeping the order of each shard's samples,
+     * and every shard stores its part with one batch call.
+     */
+    @Override
+    public void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int length) {
+        if (length < 0 || patientIds.length < length || recordTypeIds.length < length
+                || timestamps.length < length || values.length < length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than the batch length " + length);
+        }
+        int[] shardOfSample = new int[length];
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < length; i++) {
+            int shard = partitionFunction.shardOf(patientIds[i], shards.length);
+            shardOfSample[i] = shard;
+            counts[shard]++;
+        }
+        if (length > 0 && counts[shardOfSample[0]] == length) {
+            shards[shardOfSample[0]].addBatch(patientIds, recordTypeIds, timestamps, values, length);
+        } else {
+            int[][] shardPatientIds = new int[shards.length][];
+            int[][] shardRecordTypeIds = new int[shards.length][];
+            long[][] shardTimestamps = new long[shards.length][];
+            double[][] shardValues = new double[shards.length][];
+            for (int shard = 0; shard < shards.length; shard++) {
+                shardPatientIds[shard] = new int[counts[shard]];
+                shardRecordTypeIds[shard] = new int[counts[shard]];
+                shardTimestamps[shard] = new long[counts[shard]];
+                shardValues[shard] = new double[counts[shard]];
+            }
+            int[] filled = new int[shards.length];
+            for (int i = 0; i < length; i++) {
+                int shard = shardOfSample[i];
+                int n = filled[shard]++;
+                shardPatientIds[shard][n] = patientIds[i];
+                shardRecordTypeIds[shard][n] = recordTypeIds[i];
+                shardTimestamps[shard][n] = timestamps[i];
+                shardValues[shard][n] = values[i];
+            }
+            for (int shard = 0; shard < shards.length; shard++) {
+                if (counts[shard] > 0) {
+                    shards[shard].addBatch(shardPatientIds[shard], shardRecordTypeIds[shard],
+                            shardTimestamps[shard], shardValues[shard], counts[shard]);
+                }
+            }
+        }
+        publishAll(patientIds, recordTypeIds, timestamps, values, length);
+    }
+
+    /**
+     * Queues a sample for the ingest thread of the patient's shard and returns
+     * immediately. Call {@link #flush()} before querying samples queued this way.
+     * Subscribers are handed the sample as soon as it is queued.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, e.g., "ECG"
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public void ingest(int patientId, double measurementValue, String recordType, long timestamp) {
+        int recordTypeId = RecordTypeDictionary.idOf(recordType);
+        shardFor(patientId).ingest(patientId, measurementValue, recordTypeId, timestamp);
+        publish(patientId, measurementValue, recordTypeId, timestamp);
+    }
+
+    /**
+     * Waits until every shard has stored the samples queued with
+     * {@link #ingest} before this call.
+     */
+    public void flush() {
+        for (StorageShard shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
+        return shardFor(patientId).getRecords(patientId, startTime, endTime);
+    }
+
+    @Override
+    public List<PatientRecord> getRecords(int patientId, int recordTypeId, long startTime, long endTime) {
+        SampleBuffer buffer = new SampleBuffer();
+        shardFor(patientId).copyRange(patientId, recordTypeId, startTime, endTime, buffer);
+        List<PatientRecord> records = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            records.add(new PatientRecord(patientId, buffer.valueAt(i), recordTypeId, buffer.timestampAt(i)));
+        }
+        return records;
+    }
+
+    @Override
+    public int forEach(int patientId, int recordTypeId, long startTime, long endTime, boolean descending,
+            SampleConsumer consumer) {
+        SampleBuffer buffer = SampleBuffer.borrow();
+        try {
+            shardFor(patientId).copyRange(patientId, recordTypeId, startTime, endTime, buffer);
+            int size = buffer.size();
+            if (descending) {
+                for (int i = size - 1; i >= 0; i--) {
+                    consumer.accept(buffer.timestampAt(i), buffer.valueAt(i));
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    consumer.accept(buffer.timestampAt(i), buffer.valueAt(i));
+                }
+            }
+            return size;
+        } finally {
+            SampleBuffer.release(buffer);
+        }
+    }
+
+    @Override
+    public PatientRecord getLatestRecord(int patientId, String recordType) {
+        int recordTypeId = RecordTypeDictionary.lookup(recordType);
+        for (PatientRecord record : getLatestRecords(patientId)) {
+            if (record.getRecordTypeId() == recordTypeId) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<PatientRecord> getLatestRecords(int patientId) {
+        return shardFor(patientId).getLatestRecords(patientId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The shards are visited one after another.
+     */
+    @Override
+    public void forEachLatest(LatestSampleConsumer consumer) {
+        for (StorageShard shard : shards) {
+            shard.forEachLatest(consumer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every shard computes its partial aggregate in parallel.
+     */
+    @Override
+    public PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime,
+            DoublePredicate condition) {
+        return List.of(shards).parallelStream()
+                .map(shard -> shard.aggregate(recordTypeId, startTime, endTime, condition))
+                .reduce(new PopulationAggregate(), (left, right) -> {
+                    PopulationAggregate merged = new PopulationAggregate();
+                    merged.merge(left);
+                    merged.merge(right);
+                    return merged;
+                });
+    }
+
+    @Override
+    public List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime, long resolution) {
+        return shardFor(patientId).getRollups(patientId, recordTypeId, startTime, endTime, resolution);
+    }
+
+    @Override
+    public int evictExpired(long currentTime) {
+        int removed = 0;
+        for (StorageShard shard : shards) {
+            removed += shard.evictExpired(currentTime);
+        }
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The budget applies to each local shard; remote shards are not affected.
+     */
+    @Override
+    public void setQueryCacheBudget(long memoryBudget) {
+        for (StorageShard shard : shards) {
+            if (shard instanceof LocalShard) {
+                ((LocalShard) shard).getStorage().setQueryCacheBudget(memoryBudget);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The hits of the local shards are summed.
+     */
+    @Override
+    public long getQueryCacheHitCount() {
+        long hits = 0;
+        for (StorageShard shard : shards) {
+            if (shard instanceof LocalShard) {
+                hits += ((LocalShard) shard).getStorage().getQueryCacheHitCount();
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The misses of the local shards are summed.
+     */
+    @Override
+    public long getQueryCacheMissCount() {
+        long misses = 0;
+        for (StorageShard shard : shards) {
+            if (shard instanceof LocalShard) {
+                misses += ((LocalShard) shard).getStorage().getQueryCacheMissCount();
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of patients across all shards, including remote ones.
+     *
+     * @return the patient count
+     */
+    public int getPatientCount() {
+        int count = 0;
+        for (StorageShard shard : shards) {
+            count += shard.patientCount();
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The ids of every shard are returned, shard by shard.
+     */
+    @Override
+    public int[] getPatientIds() {
+        int[][] shardPatientIds = new int[shards.length][];
+        int count = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            shardPatientIds[shard] = shards[shard].patientIds();
+            count += shardPatientIds[shard].length;
+        }
+        int[] patientIds = new int[count];
+        int filled = 0;
+        for (int[] ids : shardPatientIds) {
+            System.arraycopy(ids, 0, patientIds, filled, ids.length);
+            filled += ids.length;
+        }
+        return patientIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The counts of every shard are summed.
+     */
+    @Override
+    public long getLateSampleCount() {
+        long late = 0;
+        for (StorageShard shard : shards) {
+            late += shard.getLateSampleCount();
+        }
+        return late;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every shard writes its own snapshot file, named after the given file with
+     * the shard's index appended.
+     */
+    @Override
+    public int writeSnapshot(Path file) throws IOException {
+        int patients = 0;
+        for (int i = 0; i < shards.length; i++) {
+            patients += shards[i].writeSnapshot(shardFile(file, i));
+        }
+        return patients;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every shard restores the snapshot file written for it by
+     * {@link #writeSnapshot(Path)}.
+     */
+    @Override
+    public int restoreSnapshot(Path file) throws IOException {
+        int patients = 0;
+        for (int i = 0; i < shards.length; i++) {
+            patients += shards[i].restoreSnapshot(shardFile(file, i));
+        }
+        return patients;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every shard keeps its own log, in its own subdirectory of the given
+     * directory.
+     */
+    @Override
+    public long openWriteAheadLog(Path directory) throws IOException {
+        long recovered = 0;
+        for (int i = 0; i < shards.length; i++) {
+            recovered += shards[i].openWriteAheadLog(shardDirectory(directory, i));
+        }
+        return recovered;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The log of every shard is closed, even if closing another one fails.
+     */
+    @Override
+    public void closeWriteAheadLog() throws IOException {
+        IOException failure = null;
+        for (StorageShard shard : shards) {
+            try {
+                shard.closeWriteAheadLog();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every shard keeps its own cold tier, in its own subdirectory of the given
+     * directory.
+     */
+    @Override
+    public int openColdTier(Path directory, long hotAge) throws IOException {
+        int patients = 0;
+        for (int i = 0; i < shards.length; i++) {
+            patients += shards[i].openColdTier(shardDirectory(directory, i), hotAge);
+        }
+        return patients;
+    }
+
+    @Override
+    public long moveToColdTier(long currentTime) throws IOException {
+        long moved = 0;
+        for (StorageShard shard : shards) {
+            moved += shard.moveToColdTier(currentTime);
+        }
+        return moved;
+    }
+
+    private static Path shardFile(Path file, int shard) {
+        return file.resolveSibling(file.getFileName() + "." + shard);
+    }
+
+    private static Path shardDirectory(Path directory, int shard) {
+        return directory.resolve("shard-" + shard);
+    }
+
+    /**
+     * Stores the samples still queued and closes every shard.
+     *
+     * @throws IOException if a shard cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (StorageShard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
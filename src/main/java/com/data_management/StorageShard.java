@@ -0,0 +1,144 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * One independent part of the patient space of a {@link ShardedDataStorage}.
+ * A shard is either held in this JVM ({@link LocalShard}) or served by another
+ * process ({@link RemoteShard}). Record types are given as dictionary ids of
+ * this JVM; a remote shard translates them by name.
+ */
+public interface StorageShard extends Closeable {
+
+    /**
+     * Adds a sample and returns once it is stored.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time of the measurement, in milliseconds
+     *                         since the Unix epoch
+     */
+    void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp);
+
+    /**
+     * Adds a batch of samples, given as parallel columns, and returns once they
+     * are stored.
+     *
+     * @see DataStorage#addBatch(int[], int[], long[], double[], int)
+     */
+    void addBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int length);
+
+    /**
+     * Queues a sample for the shard's ingest thread and returns immediately.
+     * Samples queued by one thread are stored in the order they were queued.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeId     the dictionary id of the record type
+     * @param timestamp        the time of the measurement, in milliseconds
+     *                         since the Unix epoch
+     */
+    void ingest(int patientId, double measurementValue, int recordTypeId, long timestamp);
+
+    /**
+     * Waits until every sample queued with {@link #ingest} before this call has
+     * been stored.
+     */
+    void flush();
+
+    /**
+     * @see DataStorage#getRecords(int, long, long)
+     */
+    List<PatientRecord> getRecords(int patientId, long startTime, long endTime);
+
+    /**
+     * Copies the samples of one record type of a patient in the given range to
+     * the end of the buffer, in ascending timestamp order.
+     */
+    void copyRange(int patientId, int recordTypeId, long startTime, long endTime, SampleBuffer target);
+
+    /**
+     * @see DataStorage#getRollups(int, int, long, long, long)
+     */
+    List<Rollup> getRollups(int patientId, int recordTypeId, long startTime, long endTime, long resolution);
+
+    /**
+     * @see DataStorage#getLatestRecords(int)
+     */
+    List<PatientRecord> getLatestRecords(int patientId);
+
+    /**
+     * @see DataStorage#forEachLatest(LatestSampleConsumer)
+     */
+    void forEachLatest(LatestSampleConsumer consumer);
+
+    /**
+     * Aggregates one record type over the patients of this shard.
+     *
+     * @see DataStorage#aggregate(String, long, long, DoublePredicate)
+     */
+    PopulationAggregate aggregate(int recordTypeId, long startTime, long endTime, DoublePredicate condition);
+
+    /**
+     * @see DataStorage#evictExpired(long)
+     */
+    int evictExpired(long currentTime);
+
+    /**
+     * Returns the number of patients held by the shard.
+     *
+     * @return the patient count
+     */
+    int patientCount();
+
+    /**
+     * @see AbstractDataStorage#getPatientIds()
+     */
+    int[] patientIds();
+
+    /**
+     * @see DataStorage#getLateSampleCount()
+     */
+    long getLateSampleCount();
+
+    /**
+     * Writes a snapshot of the shard. A remote shard writes the file on its
+     * own host.
+     *
+     * @see DataStorage#writeSnapshot(Path)
+     */
+    int writeSnapshot(Path file) throws IOException;
+
+    /**
+     * @see DataStorage#restoreSnapshot(Path)
+     */
+    int restoreSnapshot(Path file) throws IOException;
+
+    /**
+     * @see DataStorage#openWriteAheadLog(Path)
+     */
+    long openWriteAheadLog(Path directory) throws IOException;
+
+    /**
+     * @see DataStorage#closeWriteAheadLog()
+     */
+    void closeWriteAheadLog() throws IOException;
+
+    /**
+     * @see DataStorage#openColdTier(Path, long)
+     */
+    int openColdTier(Path directory, long hotAge) throws IOException;
+
+    /**
+     * @see DataStorage#moveToColdTier(long)
+     */
+    long moveToColdTier(long currentTime) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,210 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Writes and restores binary snapshots of a {@link DataStorage}.
+ * <p>
+ * A snapshot file starts with a header: a magic number, the format version,
+ * the write-ahead log position (see below), the record type names (their
+ * position is the type id used in the file) and an index with the id, offset
+ * and length of every patient section. Each
+ * section holds the patient's series in columnar form: the type id and sample
+ * count, then all timestamps, then all values.
+ * <p>
+ * Every section is captured while no sample can be added to that patient, so
+ * each patient is internally consistent. Restoring maps the file and loads the
+ * sections in parallel.
+ * <p>
+ * When the storage has a write-ahead log, the header records two segment
+ * numbers. Every sample in the segments up to the first is in the snapshot,
+ * so recovery skips them. Samples in the segments after it, up to the second,
+ * were logged while the snapshot was being taken and may or may not be in it,
+ * so recovery adds them only if the restored series does not hold them yet.
+ */
+final class StorageSnapshot {
+    private static final int MAGIC = 0x43445353; // "CDSS"
+    private static final int VERSION = 2;
+    private static final int INDEX_ENTRY_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int SERIES_HEADER_BYTES = Character.BYTES + Integer.BYTES;
+
+    private StorageSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of all patients in the storage. The file is written
+     * under a temporary name and moved into place when complete.
+     *
+     * @param storage        the storage to snapshot
+     * @param file           the snapshot file to create or replace
+     * @param log            the storage's write-ahead log, or null
+     * @param coveredSegment the last log segment whose samples were all added
+     *                       to the storage before the snapshot started
+     * @return the number of patients written
+     * @throws IOException if the file cannot be written
+     */
+    static int write(DataStorage storage, Path file, WriteAheadLog log, long coveredSegment) throws IOException {
+        List<Patient> patients = storage.getAllPatients();
+        int typeCount = RecordTypeDictionary.size();
+        byte[][] typeNames = new byte[typeCount][];
+        int headerBytes = 4 * Integer.BYTES + 2 * Long.BYTES;
+        for (int id = 0; id < typeCount; id++) {
+            typeNames[id] = RecordTypeDictionary.nameOf(id).getBytes(StandardCharsets.UTF_8);
+            headerBytes += Character.BYTES + typeNames[id].length;
+        }
+        headerBytes += patients.size() * INDEX_ENTRY_BYTES;
+
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        header.putInt(MAGIC).putInt(VERSION);
+        int logPosition = header.position();
+        header.putLong(coveredSegment).putLong(coveredSegment).putInt(typeCount);
+        for (byte[] name : typeNames) {
+            header.putChar((char) name.length).put(name);
+        }
+        header.putInt(patients.size());
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = headerBytes;
+            for (Patient patient : patients) {
+                ByteBuffer[] section = new ByteBuffer[1];
+                storage.readPatient(patient.getPatientId(), p -> section[0] = encodeSection(p, typeCount));
+                if (section[0] == null) {
+                    section[0] = ByteBuffer.allocate(Integer.BYTES).putInt(0).flip();
+                }
+                int length = section[0].remaining();
+                header.putInt(patient.getPatientId()).putLong(offset).putInt(length);
+                while (section[0].hasRemaining()) {
+                    offset += channel.write(section[0], offset);
+                }
+            }
+            if (log != null) {
+                // every sample in the snapshot was logged before this point
+                header.putLong(logPosition + Long.BYTES, log.checkpoint());
+            }
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return patients.size();
+    }
+
+    /**
+     * Loads a snapshot into the storage. Patient sections are read from the
+     * memory-mapped file in parallel.
+     *
+     * @param storage the storage to load into
+     * @param file    the snapshot file
+     * @return the number of patients restored
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static int restore(DataStorage storage, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), Integer.MAX_VALUE));
+            if (mapped.remaining() < 3 * Integer.BYTES + 2 * Long.BYTES || mapped.getInt() != MAGIC) {
+                throw new IOException("Not a storage snapshot: " + file);
+            }
+            int version = mapped.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            long coveredSegment = mapped.getLong();
+            storage.setSnapshotLogPosition(coveredSegment, mapped.getLong());
+            int[] typeIds = new int[mapped.getInt()];
+            for (int i = 0; i < typeIds.length; i++) {
+                byte[] name = new byte[mapped.getChar()];
+                mapped.get(name);
+                typeIds[i] = RecordTypeDictionary.idOf(new String(name, StandardCharsets.UTF_8));
+            }
+            int patientCount = mapped.getInt();
+            ByteBuffer index = mapped.slice();
+
+            IntStream.range(0, patientCount).parallel().forEach(i -> {
+                int entry = i * INDEX_ENTRY_BYTES;
+                int patientId = index.getInt(entry);
+                long offset = index.getLong(entry + Integer.BYTES);
+                int length = index.getInt(entry + Integer.BYTES + Long.BYTES);
+                decodeSection(storage, patientId, section(channel, mapped, offset, length), typeIds);
+            });
+            return patientCount;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ByteBuffer section(FileChannel channel, MappedByteBuffer mapped, long offset, int length) {
+        if (offset + length <= mapped.capacity()) {
+            ByteBuffer section = mapped.duplicate();
+            section.position((int) offset).limit((int) offset + length);
+            return section.slice();
+        }
+        try {
+            // sections beyond the first 2 GB are mapped one at a time
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map snapshot section at offset " + offset, e);
+        }
+    }
+
+    private static ByteBuffer encodeSection(Patient patient, int typeCount) {
+        List<SampleSeries> series = patient.getAllSeries();
+        int bytes = Integer.BYTES;
+        int seriesCount = 0;
+        for (SampleSeries s : series) {
+            if (s.getRecordTypeId() < typeCount) {
+                bytes += SERIES_HEADER_BYTES + s.size() * (Long.BYTES + Double.BYTES);
+                seriesCount++;
+            }
+        }
+        ByteBuffer section = ByteBuffer.allocate(bytes);
+        section.putInt(seriesCount);
+        for (SampleSeries s : series) {
+            if (s.getRecordTypeId() >= typeCount) {
+                continue; // type registered after the header was built
+            }
+            int size = s.size();
+            section.putChar((char) s.getRecordTypeId()).putInt(size);
+            for (int i = 0; i < size; i++) {
+                section.putLong(s.timestampAt(i));
+            }
+            for (int i = 0; i < size; i++) {
+                section.putDouble(s.valueAt(i));
+            }
+        }
+        return section.flip();
+    }
+
+    private static void decodeSection(DataStorage storage, int patientId, ByteBuffer section, int[] typeIds) {
+        int seriesCount = section.getInt();
+        for (int s = 0; s < seriesCount; s++) {
+            int typeId = typeIds[section.getChar()];
+            int size = section.getInt();
+            LongBuffer timestamps = section.slice().asLongBuffer();
+            timestamps.limit(size);
+            section.position(section.position() + size * Long.BYTES);
+            DoubleBuffer values = section.slice().asDoubleBuffer();
+            values.limit(size);
+            section.position(section.position() + size * Double.BYTES);
+            storage.restoreSeries(patientId, typeId, timestamps, values);
+        }
+    }
+}
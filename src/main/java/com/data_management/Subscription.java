@@ -0,0 +1,201 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link SampleSubscriber} registered with an {@link AbstractDataStorage},
+ * with its own bounded queue and consumer thread. Appended samples are copied
+ * into the queue as primitives, and the consumer thread hands them to the
+ * subscriber in batches, so a slow subscriber never delays the others. What happens when the
+ * queue is full is decided by the subscription's {@link OverflowPolicy}.
+ */
+public class Subscription implements Closeable {
+    private static final int MAX_DELIVERY = 1024; // samples handed to the subscriber per call
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final AbstractDataStorage storage;
+    private final SampleSubscriber subscriber;
+    private final OverflowPolicy overflowPolicy;
+    private final int[] patientIds;
+    private final int[] recordTypeIds;
+    private final long[] timestamps;
+    private final double[] values;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread consumer;
+    private int head;
+    private int count;
+    private long dropped;
+    private boolean closed;
+
+    Subscription(AbstractDataStorage storage, SampleSubscriber subscriber, int capacity,
+            OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.storage = storage;
+        this.subscriber = subscriber;
+        this.overflowPolicy = overflowPolicy;
+        this.patientIds = new int[capacity];
+        this.recordTypeIds = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+        this.consumer = new Thread(this::deliver, "subscriber-" + THREAD_NUMBER.incrementAndGet());
+        this.consumer.setDaemon(true);
+    }
+
+    void start() {
+        consumer.start();
+    }
+
+    /**
+     * Returns the policy applied when the queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the number of samples discarded because the queue was full, or
+     * because the subscription was closed while a producer waited for room.
+     *
+     * @return the dropped sample count
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void offer(int patientId, int recordTypeId, long timestamp, double value) {
+        lock.lock();
+        try {
+            enqueue(patientId, recordTypeId, timestamp, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the first {@code length} samples of the arrays under a single
+     * acquisition of the queue's lock.
+     */
+    void offerAll(int[] batchPatientIds, int[] batchRecordTypeIds, long[] batchTimestamps, double[] batchValues,
+            int length) {
+        lock.lock();
+        try {
+            for (int i = 0; i < length; i++) {
+                enqueue(batchPatientIds[i], batchRecordTypeIds[i], batchTimestamps[i], batchValues[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(int patientId, int recordTypeId, long timestamp, double value) {
+        int capacity = values.length;
+        while (count == capacity) {
+            if (closed) {
+                dropped++;
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    head = (head + 1) % capacity;
+                    count--;
+                    dropped++;
+                    break;
+                default:
+                    dropped++;
+                    return;
+            }
+        }
+        if (closed) {
+            dropped++;
+            return;
+        }
+        int tail = (head + count) % capacity;
+        patientIds[tail] = patientId;
+        recordTypeIds[tail] = recordTypeId;
+        timestamps[tail] = timestamp;
+        values[tail] = value;
+        count++;
+        notEmpty.signal();
+    }
+
+    private void deliver() {
+        SampleBatch batch = new SampleBatch(Math.min(values.length, MAX_DELIVERY));
+        while (true) {
+            batch.clear();
+            lock.lock();
+            try {
+                while (count == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                int capacity = values.length;
+                int taken = Math.min(count, MAX_DELIVERY);
+                for (int i = 0; i < taken; i++) {
+                    int index = (head + i) % capacity;
+                    batch.add(patientIds[index], values[index], recordTypeIds[index], timestamps[index]);
+                }
+                head = (head + taken) % capacity;
+                count -= taken;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                subscriber.onSamples(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Subscriber failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Unregisters the subscriber, delivers the samples still queued and stops
+     * the consumer thread. Producers waiting for room give up their samples.
+     */
+    @Override
+    public void close() {
+        storage.unsubscribe(this);
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() != consumer) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
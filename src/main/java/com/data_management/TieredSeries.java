@@ -0,0 +1,265 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A series split into a hot tier, the newest samples in an ordinary in-memory
+ * series, and a cold tier of immutable, memory-mapped {@link ColdSegment}
+ * files holding the older samples. {@link #copyRange} merges both tiers, so
+ * every query built on it sees the whole history.
+ * <p>
+ * The positional methods and {@link #size()} only cover the hot tier; a
+ * snapshot of the storage therefore holds the hot samples only, while the cold
+ * segments stay on disk.
+ * <p>
+ * There is one writer at a time. Moving samples to the cold tier and evicting
+ * segments are bracketed by an odd/even {@code version}, and
+ * {@link #copyRange} retries a copy that overlapped such a change.
+ */
+final class TieredSeries implements SampleSeries {
+    private static final ColdSegment[] NO_SEGMENTS = new ColdSegment[0];
+
+    private final SampleSeries hot;
+    private volatile ColdSegment[] cold = NO_SEGMENTS; // ascending by first timestamp
+    private volatile long coldFloor = Long.MIN_VALUE; // older cold samples have been evicted
+    private volatile long coldThrough = Long.MIN_VALUE; // newest timestamp in the cold tier
+    private volatile boolean readSinceRelease;
+    private volatile int version; // odd while the cold tier is being changed
+
+    TieredSeries(SampleSeries hot) {
+        this.hot = hot;
+    }
+
+    @Override
+    public int getRecordTypeId() {
+        return hot.getRecordTypeId();
+    }
+
+    @Override
+    public long getRetention() {
+        return hot.getRetention();
+    }
+
+    @Override
+    public long getLateSampleCount() {
+        return hot.getLateSampleCount();
+    }
+
+    @Override
+    public int size() {
+        return hot.size();
+    }
+
+    @Override
+    public void append(long timestamp, double value) {
+        hot.append(timestamp, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Cold segments that end before the cutoff are deleted; samples before the
+     * cutoff in a segment that is still needed are no longer returned, and are
+     * counted as removed.
+     *
+     * @throws UncheckedIOException if a cold segment file could not be deleted;
+     *                              the samples are evicted nonetheless
+     */
+    @Override
+    public int evictBefore(long cutoff) {
+        ColdSegment[] segments = cold;
+        int dropped = 0;
+        while (dropped < segments.length && segments[dropped].lastTimestamp() < cutoff) {
+            dropped++;
+        }
+        long floor = coldFloor;
+        int removed = 0;
+        if (cutoff > floor) {
+            for (ColdSegment segment : segments) {
+                removed += segment.countBefore(cutoff) - segment.countBefore(floor);
+            }
+        }
+        version++;
+        VarHandle.storeStoreFence();
+        if (dropped > 0) {
+            cold = Arrays.copyOfRange(segments, dropped, segments.length);
+        }
+        coldFloor = Math.max(coldFloor, cutoff);
+        removed += hot.evictBefore(cutoff);
+        version++;
+
+        IOException failure = null;
+        for (int i = 0; i < dropped; i++) {
+            try {
+                segments[i].delete();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Could not delete an evicted cold segment", failure);
+        }
+        return removed;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return hot.timestampAt(index);
+    }
+
+    @Override
+    public double valueAt(int index) {
+        return hot.valueAt(index);
+    }
+
+    @Override
+    public void copyRange(long startTime, long endTime, SampleBuffer target) {
+        int mark = target.size();
+        while (true) {
+            int expectedVersion = version;
+            if ((expectedVersion & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            ColdSegment[] segments = cold;
+            long from = Math.max(startTime, coldFloor);
+            try {
+                for (ColdSegment segment : segments) {
+                    segment.copyRange(from, endTime, target);
+                }
+            } catch (UncheckedIOException e) {
+                // the segment may have been evicted while it was being mapped
+                VarHandle.acquireFence();
+                if (version == expectedVersion) {
+                    throw e;
+                }
+                target.truncate(mark);
+                continue;
+            }
+            hot.copyRange(startTime, endTime, target);
+
+            VarHandle.acquireFence();
+            if (version == expectedVersion) {
+                if (segments.length > 0) {
+                    readSinceRelease = true;
+                    // late samples and overlapping segments are rare; sort only then
+                    target.sortFrom(mark);
+                }
+                return;
+            }
+            target.truncate(mark);
+        }
+    }
+
+    /**
+     * Returns whether a sample with the given timestamp lies in the range
+     * already moved to the cold tier.
+     */
+    boolean isCold(long timestamp) {
+        return timestamp <= coldThrough;
+    }
+
+    /**
+     * Returns whether the cold tier holds a sample with the given timestamp and
+     * value, or the sample is older than the evicted part of the cold tier. A
+     * late sample that arrived after its range was moved to the cold tier stays
+     * in the hot tier until the next move, so lying in the cold range alone
+     * does not mean the cold tier holds it.
+     */
+    boolean coldContains(long timestamp, double value) {
+        if (timestamp < coldFloor) {
+            return true;
+        }
+        SampleBuffer samples = new SampleBuffer();
+        for (ColdSegment segment : cold) {
+            segment.copyRange(timestamp, timestamp, samples);
+        }
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < samples.size(); i++) {
+            if (Double.doubleToLongBits(samples.valueAt(i)) == bits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds existing segments to the cold tier. Must only be called by the
+     * series' single writer.
+     */
+    void attach(List<ColdSegment> segments) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        List<ColdSegment> merged = new ArrayList<>(Arrays.asList(cold));
+        merged.addAll(segments);
+        merged.sort(Comparator.comparingLong(ColdSegment::firstTimestamp));
+        long through = coldThrough;
+        for (ColdSegment segment : segments) {
+            through = Math.max(through, segment.lastTimestamp());
+        }
+        version++;
+        VarHandle.storeStoreFence();
+        cold = merged.toArray(NO_SEGMENTS);
+        coldThrough = through;
+        version++;
+    }
+
+    /**
+     * Moves the hot samples before the cutoff into new segments of the store.
+     * The segments are written before readers can see them, and the samples
+     * leave the hot tier in the same step as the segments become visible. Must
+     * only be called by the series' single writer.
+     *
+     * @return the number of samples moved
+     */
+    int moveToCold(long cutoff, ColdStore store, int patientId) throws IOException {
+        if (cutoff == Long.MIN_VALUE) {
+            return 0;
+        }
+        SampleBuffer samples = new SampleBuffer();
+        hot.copyRange(Long.MIN_VALUE, cutoff - 1, samples);
+        if (samples.size() == 0) {
+            return 0;
+        }
+        List<ColdSegment> segments = store.write(patientId, getRecordTypeId(), samples);
+        List<ColdSegment> merged = new ArrayList<>(Arrays.asList(cold));
+        merged.addAll(segments);
+        merged.sort(Comparator.comparingLong(ColdSegment::firstTimestamp));
+
+        version++;
+        VarHandle.storeStoreFence();
+        cold = merged.toArray(NO_SEGMENTS);
+        coldThrough = Math.max(coldThrough, samples.timestampAt(samples.size() - 1));
+        hot.evictBefore(cutoff);
+        version++;
+        return samples.size();
+    }
+
+    /**
+     * Drops the mappings of the cold segments if none was read since the
+     * previous call, so that the cold data of a patient nobody looks at leaves
+     * memory.
+     *
+     * @return true if the mappings were dropped
+     */
+    boolean releaseIfIdle() {
+        if (readSinceRelease) {
+            readSinceRelease = false;
+            return false;
+        }
+        for (ColdSegment segment : cold) {
+            segment.release();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package com.data_management;
+
+/**
+ * Stores the samples of one record type for one patient in columnar form on
+ * the Java heap.
+ * Timestamps and values are kept in parallel primitive arrays that are split
+ * into fixed-size chunks, so the series grows without copying old samples and
+ * without allocating an object per sample.
+ * The samples are always kept in ascending timestamp order, which allows range
+ * bounds to be found with a binary search.
+ * <p>
+ * The chunks form a ring. When the series has a limited retention, samples
+ * older than the retention window are evicted from the head of the ring and
+ * their chunks are reused for new samples, so a series with a steady sample
+ * rate stops allocating once its window is full. See
+ * {@link AbstractSampleSeries} for how readers and the writer share the ring.
+ */
+public class TimeSeries extends AbstractSampleSeries {
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Ring ring;
+
+    /**
+     * Constructs an empty series for the given record type that keeps every
+     * sample.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the type of
+     *                     record stored in this series
+     */
+    public TimeSeries(int recordTypeId) {
+        this(recordTypeId, RetentionPolicy.UNLIMITED);
+    }
+
+    /**
+     * Constructs an empty series for the given record type that keeps samples
+     * for a limited time.
+     *
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the type of
+     *                     record stored in this series
+     * @param retention    how long samples are kept, in milliseconds, measured
+     *                     back from the newest sample; or
+     *                     {@link RetentionPolicy#UNLIMITED}
+     */
+    public TimeSeries(int recordTypeId, long retention) {
+        super(recordTypeId, retention, CHUNK_SHIFT);
+        this.ring = new Ring(1);
+    }
+
+    /**
+     * Returns the number of chunks allocated for this series, including empty
+     * chunks kept for reuse.
+     *
+     * @return the allocated chunk count
+     */
+    public int allocatedChunks() {
+        int count = 0;
+        for (long[] chunk : ring.timestamps) {
+            if (chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    void prepare(long sequence, long first) {
+        Ring current = ring;
+        long chunk = sequence >>> CHUNK_SHIFT;
+        long firstChunk = first >>> CHUNK_SHIFT;
+        if (chunk - firstChunk >= current.timestamps.length) {
+            current = current.grow(firstChunk, chunk);
+            ring = current;
+        }
+        int slot = (int) chunk & current.mask;
+        if (current.timestamps[slot] == null) {
+            current.timestamps[slot] = new long[CHUNK_SIZE];
+            current.values[slot] = new double[CHUNK_SIZE];
+        }
+    }
+
+    @Override
+    void store(long sequence, long timestamp, double value) {
+        Ring current = ring;
+        int slot = (int) (sequence >>> CHUNK_SHIFT) & current.mask;
+        current.timestamps[slot][(int) sequence & CHUNK_MASK] = timestamp;
+        current.values[slot][(int) sequence & CHUNK_MASK] = value;
+    }
+
+    @Override
+    long loadTimestamp(long sequence) {
+        Ring current = ring;
+        long[] chunk = current.timestamps[(int) (sequence >>> CHUNK_SHIFT) & current.mask];
+        return chunk != null ? chunk[(int) sequence & CHUNK_MASK] : 0L;
+    }
+
+    @Override
+    double loadValue(long sequence) {
+        Ring current = ring;
+        double[] chunk = current.values[(int) (sequence >>> CHUNK_SHIFT) & current.mask];
+        return chunk != null ? chunk[(int) sequence & CHUNK_MASK] : 0.0;
+    }
+
+    /**
+     * The chunk arrays of the ring. The number of slots is a power of two, so a
+     * sequence number maps to its slot with a mask. Growing creates a new ring
+     * and moves the live chunks into it; the old ring stays valid for readers
+     * that still hold it.
+     */
+    private static final class Ring {
+        final long[][] timestamps;
+        final double[][] values;
+        final int mask;
+
+        Ring(int slots) {
+            this.timestamps = new long[slots][];
+            this.values = new double[slots][];
+            this.mask = slots - 1;
+        }
+
+        Ring grow(long firstChunk, long lastChunk) {
+            int slots = timestamps.length * 2;
+            while (lastChunk - firstChunk >= slots) {
+                slots *= 2;
+            }
+            Ring grown = new Ring(slots);
+            for (long chunk = firstChunk; chunk < lastChunk; chunk++) {
+                int from = (int) chunk & mask;
+                int to = (int) chunk & grown.mask;
+                grown.timestamps[to] = timestamps[from];
+                grown.values[to] = values[from];
+            }
+            return grown;
+        }
+    }
+}
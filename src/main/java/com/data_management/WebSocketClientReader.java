@@ -5,22 +5,91 @@ import org.java_websocket.handshake.ServerHandshake;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * WebSocket client for receiving and storing data.
+ * The server may send text messages of one sample per line, or binary frames
+ * of many samples each (see {@link #onMessage(ByteBuffer)}).
+ * Messages are parsed on the client's I/O thread and handed to an
+ * {@link IngestWorker}, which stores them in batches on its own thread, so a
+ * slow storage never holds up the socket. When the worker's buffer is full,
+ * its {@link OverflowPolicy} decides whether the I/O thread waits or samples
+ * are dropped; see {@link #getDroppedCount()}.
+ * <p>
+ * The reader follows the sequence numbers of the server's stream. When the
+ * connection is lost and the reader reconnects, it asks the server to resume
+ * after the last message it received, so messages sent in the meantime are
+ * replayed as long as the server still holds them; any it no longer holds are
+ * counted by {@link #getMissedMessageCount()}.
+ * <p>
+ * Reconnection attempts run on a separate thread, since the client's own I/O
+ * thread may not start one, and back off exponentially from 100 milliseconds
+ * to 30 seconds while the server cannot be reached.
  */
 public class WebSocketClientReader extends WebSocketClient implements DataReader {
-    private DataStorage dataStorage;
+    private static final int DEFAULT_BUFFER_CAPACITY = 1 << 16;
+    private static final String RESUME_HEADER = "Resume-From";
+    private static final String STREAM_MESSAGE_PREFIX = "#stream ";
+    private static final long INITIAL_RECONNECT_DELAY_MILLIS = 100;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+
+    private AbstractDataStorage dataStorage;
+    private final int bufferCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private volatile IngestWorker ingestWorker;
+    private final SampleLineParser parser = new SampleLineParser();
+    private final SampleFrameDecoder frameDecoder = new SampleFrameDecoder();
+    private final SampleBatch received = new SampleBatch(512);
+    private final LongAdder malformedLines = new LongAdder();
+    private final LongAdder malformedFrames = new LongAdder();
+    // the position in the server's stream, updated on the client's I/O thread
+    private volatile long streamId = -1;
+    private volatile long nextSequence;
+    private final LongAdder missedMessages = new LongAdder();
+    // reconnects run here: the client's own threads may not start one
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "websocket-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
 
     /**
-     * Initializes a new WebSocketClientReader.
+     * Initializes a new WebSocketClientReader. Samples are buffered for the
+     * storage in a buffer of 65536 samples that blocks the I/O thread when
+     * full.
      *
      * @param serverUri   URI of the WebSocket server
      * @param dataStorage DataStorage instance for saving received data
      */
-    public WebSocketClientReader(URI serverUri, DataStorage dataStorage) {
+    public WebSocketClientReader(URI serverUri, AbstractDataStorage dataStorage) {
+        this(serverUri, dataStorage, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Initializes a new WebSocketClientReader with the given ingest buffer.
+     *
+     * @param serverUri      URI of the WebSocket server
+     * @param dataStorage    DataStorage instance for saving received data
+     * @param bufferCapacity the number of received samples that may wait for
+     *                       the storage
+     * @param overflowPolicy what to do with a sample when the buffer is full
+     */
+    public WebSocketClientReader(URI serverUri, AbstractDataStorage dataStorage, int bufferCapacity,
+            OverflowPolicy overflowPolicy) {
         super(serverUri); // Initialize the WebSocket client with the server URI
         this.dataStorage = dataStorage; // Store reference to DataStorage for later use
+        this.bufferCapacity = bufferCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.ingestWorker = new IngestWorker(dataStorage, bufferCapacity, overflowPolicy);
     }
 
     /**
@@ -31,47 +100,172 @@ public class WebSocketClientReader extends WebSocketClient implements DataReader
     @Override
     public void onOpen(ServerHandshake handshakedata) {
         System.out.println("Connected to the WebSocket server");
+        reconnecting.set(false);
     }
 
     /**
-     * Invoked when a message is received from the server.
+     * Invoked when a message is received from the server. A message holds one
+     * {@code patientId,value,recordType,timestamp} sample per line. The
+     * samples are queued for the ingest worker; malformed lines are skipped
+     * and counted.
      *
      * @param message the message received from the server
      */
     @Override
     public void onMessage(String message) {
-        System.out.println("Received message: " + message);
-        try {
-            // Validate and parse the message
-            String[] parts = message.split(",");
-            if (parts.length != 4) {
-                throw new IllegalArgumentException("Message format is invalid");
+        if (message.startsWith(STREAM_MESSAGE_PREFIX)) {
+            onStreamMessage(message);
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+        int length = bytes.limit();
+        int from = 0;
+        while (from < length) {
+            int to = from;
+            while (to < length && bytes.get(to) != '\n') {
+                to++;
+            }
+            if (!SampleLineParser.isBlank(bytes, from, to) && !parser.parse(bytes, from, to, received)) {
+                malformedLines.increment();
             }
+            from = to + 1;
+        }
+        submitReceived();
+        nextSequence++;
+    }
 
-            // Parse message components
-            int patientId = Integer.parseInt(parts[0].trim());
-            double measurementValue = Double.parseDouble(parts[1].trim());
-            String recordType = parts[2].trim();
-            long timestamp = Long.parseLong(parts[3].trim());
+    /**
+     * Invoked when a binary frame is received from the server, as sent by the
+     * simulator's WebSocket output with binary frames enabled. The frame's
+     * samples are queued for the ingest worker; a malformed frame is skipped
+     * and counted.
+     *
+     * @param bytes the frame received from the server
+     */
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        if (frameDecoder.decode(bytes, received) < 0) {
+            malformedFrames.increment();
+        } else {
+            submitReceived();
+        }
+        nextSequence++;
+    }
 
-            // Add parsed data to DataStorage
-            dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
+    /**
+     * Handles the {@code #stream <streamId> <sequence>} message the server
+     * sends when a connection opens, giving the sequence number of the next
+     * message. On a resumed connection, a sequence number past the one
+     * expected means the server no longer held the messages in between.
+     */
+    private void onStreamMessage(String message) {
+        String[] fields = message.substring(STREAM_MESSAGE_PREFIX.length()).trim().split(" ");
+        try {
+            long id = Long.parseLong(fields[0]);
+            long sequence = Long.parseLong(fields[1]);
+            if (id == streamId && sequence > nextSequence) {
+                missedMessages.add(sequence - nextSequence);
+            }
+            streamId = id;
+            nextSequence = sequence;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Invalid stream message: " + message);
+        }
+    }
 
-        } catch (NumberFormatException e) {
-            // Handle errors in number parsing
-            System.err.println("Error parsing numeric data: " + e.getMessage());
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            // Handle invalid message format errors
-            System.err.println("Invalid message received: " + e.getMessage());
-            e.printStackTrace();
-        } catch (Exception e) {
-            // Handle any other unexpected errors
-            System.err.println("Unexpected error: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Makes the next connection ask the server to resume after the last
+     * message received.
+     */
+    private void prepareResume() {
+        if (streamId >= 0) {
+            addHeader(RESUME_HEADER, streamId + ":" + (nextSequence - 1));
         }
     }
 
+    private void submitReceived() {
+        IngestWorker worker = ingestWorker;
+        for (int i = 0; i < received.size(); i++) {
+            worker.submit(received.patientIdAt(i), received.valueAt(i), received.recordTypeIdAt(i),
+                    received.timestampAt(i));
+        }
+        received.clear();
+    }
+
+    /**
+     * Waits until every sample received so far has been stored or dropped.
+     */
+    public void flush() {
+        ingestWorker.flush();
+    }
+
+    /**
+     * Returns the number of received samples dropped because the ingest
+     * buffer was full.
+     *
+     * @return the dropped sample count
+     */
+    public long getDroppedCount() {
+        return ingestWorker.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of malformed lines received.
+     *
+     * @return the malformed line count
+     */
+    public long getMalformedCount() {
+        return malformedLines.sum();
+    }
+
+    /**
+     * Returns the number of malformed binary frames received.
+     *
+     * @return the malformed frame count
+     */
+    public long getMalformedFrameCount() {
+        return malformedFrames.sum();
+    }
+
+    /**
+     * Returns the id of the server's stream, announced when the connection
+     * opens.
+     *
+     * @return the stream id, or -1 if no stream was announced yet
+     */
+    public long getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns the sequence number of the last message received from the
+     * server's stream.
+     *
+     * @return the sequence number, or 0 if no message was received
+     */
+    public long getLastSequence() {
+        return Math.max(0, nextSequence - 1);
+    }
+
+    /**
+     * Returns the number of messages lost across reconnections because the
+     * server no longer held them for replay.
+     *
+     * @return the missed message count
+     */
+    public long getMissedMessageCount() {
+        return missedMessages.sum();
+    }
+
+    /**
+     * Stores the samples still queued, stops the ingest worker and cancels
+     * any pending reconnection. Call this once the reader is no longer used.
+     */
+    public void stopIngest() {
+        reconnector.shutdownNow();
+        ingestWorker.close();
+    }
+
     /**
      * Invoked when the WebSocket connection is closed.
      *
@@ -82,16 +276,11 @@ public class WebSocketClientReader extends WebSocketClient implements DataReader
     @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("Connection closed with exit code " + code + " additional info: " + reason);
+        prepareResume();
 
         // Attempt to reconnect if the connection was closed remotely
         if (remote) {
-            System.out.println("Attempting to reconnect...");
-            try {
-                this.reconnect();
-            } catch (Exception e) {
-                System.err.println("Reconnection failed: " + e.getMessage());
-                e.printStackTrace();
-            }
+            scheduleReconnect();
         }
     }
 
@@ -106,11 +295,48 @@ public class WebSocketClientReader extends WebSocketClient implements DataReader
         ex.printStackTrace();
 
         // Attempt to reconnect in case of an error
+        scheduleReconnect();
+    }
+
+    /**
+     * Starts reconnecting on the reconnect thread, unless an attempt is
+     * already under way.
+     */
+    private void scheduleReconnect() {
+        if (!reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        System.out.println("Attempting to reconnect...");
         try {
-            this.reconnect();
+            reconnector.schedule(() -> attemptReconnect(INITIAL_RECONNECT_DELAY_MILLIS),
+                    INITIAL_RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            reconnecting.set(false); // the reader was stopped
+        }
+    }
+
+    private void attemptReconnect(long delayMillis) {
+        if (isOpen()) {
+            reconnecting.set(false);
+            return;
+        }
+        prepareResume();
+        try {
+            if (reconnectBlocking()) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reconnecting.set(false);
+            return;
         } catch (Exception e) {
             System.err.println("Reconnection failed: " + e.getMessage());
-            e.printStackTrace();
+        }
+        long nextDelay = Math.min(delayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        try {
+            reconnector.schedule(() -> attemptReconnect(nextDelay), nextDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            reconnecting.set(false);
         }
     }
 
@@ -122,7 +348,12 @@ public class WebSocketClientReader extends WebSocketClient implements DataReader
      * @throws IOException if an I/O error occurs
      */
     @Override
-    public void readData(URI serverUri, DataStorage dataStorage) throws IOException {
+    public void readData(URI serverUri, AbstractDataStorage dataStorage) throws IOException {
+        if (dataStorage != this.dataStorage) {
+            IngestWorker previous = ingestWorker;
+            ingestWorker = new IngestWorker(dataStorage, bufferCapacity, overflowPolicy);
+            previous.close();
+        }
         this.dataStorage = dataStorage;
 
         // Attempt to establish the connection
@@ -0,0 +1,475 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only, memory-mapped write-ahead log of the samples added to a
+ * {@link DataStorage}.
+ * <p>
+ * The log is a sequence of fixed-size segment files named
+ * {@code wal-<number>.log}. Each segment is mapped into memory, so an append is
+ * a few writes into the page cache and never a system call. A background
+ * thread forces dirty segments to disk at a fixed interval (group commit),
+ * which bounds how much data a crash can lose without paying for a sync per
+ * sample.
+ * <p>
+ * Records are binary. A sample takes 23 bytes: a tag byte, the patient id
+ * (int), the record type id (unsigned short), the timestamp (long) and the
+ * value (double). Because dictionary ids are only stable within one process,
+ * each segment declares the name of a record type the first time one of its
+ * samples uses it. The tag byte is written last, so a record cut off by a crash
+ * reads as the end of the segment.
+ * <p>
+ * Once the samples are safe elsewhere, e.g. in a snapshot, the log is
+ * shortened with {@link #checkpoint()} and {@link #truncate(long)}. The number
+ * of the last deleted segment is kept in a {@code wal.checkpoint} file, so
+ * segment numbers keep growing across restarts and a segment left behind by a
+ * crash during truncation is never replayed.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 100;
+
+    static final byte END = 0;
+    static final byte SAMPLE = 1;
+    static final byte RECORD_TYPE = 2;
+    static final int SAMPLE_BYTES = 1 + Integer.BYTES + Character.BYTES + Long.BYTES + Double.BYTES;
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "wal.checkpoint";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<Path> recoverableSegments;
+    private final ScheduledExecutorService committer;
+    private long segmentNumber;
+    private FileChannel channel;
+    private volatile MappedByteBuffer segment; // null until the first append
+    private volatile boolean dirty;
+    private boolean[] declaredTypes = new boolean[0];
+    private boolean closed;
+
+    private WriteAheadLog(Path directory, int segmentBytes, long commitIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        long truncatedThrough = readCheckpoint(directory);
+        this.recoverableSegments = listSegments(directory);
+        recoverableSegments.removeIf(path -> segmentNumber(path) <= truncatedThrough);
+        this.segmentNumber = recoverableSegments.isEmpty() ? truncatedThrough
+                : segmentNumber(recoverableSegments.get(recoverableSegments.size() - 1));
+
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the log in the given directory with the default segment size and
+     * commit interval. Segments already in the directory are kept for recovery;
+     * new records go to a new segment, created by the first append.
+     *
+     * @param directory the directory holding the segment files
+     * @return the opened log
+     * @throws IOException if the directory or a segment cannot be created
+     */
+    public static WriteAheadLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the log in the given directory.
+     *
+     * @param directory            the directory holding the segment files
+     * @param segmentBytes         the size of each segment file
+     * @param commitIntervalMillis how often dirty segments are forced to disk
+     * @return the opened log
+     * @throws IOException if the directory or a segment cannot be created
+     */
+    public static WriteAheadLog open(Path directory, int segmentBytes, long commitIntervalMillis)
+            throws IOException {
+        if (segmentBytes < 1024) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentBytes);
+        }
+        return new WriteAheadLog(directory, segmentBytes, commitIntervalMillis);
+    }
+
+    /**
+     * Appends a sample to the log. The sample becomes durable at the next group
+     * commit or call to {@link #sync()}.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordTypeId the {@link RecordTypeDictionary} id of the record type
+     * @param timestamp    the time of the measurement
+     * @param value        the measurement value
+     * @throws UncheckedIOException if a new segment cannot be created
+     */
+    public synchronized void append(int patientId, int recordTypeId, long timestamp, double value) {
+        checkOpen();
+        appendChecked(patientId, recordTypeId, timestamp, value);
+        dirty = true;
+    }
+
+    /**
+     * Appends a batch of samples given as columnar arrays, taking the log's
+     * lock once. If the batch does not fit the rest of the current segment, a
+     * new segment is started before the batch rather than while writing it.
+     *
+     * @param patientIds    the patient of each sample
+     * @param recordTypeIds the {@link RecordTypeDictionary} id of each sample's
+     *                      record type
+     * @param timestamps    the time of each sample
+     * @param values        the measurement value of each sample
+     * @param length        the number of samples, taken from the start of the
+     *                      arrays
+     * @throws UncheckedIOException if a new segment cannot be created
+     */
+    public synchronized void appendBatch(int[] patientIds, int[] recordTypeIds, long[] timestamps,
+            double[] values, int length) {
+        checkOpen();
+        if (length == 0) {
+            return;
+        }
+        if (segment == null || segment.remaining() <= batchBytes(recordTypeIds, length)) {
+            rollSegment();
+            if (segment.remaining() <= batchBytes(recordTypeIds, length)) {
+                // larger than a whole segment: roll wherever it is needed
+                for (int i = 0; i < length; i++) {
+                    appendChecked(patientIds[i], recordTypeIds[i], timestamps[i], values[i]);
+                }
+                dirty = true;
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            int recordTypeId = recordTypeIds[i];
+            if (!isDeclared(recordTypeId)) {
+                declareType(recordTypeId, typeName(recordTypeId));
+            }
+            writeSample(patientIds[i], recordTypeId, timestamps[i], values[i]);
+        }
+        dirty = true;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    /**
+     * Returns the number of bytes a batch takes, including the declarations of
+     * the record types the current segment has not declared yet.
+     */
+    private long batchBytes(int[] recordTypeIds, int length) {
+        long bytes = (long) length * SAMPLE_BYTES;
+        boolean[] counted = new boolean[RecordTypeDictionary.size()];
+        for (int i = 0; i < length; i++) {
+            int recordTypeId = recordTypeIds[i];
+            if (recordTypeId >= counted.length) {
+                counted = Arrays.copyOf(counted, recordTypeId + 1);
+            }
+            if (!counted[recordTypeId] && !isDeclared(recordTypeId)) {
+                counted[recordTypeId] = true;
+                bytes += 5 + typeName(recordTypeId).length;
+            }
+        }
+        return bytes;
+    }
+
+    private void appendChecked(int patientId, int recordTypeId, long timestamp, double value) {
+        byte[] typeName = isDeclared(recordTypeId) ? null : typeName(recordTypeId);
+        // one byte is always left free so the reader sees an END tag
+        int needed = SAMPLE_BYTES + (typeName == null ? 0 : 5 + typeName.length);
+        if (segment == null || segment.remaining() <= needed) {
+            rollSegment();
+            typeName = typeName(recordTypeId);
+        }
+        if (typeName != null) {
+            declareType(recordTypeId, typeName);
+        }
+        writeSample(patientId, recordTypeId, timestamp, value);
+    }
+
+    private void writeSample(int patientId, int recordTypeId, long timestamp, double value) {
+        MappedByteBuffer buffer = segment;
+        int position = buffer.position();
+        buffer.putInt(position + 1, patientId);
+        buffer.putChar(position + 5, (char) recordTypeId);
+        buffer.putLong(position + 7, timestamp);
+        buffer.putDouble(position + 15, value);
+        buffer.put(position, SAMPLE);
+        buffer.position(position + SAMPLE_BYTES);
+    }
+
+    /**
+     * Forces every appended record to disk.
+     */
+    public synchronized void sync() {
+        if (!closed && segment != null) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Replays the segments that existed when the log was opened into the given
+     * storage, in the order they were written.
+     *
+     * @param storage the storage to rebuild
+     * @return the number of samples recovered
+     * @throws IOException if a segment cannot be read
+     */
+    public long recover(DataStorage storage) throws IOException {
+        return recover(storage, 0, 0);
+    }
+
+    /**
+     * Replays the segments that existed when the log was opened into a storage
+     * restored from a snapshot, skipping what the snapshot already holds.
+     *
+     * @param storage            the storage to rebuild
+     * @param skipThrough        the last segment whose samples are all in the
+     *                           storage
+     * @param deduplicateThrough the last segment whose samples may be in the
+     *                           storage; their samples are only added if the
+     *                           storage does not hold them yet
+     * @return the number of samples recovered
+     * @throws IOException if a segment cannot be read
+     */
+    long recover(DataStorage storage, long skipThrough, long deduplicateThrough) throws IOException {
+        long recovered = 0;
+        for (Path path : recoverableSegments) {
+            long number = segmentNumber(path);
+            if (number > skipThrough) {
+                recovered += replaySegment(path, storage, number <= deduplicateThrough);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Deletes the segments that were recovered when the log was opened, e.g.
+     * after their contents have been written to a snapshot.
+     *
+     * @throws IOException if a segment cannot be deleted
+     */
+    public synchronized void deleteRecoveredSegments() throws IOException {
+        for (Path path : recoverableSegments) {
+            Files.deleteIfExists(path);
+        }
+        recoverableSegments.clear();
+    }
+
+    /**
+     * Ends the current segment: every record appended before the call is in a
+     * segment numbered at most the returned number, and every record appended
+     * afterwards in a later one.
+     *
+     * @return the number of the last segment written so far, or of the last
+     *         truncated one if nothing was appended since
+     * @throws IOException if the current segment cannot be closed
+     */
+    public synchronized long checkpoint() throws IOException {
+        checkOpen();
+        if (segment != null) {
+            segment.force();
+            channel.close();
+            segment = null;
+            dirty = false;
+        }
+        return segmentNumber;
+    }
+
+    /**
+     * Deletes the segments up to and including the given number, typically one
+     * returned by {@link #checkpoint()} before a snapshot was written. They are
+     * not recovered again, even if deleting one of them fails.
+     *
+     * @param throughSegment the number of the last segment to delete
+     * @throws IOException if the checkpoint file cannot be written or a segment
+     *                     cannot be deleted
+     */
+    public synchronized void truncate(long throughSegment) throws IOException {
+        checkOpen();
+        if (segment != null && throughSegment >= segmentNumber) {
+            throw new IllegalArgumentException("Segment " + segmentNumber + " is still being written");
+        }
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temporary, Long.toString(throughSegment).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        recoverableSegments.removeIf(path -> segmentNumber(path) <= throughSegment);
+        for (Path path : listSegments(directory)) {
+            if (segmentNumber(path) <= throughSegment) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Syncs the log and stops the group commit thread.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        committer.shutdown();
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+        closed = true;
+    }
+
+    private void commit() {
+        MappedByteBuffer current = segment;
+        if (dirty && current != null) {
+            dirty = false;
+            current.force();
+        }
+    }
+
+    private boolean isDeclared(int recordTypeId) {
+        return recordTypeId < declaredTypes.length && declaredTypes[recordTypeId];
+    }
+
+    private static byte[] typeName(int recordTypeId) {
+        if (recordTypeId > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Record type id does not fit the log format: " + recordTypeId);
+        }
+        return RecordTypeDictionary.nameOf(recordTypeId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void declareType(int recordTypeId, byte[] name) {
+        if (recordTypeId >= declaredTypes.length) {
+            declaredTypes = Arrays.copyOf(declaredTypes, Math.max(recordTypeId + 1, declaredTypes.length * 2));
+        }
+        MappedByteBuffer buffer = segment;
+        int position = buffer.position();
+        buffer.putChar(position + 1, (char) recordTypeId);
+        buffer.putChar(position + 3, (char) name.length);
+        for (int i = 0; i < name.length; i++) {
+            buffer.put(position + 5 + i, name[i]);
+        }
+        buffer.put(position, RECORD_TYPE);
+        buffer.position(position + 5 + name.length);
+        declaredTypes[recordTypeId] = true;
+    }
+
+    private void rollSegment() {
+        try {
+            if (segment != null) {
+                segment.force();
+                channel.close();
+            }
+            openNextSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll write-ahead log segment", e);
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentNumber++;
+        Path path = directory.resolve(String.format("%s%012d%s", PREFIX, segmentNumber, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        declaredTypes = new boolean[RecordTypeDictionary.size()];
+    }
+
+    private static long replaySegment(Path path, DataStorage storage, boolean deduplicate) throws IOException {
+        long recovered = 0;
+        int[] typeIds = new int[16]; // dictionary id of each logged type, or UNKNOWN until it is declared
+        Arrays.fill(typeIds, RecordTypeDictionary.UNKNOWN);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            while (buffer.hasRemaining()) {
+                byte tag = buffer.get();
+                if (tag == SAMPLE && buffer.remaining() >= SAMPLE_BYTES - 1) {
+                    int patientId = buffer.getInt();
+                    int loggedType = buffer.getChar();
+                    long timestamp = buffer.getLong();
+                    double value = buffer.getDouble();
+                    if (loggedType >= typeIds.length || typeIds[loggedType] == RecordTypeDictionary.UNKNOWN) {
+                        break; // corrupt: the type was never declared
+                    }
+                    if (deduplicate) {
+                        storage.restorePatientDataOnce(patientId, value, typeIds[loggedType], timestamp);
+                    } else {
+                        storage.restorePatientData(patientId, value, typeIds[loggedType], timestamp);
+                    }
+                    recovered++;
+                } else if (tag == RECORD_TYPE && buffer.remaining() >= 2 * Character.BYTES) {
+                    int loggedType = buffer.getChar();
+                    int nameLength = buffer.getChar();
+                    if (nameLength > buffer.remaining()) {
+                        break; // torn or corrupt declaration
+                    }
+                    byte[] name = new byte[nameLength];
+                    buffer.get(name);
+                    if (loggedType >= typeIds.length) {
+                        int oldLength = typeIds.length;
+                        typeIds = Arrays.copyOf(typeIds, Math.max(loggedType + 1, oldLength * 2));
+                        Arrays.fill(typeIds, oldLength, typeIds.length, RecordTypeDictionary.UNKNOWN);
+                    }
+                    typeIds[loggedType] = RecordTypeDictionary.idOf(new String(name, StandardCharsets.UTF_8));
+                } else {
+                    break;
+                }
+            }
+        }
+        return recovered;
+    }
+
+    private static long readCheckpoint(Path directory) throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt write-ahead log checkpoint: " + file, e);
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -11,18 +11,23 @@ import org.junit.jupiter.api.Test;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
 class AlertGeneratorTest {
-    private DataStorage dataStorageMock;
+    private DataStorage storage;
     private AlertGenerator generator;
 
     @BeforeEach
     void init() {
-        dataStorageMock = mock(DataStorage.class);
-        generator = new AlertGenerator(dataStorageMock);
+        storage = new DataStorage();
+        generator = new AlertGenerator(storage);
+    }
+
+    private void store(List<PatientRecord> records) {
+        for (PatientRecord record : records) {
+            storage.addPatientData(record.getPatientId(), record.getMeasurementValue(), record.getRecordTypeId(),
+                    record.getTimestamp());
+        }
     }
 
     @Test
@@ -30,7 +35,7 @@ class AlertGeneratorTest {
         Patient patientMock = mock(Patient.class);
         when(patientMock.getPatientId()).thenReturn(1);
         List<PatientRecord> records = List.of(new PatientRecord(1, 110.0, "ECG", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -44,7 +49,7 @@ class AlertGeneratorTest {
         Patient patientMock = mock(Patient.class);
         when(patientMock.getPatientId()).thenReturn(1);
         List<PatientRecord> records = List.of(new PatientRecord(1, 80.0, "HeartRate", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -56,7 +61,6 @@ class AlertGeneratorTest {
     void testNotAlertWhenNoRecords() {
         Patient patientMock = mock(Patient.class);
         when(patientMock.getPatientId()).thenReturn(1);
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(List.of());
 
         generator.evaluateData(patientMock);
 
@@ -70,7 +74,7 @@ class AlertGeneratorTest {
         when(patientMock.getPatientId()).thenReturn(1);
         List<PatientRecord> records = List
                 .of(new PatientRecord(1, 70.0, "SystolicPressure", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -84,7 +88,7 @@ class AlertGeneratorTest {
         Patient patientMock = mock(Patient.class);
         when(patientMock.getPatientId()).thenReturn(1);
         List<PatientRecord> records = List.of(new PatientRecord(1, 89.0, "Saturation", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -98,7 +102,7 @@ class AlertGeneratorTest {
         Patient patientMock = mock(Patient.class);
         when(patientMock.getPatientId()).thenReturn(1);
         List<PatientRecord> records = List.of(new PatientRecord(1, 2.0, "ECG", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -114,7 +118,7 @@ class AlertGeneratorTest {
         List<PatientRecord> records = List.of(
                 new PatientRecord(1, 105.0, "ECG", System.currentTimeMillis()),
                 new PatientRecord(1, 75.0, "SystolicPressure", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -131,7 +135,7 @@ class AlertGeneratorTest {
         List<PatientRecord> records = List.of(
                 new PatientRecord(1, 100.0, "HeartRate", System.currentTimeMillis()),
                 new PatientRecord(1, 140.0, "SystolicPressure", System.currentTimeMillis()));
-        when(dataStorageMock.getRecords(anyInt(), anyLong(), anyLong())).thenReturn(records);
+        store(records);
 
         generator.evaluateData(patientMock);
 
@@ -139,4 +143,40 @@ class AlertGeneratorTest {
         assertTrue(alerts.isEmpty());
     }
 
+    @Test
+    void testAlertForIncreasingPressureTrend() {
+        Patient patientMock = mock(Patient.class);
+        when(patientMock.getPatientId()).thenReturn(1);
+        long now = System.currentTimeMillis();
+        store(List.of(
+                new PatientRecord(1, 110.0, "SystolicPressure", now - 3000),
+                new PatientRecord(1, 125.0, "SystolicPressure", now - 2000),
+                new PatientRecord(1, 140.0, "SystolicPressure", now - 1000)));
+
+        generator.evaluateData(patientMock);
+
+        List<Alert> alerts = generator.getAlerts();
+        assertEquals(1, alerts.size());
+        assertEquals("Systolic Pressure Increasing Trend Alert", alerts.get(0).getCondition());
+    }
+
+    @Test
+    void testIrregularBeatOnlyForIrregularIntervals() {
+        Patient patientMock = mock(Patient.class);
+        when(patientMock.getPatientId()).thenReturn(1);
+        long now = System.currentTimeMillis();
+        for (int i = 10; i > 0; i--) {
+            store(List.of(new PatientRecord(1, 75.0, "ECG", now - i * 1000L)));
+        }
+
+        generator.evaluateData(patientMock);
+        assertTrue(generator.getAlerts().isEmpty());
+
+        store(List.of(new PatientRecord(1, 75.0, "ECG", now - 5500L)));
+        generator.evaluateData(patientMock);
+
+        List<Alert> alerts = generator.getAlerts();
+        assertEquals(1, alerts.size());
+        assertEquals("Irregular Beat Alert", alerts.get(0).getCondition());
+    }
 }
@@ -0,0 +1,209 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+import com.data_management.Rollup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class ColdTierTest {
+    private static final long HOUR = 3_600_000L;
+    private static final long START = 1714376789050L;
+
+    private Path coldDirectory;
+    private Path logDirectory;
+
+    @BeforeEach
+    void init() throws IOException {
+        coldDirectory = Files.createTempDirectory("cold");
+        logDirectory = Files.createTempDirectory("wal");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        for (Path directory : List.of(coldDirectory, logDirectory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(file -> {
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                });
+            }
+        }
+    }
+
+    private static long segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(p -> p.toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    void queriesMergeColdAndHotSamples() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.openColdTier(coldDirectory, 24 * HOUR);
+        for (int i = 0; i < 72; i++) {
+            storage.addPatientData(1, i, "SystolicPressure", START + i * HOUR);
+            storage.addPatientData(1, 100 - i, "Saturation", START + i * HOUR + 1);
+        }
+
+        assertEquals(94, storage.moveToColdTier(START + 71 * HOUR));
+        assertEquals(2, segmentFiles(coldDirectory));
+        assertEquals(25, storage.getAllPatients().get(0).getSeries(
+                storage.getLatestRecord(1, "Saturation").getRecordTypeId()).size());
+
+        List<PatientRecord> records = storage.getRecords(1, START, START + 100 * HOUR);
+        assertEquals(144, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+        List<PatientRecord> systolic = storage.getRecords(1, "SystolicPressure", START + 40 * HOUR,
+                START + 50 * HOUR);
+        assertEquals(11, systolic.size());
+        assertEquals(40.0, systolic.get(0).getMeasurementValue());
+
+        List<Rollup> rollups = storage.getRollups(1, "SystolicPressure", START, START + 100 * HOUR, 1000L);
+        assertEquals(72, rollups.size());
+    }
+
+    @Test
+    void lateSampleIsMergedInOrder() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.openColdTier(coldDirectory, HOUR);
+        for (int i = 0; i < 10; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * HOUR);
+        }
+        storage.moveToColdTier(START + 9 * HOUR);
+        storage.addPatientData(1, -1.0, "ECG", START + HOUR / 2);
+
+        List<PatientRecord> records = storage.getRecords(1, "ECG", START, START + 10 * HOUR);
+        assertEquals(11, records.size());
+        assertEquals(-1.0, records.get(1).getMeasurementValue());
+
+        storage.moveToColdTier(START + 9 * HOUR);
+        assertEquals(11, storage.getRecords(1, "ECG", START, START + 10 * HOUR).size());
+        assertEquals(2, segmentFiles(coldDirectory));
+    }
+
+    @Test
+    void coldDataSurvivesRestartWithoutDuplicates() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.openColdTier(coldDirectory, 10 * HOUR);
+        storage.openWriteAheadLog(logDirectory);
+        for (int i = 0; i < 48; i++) {
+            storage.addPatientData(3, i, "Saturation", START + i * HOUR);
+        }
+        storage.moveToColdTier(START + 47 * HOUR);
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        assertEquals(1, restarted.openColdTier(coldDirectory, 10 * HOUR));
+        restarted.openWriteAheadLog(logDirectory);
+
+        List<PatientRecord> records = restarted.getRecords(3, START, START + 48 * HOUR);
+        assertEquals(48, records.size());
+        assertEquals(47.0, restarted.getLatestRecord(3, "Saturation").getMeasurementValue());
+        restarted.closeWriteAheadLog();
+    }
+
+    @Test
+    void lateColdRangeSampleSurvivesRestart() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.openColdTier(coldDirectory, HOUR);
+        storage.openWriteAheadLog(logDirectory);
+        for (int i = 0; i < 10; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * HOUR);
+        }
+        storage.moveToColdTier(START + 9 * HOUR);
+        storage.addPatientData(1, -1.0, "ECG", START + HOUR / 2); // in the cold range, kept hot
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        restarted.openColdTier(coldDirectory, HOUR);
+        restarted.openWriteAheadLog(logDirectory);
+        restarted.closeWriteAheadLog();
+
+        List<PatientRecord> records = restarted.getRecords(1, "ECG", START, START + 10 * HOUR);
+        assertEquals(11, records.size());
+        assertEquals(-1.0, records.get(1).getMeasurementValue());
+    }
+
+    @Test
+    void retentionDeletesExpiredSegments() throws IOException {
+        DataStorage storage = new DataStorage(new RetentionPolicy(48 * HOUR));
+        storage.openColdTier(coldDirectory, HOUR);
+        for (int i = 0; i < 24; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * HOUR);
+            storage.moveToColdTier(START + i * HOUR);
+        }
+        assertEquals(22, segmentFiles(coldDirectory));
+
+        storage.evictExpired(START + 60 * HOUR);
+        assertEquals(10, segmentFiles(coldDirectory));
+        assertEquals(12, storage.getRecords(1, "ECG", START, START + 100 * HOUR).size());
+    }
+
+    @Test
+    void evictionWithinASegmentIsCountedAndInvalidatesTheCache() throws IOException {
+        DataStorage storage = new DataStorage(new RetentionPolicy(48 * HOUR));
+        storage.openColdTier(coldDirectory, HOUR);
+        storage.setQueryCacheBudget(1 << 20);
+        for (int i = 0; i < 24; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * HOUR);
+        }
+        assertEquals(22, storage.moveToColdTier(START + 23 * HOUR));
+        assertEquals(1, segmentFiles(coldDirectory));
+        assertEquals(24, storage.getRecords(1, "ECG", START, START + 100 * HOUR).size());
+
+        assertEquals(12, storage.evictExpired(START + 60 * HOUR));
+        assertEquals(1, segmentFiles(coldDirectory));
+        List<PatientRecord> records = storage.getRecords(1, "ECG", START, START + 100 * HOUR);
+        assertEquals(12, records.size());
+        assertEquals(12.0, records.get(0).getMeasurementValue());
+        assertEquals(0, storage.evictExpired(START + 60 * HOUR));
+    }
+
+    @Test
+    void failedSegmentDeleteIsReported() throws IOException {
+        DataStorage storage = new DataStorage(new RetentionPolicy(48 * HOUR));
+        storage.openColdTier(coldDirectory, HOUR);
+        for (int i = 0; i < 24; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * HOUR);
+            storage.moveToColdTier(START + i * HOUR);
+        }
+        Path oldest;
+        try (Stream<Path> paths = Files.walk(coldDirectory)) {
+            oldest = paths.filter(p -> p.toString().endsWith(".seg"))
+                    .min(Comparator.comparingLong(p -> Long.parseLong(p.getFileName().toString().replace(".seg", ""))))
+                    .get();
+        }
+        // a non-empty directory in place of the file cannot be deleted
+        Files.delete(oldest);
+        Files.createDirectory(oldest);
+        Files.createFile(oldest.resolve("pinned"));
+
+        assertThrows(UncheckedIOException.class, () -> storage.evictExpired(START + 60 * HOUR));
+        assertEquals(11, segmentFiles(coldDirectory));
+        assertEquals(12, storage.getRecords(1, "ECG", START, START + 100 * HOUR).size());
+    }
+
+    @Test
+    void coldTierMustBeOpenedBeforeData() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 1.0, "ECG", START);
+
+        assertThrows(IllegalStateException.class, () -> storage.openColdTier(coldDirectory, HOUR));
+    }
+}
@@ -0,0 +1,109 @@
+package data_management;
+
+import com.data_management.CompressedSeries;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.SampleBuffer;
+import com.data_management.TimeSeries;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Compares the resident memory and full-range read time of one million samples
+ * kept as a list of PatientRecord objects, as a {@link TimeSeries} and as a
+ * {@link CompressedSeries}. Not run as part of the test suite; run the main
+ * method with e.g. {@code -Xmx1g}.
+ */
+public class CompressedSeriesBenchmark {
+    private static final int SAMPLES = 1_000_000;
+    private static final long START = 1714376789050L;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        // saturation: whole percentages that change every few seconds
+        run("Saturation", i -> 95 + (i / 7) % 5);
+        // ECG: a sinusoid quantized to millivolts, sampled every 4 ms
+        run("ECG", i -> Math.round(1000 * (0.5 * Math.sin(i * 0.05) + 0.02 * random.nextGaussian())) / 1000.0);
+    }
+
+    private static void run(String recordType, IntToDoubleFunction signal) {
+        int typeId = RecordTypeDictionary.idOf(recordType);
+        System.out.println(recordType + ", " + SAMPLES + " samples");
+
+        long before = usedMemory();
+        List<PatientRecord> records = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            records.add(new PatientRecord(1, signal.applyAsDouble(i), typeId, START + i * 4L));
+        }
+        report("PatientRecord list", usedMemory() - before, () -> {
+            double sum = 0;
+            for (PatientRecord record : records) {
+                sum += record.getMeasurementValue();
+            }
+            return sum;
+        });
+
+        before = usedMemory();
+        TimeSeries plain = new TimeSeries(typeId);
+        for (int i = 0; i < SAMPLES; i++) {
+            plain.append(START + i * 4L, signal.applyAsDouble(i));
+        }
+        report("TimeSeries", usedMemory() - before, () -> sum(plain::copyRange));
+
+        before = usedMemory();
+        CompressedSeries compressed = new CompressedSeries(typeId);
+        for (int i = 0; i < SAMPLES; i++) {
+            compressed.append(START + i * 4L, signal.applyAsDouble(i));
+        }
+        report("CompressedSeries", usedMemory() - before, () -> sum(compressed::copyRange));
+        System.out.println("  (compressed blocks: " + compressed.sizeInBytes() / 1024 + " KiB)");
+
+        // keep the structures reachable until they have been measured
+        if (records.size() + plain.size() + compressed.size() == 0) {
+            System.out.println();
+        }
+    }
+
+    private interface RangeCopy {
+        void copy(long startTime, long endTime, SampleBuffer target);
+    }
+
+    private interface Scan {
+        double run();
+    }
+
+    private static double sum(RangeCopy series) {
+        SampleBuffer buffer = new SampleBuffer(SAMPLES);
+        series.copy(Long.MIN_VALUE, Long.MAX_VALUE, buffer);
+        double sum = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            sum += buffer.valueAt(i);
+        }
+        return sum;
+    }
+
+    private static void report(String name, long bytes, Scan scan) {
+        double result = 0;
+        for (int i = 0; i < 5; i++) {
+            result += scan.run(); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            result += scan.run();
+        }
+        long micros = (System.nanoTime() - start) / 10_000;
+        System.out.printf("  %-20s %6.1f bytes/sample, full scan %6d us (%s)%n", name,
+                (double) bytes / SAMPLES, micros, result == 0 ? "-" : "ok");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
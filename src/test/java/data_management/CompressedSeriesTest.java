@@ -0,0 +1,118 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.CompressedSeries;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.RetentionPolicy;
+import com.data_management.SampleBuffer;
+import com.data_management.SeriesFactory;
+
+import java.util.List;
+import java.util.Random;
+
+class CompressedSeriesTest {
+    private CompressedSeries series;
+
+    @BeforeEach
+    void init() {
+        series = new CompressedSeries(RecordTypeDictionary.idOf("ECG"));
+    }
+
+    @Test
+    void irregularSamplesRoundTrip() {
+        Random random = new Random(42);
+        long[] timestamps = new long[5000];
+        double[] values = new double[5000];
+        long t = -1_000_000L;
+        for (int i = 0; i < timestamps.length; i++) {
+            t += i % 97 == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(3000);
+            timestamps[i] = t;
+            values[i] = i % 11 == 0 ? Double.NaN : i % 7 == 0 ? values[Math.max(0, i - 1)] : random.nextGaussian() * 1e6;
+            series.append(timestamps[i], values[i]);
+        }
+
+        assertTrue(series.sealedBlocks() >= 4);
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(Long.MIN_VALUE, Long.MAX_VALUE, buffer);
+        assertEquals(timestamps.length, buffer.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], buffer.timestampAt(i));
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(buffer.valueAt(i)));
+            assertEquals(timestamps[i], series.timestampAt(i));
+            assertEquals(values[i], series.valueAt(i));
+        }
+    }
+
+    @Test
+    void regularSignalCompressesWell() {
+        for (int i = 0; i < 100_000; i++) {
+            series.append(1714376789050L + i * 1000L, 95.0 + (i / 50) % 5);
+        }
+
+        assertTrue(series.sizeInBytes() < 100_000L * 16 / 10);
+    }
+
+    @Test
+    void copyRangeIsInclusive() {
+        for (int i = 0; i < 3000; i++) {
+            series.append(i * 10L, i);
+        }
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(10_000L, 20_470L, buffer);
+
+        assertEquals(1048, buffer.size());
+        assertEquals(1000.0, buffer.valueAt(0));
+        assertEquals(20_470L, buffer.timestampAt(1047));
+    }
+
+    @Test
+    void lateSampleIsInsertedIntoSealedBlock() {
+        for (int i = 0; i < 3000; i++) {
+            series.append(i * 10L, i);
+        }
+        series.append(505L, -1.0);
+        series.append(500L, -2.0); // goes after the existing sample at 500
+
+        assertEquals(3002, series.size());
+        assertEquals(500L, series.timestampAt(50));
+        assertEquals(-2.0, series.valueAt(51));
+        assertEquals(505L, series.timestampAt(52));
+        assertEquals(510L, series.timestampAt(53));
+        assertEquals(29_990L, series.timestampAt(3001));
+    }
+
+    @Test
+    void retentionSkipsAndDropsBlocks() {
+        CompressedSeries bounded = new CompressedSeries(RecordTypeDictionary.idOf("ECG"), 2000L);
+        for (long t = 0; t < 500_000; t++) {
+            bounded.append(t, t);
+        }
+
+        assertEquals(2001, bounded.size());
+        assertEquals(497_999L, bounded.timestampAt(0));
+        assertTrue(bounded.sealedBlocks() <= 3);
+        assertEquals(3, bounded.evictBefore(498_002L));
+        SampleBuffer buffer = new SampleBuffer();
+        bounded.copyRange(0L, Long.MAX_VALUE, buffer);
+        assertEquals(1998, buffer.size());
+        assertEquals(498_002L, buffer.timestampAt(0));
+    }
+
+    @Test
+    void dataStorageContractIsUnchanged() {
+        DataStorage storage = new DataStorage(RetentionPolicy.unlimited(), SeriesFactory.compressed());
+        for (int i = 0; i < 2500; i++) {
+            storage.addPatientData(1, i, "Saturation", 1714376789050L + i);
+        }
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1714376789060L);
+
+        List<PatientRecord> records = storage.getRecords(1, 1714376789055L, 1714376789060L);
+        assertEquals(7, records.size());
+        assertEquals(1, records.stream().filter(r -> r.getRecordType().equals("SystolicPressure")).count());
+    }
+}
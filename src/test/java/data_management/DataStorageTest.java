@@ -5,8 +5,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import com.data_management.DataStorage;
+import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.PopulationAggregate;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.RetentionPolicy;
+import com.data_management.SampleBatch;
 
+import java.util.ArrayList;
 import java.util.List;
 
 class DataStorageTest {
@@ -27,4 +33,159 @@ class DataStorageTest {
         assertEquals(2, records.size()); // Check if two records are retrieved
         assertEquals(100.0, records.get(0).getMeasurementValue()); // Validate first record
     }
+
+    @Test
+    void testGetRecordsOfSingleType() {
+        storage.addPatientData(1, 100.0, "WhiteBloodCells", 1714376789050L);
+        storage.addPatientData(1, 7.0, "RedBloodCells", 1714376789051L);
+
+        List<PatientRecord> records = storage.getRecords(1, "RedBloodCells", 1714376789050L, 1714376789051L);
+        assertEquals(1, records.size());
+        assertEquals(7.0, records.get(0).getMeasurementValue());
+        assertTrue(storage.getRecords(2, "RedBloodCells", 1714376789050L, 1714376789051L).isEmpty());
+    }
+
+    @Test
+    void testRetentionPolicyLimitsHistory() {
+        DataStorage bounded = new DataStorage(new RetentionPolicy(60000L).withRetention("Saturation", 1000L));
+        bounded.addPatientData(1, 97.0, "Saturation", 1714376780000L);
+        bounded.addPatientData(1, 120.0, "SystolicPressure", 1714376780000L);
+        bounded.addPatientData(1, 96.0, "Saturation", 1714376780500L);
+        bounded.addPatientData(1, 95.0, "Saturation", 1714376789000L); // evicts the older saturation records
+
+        assertEquals(2, bounded.getRecords(1, 1714376700000L, 1714376799000L).size());
+        assertEquals(1, bounded.evictExpired(1714376790500L));
+        assertEquals(1, bounded.getRecords(1, 1714376700000L, 1714376799000L).size());
+    }
+
+    @Test
+    void testPatientsWithSparseAndNegativeIds() {
+        int[] ids = { 1, 2, 70000, -5, Integer.MAX_VALUE, Integer.MIN_VALUE, 3 };
+        for (int round = 0; round < 2; round++) {
+            for (int id : ids) {
+                storage.addPatientData(id, id, "HeartRate", 1714376789050L + round);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(100000 + i * 7919, 1.0, "HeartRate", 1714376789050L);
+        }
+
+        for (int id : ids) {
+            List<PatientRecord> records = storage.getRecords(id, 1714376789050L, 1714376789051L);
+            assertEquals(2, records.size());
+            assertEquals((double) id, records.get(1).getMeasurementValue());
+        }
+        assertTrue(storage.getRecords(4, 0L, Long.MAX_VALUE).isEmpty());
+        assertEquals(1007, storage.getAllPatients().size());
+    }
+
+    @Test
+    void testGetAllPatientsIsStableView() {
+        storage.addPatientData(2, 1.0, "HeartRate", 1714376789050L);
+        storage.addPatientData(1, 1.0, "HeartRate", 1714376789050L);
+        List<Patient> patients = storage.getAllPatients();
+        storage.addPatientData(3, 1.0, "HeartRate", 1714376789050L);
+
+        assertEquals(2, patients.size());
+        assertEquals(2, patients.get(0).getPatientId());
+        assertEquals(1, patients.get(1).getPatientId());
+        assertThrows(UnsupportedOperationException.class, () -> patients.remove(0));
+        assertEquals(3, storage.getAllPatients().size());
+    }
+
+    @Test
+    void testForEachStreamsSamplesInEitherOrder() {
+        for (int i = 0; i < 5; i++) {
+            storage.addPatientData(1, 90.0 + i, "Saturation", 1714376789050L + i);
+        }
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1714376789052L);
+
+        List<Double> ascending = new ArrayList<>();
+        assertEquals(3, storage.forEach(1, "Saturation", 1714376789051L, 1714376789053L,
+                (timestamp, value) -> ascending.add(value)));
+        assertEquals(List.of(91.0, 92.0, 93.0), ascending);
+
+        List<Long> descending = new ArrayList<>();
+        assertEquals(5, storage.forEach(1, RecordTypeDictionary.idOf("Saturation"), 0L, Long.MAX_VALUE, true,
+                (timestamp, value) -> descending.add(timestamp)));
+        assertEquals(1714376789054L, descending.get(0));
+        assertEquals(1714376789050L, descending.get(4));
+
+        assertEquals(0, storage.forEach(2, "Saturation", 0L, Long.MAX_VALUE, (timestamp, value) -> fail()));
+        assertEquals(0, storage.forEach(1, "NoSuchType", 0L, Long.MAX_VALUE, (timestamp, value) -> fail()));
+    }
+
+    @Test
+    void testPopulationAggregateMatchesSequentialLoop() {
+        for (int id = 1; id <= 5000; id++) {
+            for (int i = 0; i < 10; i++) {
+                storage.addPatientData(id, 90.0 + (id * 7 + i) % 10, "Saturation", 1714376789050L + i * 1000L);
+            }
+            storage.addPatientData(id, id % 50 == 0 ? 170.0 : 120.0, "SystolicPressure", 1714376789050L);
+        }
+
+        double sum = 0;
+        for (Patient patient : storage.getAllPatients()) {
+            for (PatientRecord record : patient.getRecords("Saturation", 1714376791050L, 1714376795050L)) {
+                sum += record.getMeasurementValue();
+            }
+        }
+        PopulationAggregate saturation = storage.aggregate("Saturation", 1714376791050L, 1714376795050L);
+        assertEquals(5000, saturation.getPatientCount());
+        assertEquals(25000, saturation.getSampleCount());
+        assertEquals(sum, saturation.getSum(), 1e-6);
+        assertEquals(sum / 25000, saturation.getMean(), 1e-9);
+        assertEquals(90.0, saturation.getMin());
+        assertEquals(99.0, saturation.getMax());
+
+        PopulationAggregate hypertensive = storage.aggregate("SystolicPressure", 0L, Long.MAX_VALUE, v -> v > 160);
+        assertEquals(100, hypertensive.getMatchingPatientCount());
+        assertEquals(0, storage.aggregate("NoSuchType", 0L, Long.MAX_VALUE).getPatientCount());
+    }
+
+    @Test
+    void testLatestValueIndex() {
+        storage.addPatientData(1, 97.0, "Saturation", 1714376789050L);
+        storage.addPatientData(1, 95.0, "Saturation", 1714376789060L);
+        storage.addPatientData(1, 99.0, "Saturation", 1714376789055L); // late, not the latest
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1714376789000L);
+        storage.addPatientData(2, 80.0, "DiastolicPressure", 1714376789000L);
+
+        PatientRecord latest = storage.getLatestRecord(1, "Saturation");
+        assertEquals(95.0, latest.getMeasurementValue());
+        assertEquals(1714376789060L, latest.getTimestamp());
+        assertNull(storage.getLatestRecord(1, "DiastolicPressure"));
+        assertNull(storage.getLatestRecord(3, "Saturation"));
+        assertEquals(2, storage.getLatestRecords(1).size());
+
+        List<String> ward = new ArrayList<>();
+        storage.forEachLatest((patientId, recordTypeId, timestamp, value) -> ward
+                .add(patientId + ":" + RecordTypeDictionary.nameOf(recordTypeId) + "=" + value));
+        assertEquals(3, ward.size());
+        assertTrue(ward.contains("1:Saturation=95.0"));
+        assertTrue(ward.contains("2:DiastolicPressure=80.0"));
+    }
+
+    @Test
+    void testAddBatchGroupsByPatientInArrivalOrder() {
+        int ecg = RecordTypeDictionary.idOf("ECG");
+        int saturation = RecordTypeDictionary.idOf("Saturation");
+        SampleBatch batch = new SampleBatch(2);
+        batch.add(2, 0.5, ecg, 1714376789050L);
+        batch.add(1, 97.0, saturation, 1714376789050L);
+        batch.add(2, 0.7, ecg, 1714376789060L);
+        batch.add(-4, 1.0, ecg, 1714376789000L);
+        batch.add(2, 0.6, ecg, 1714376789055L); // late
+        storage.addBatch(batch);
+
+        List<PatientRecord> records = storage.getRecords(2, 0L, Long.MAX_VALUE);
+        assertEquals(3, records.size());
+        assertEquals(0.5, records.get(0).getMeasurementValue());
+        assertEquals(0.6, records.get(1).getMeasurementValue());
+        assertEquals(0.7, records.get(2).getMeasurementValue());
+        assertEquals(97.0, storage.getLatestRecord(1, "Saturation").getMeasurementValue());
+        assertEquals(1, storage.getRecords(-4, 0L, Long.MAX_VALUE).size());
+        assertThrows(IllegalArgumentException.class,
+                () -> storage.addBatch(new int[1], new int[1], new long[1], new double[1], 2));
+    }
 }
@@ -0,0 +1,103 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.PatientRecord;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares the lines per second of the line-at-a-time reader that splits every
+ * line into Strings and builds a PatientRecord per sample, with
+ * {@link FileDataReader} decoding memory-mapped bytes sequentially and in
+ * parallel. The parallel reader is also run on a file holding only two
+ * patients, whose ranges must be stored in file order to avoid late inserts.
+ * Not run as part of the test suite; run the main method with e.g.
+ * {@code -Xmx2g}.
+ */
+public class FileDataReaderBenchmark {
+    private static final int LINES = 5_000_000;
+    private static final long START = 1714376789050L;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("reader-benchmark");
+        Path fewPatients = Files.createTempDirectory("reader-benchmark-few");
+        try {
+            Path file = directory.resolve("data.txt");
+            write(file, 1000);
+            write(fewPatients.resolve("data.txt"), 2);
+            System.out.println(LINES + " lines, " + Files.size(file) / (1 << 20) + " MiB");
+
+            for (int round = 0; round < 3; round++) { // the first rounds warm up
+                report("split and PatientRecord", () -> readWithSplit(file, new DataStorage()));
+                report("mapped, 1 thread", () -> new FileDataReader(directory.toString()).readData(new DataStorage()));
+                int cores = Runtime.getRuntime().availableProcessors();
+                report("mapped, " + cores + " threads", () -> new FileDataReader(directory.toString(), cores,
+                        8L << 20).readData(new DataStorage()));
+                report("2 patients, " + cores + " threads", () -> new FileDataReader(fewPatients.toString(), cores,
+                        8L << 20).readData(new DataStorage()));
+            }
+        } finally {
+            delete(directory);
+            delete(fewPatients);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void write(Path file, int patients) throws IOException {
+        Random random = new Random(1);
+        String[] types = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure" };
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < LINES; i++) {
+                int type = i % types.length;
+                double value = type == 0 ? random.nextGaussian() : 60 + random.nextInt(100);
+                writer.write((i % patients) + "," + value + "," + types[type] + "," + (START + i));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * The reader as it was before lines were decoded from bytes.
+     */
+    private static void readWithSplit(Path file, DataStorage storage) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                try {
+                    PatientRecord record = new PatientRecord(Integer.parseInt(parts[0].trim()),
+                            Double.parseDouble(parts[1].trim()), parts[2].trim(), Long.parseLong(parts[3].trim()));
+                    storage.addPatientData(record.getPatientId(), record.getMeasurementValue(),
+                            record.getRecordType(), record.getTimestamp());
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private interface Load {
+        void run() throws IOException;
+    }
+
+    private static void report(String name, Load load) throws IOException {
+        System.gc();
+        long start = System.nanoTime();
+        load.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %-24s %8.0f ms, %6.2f M lines/s%n", name, seconds * 1000, LINES / seconds / 1e6);
+    }
+}
@@ -6,24 +6,26 @@ import org.junit.jupiter.api.AfterEach;
 
 import com.data_management.DataStorage;
 import com.data_management.FileDataReader;
+import com.data_management.PatientRecord;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.*;
 
 class FileDataReaderTest {
-    private DataStorage dataStorageMock;
+    private DataStorage dataStorage;
     private FileDataReader dataReader;
     private Path tempDirectory;
 
     @BeforeEach
     void init() throws IOException {
-        dataStorageMock = mock(DataStorage.class);
+        dataStorage = new DataStorage();
         tempDirectory = Files.createTempDirectory("tempDir");
         dataReader = new FileDataReader(tempDirectory.toString());
     }
@@ -39,15 +41,22 @@ class FileDataReaderTest {
                 });
     }
 
+    private static void assertRecord(List<PatientRecord> records, double value, String recordType, long timestamp) {
+        assertEquals(1, records.size());
+        assertEquals(value, records.get(0).getMeasurementValue());
+        assertEquals(recordType, records.get(0).getRecordType());
+        assertEquals(timestamp, records.get(0).getTimestamp());
+    }
+
     @Test
     void readDataWithValidDirectory() throws IOException {
         Path tempFile = Files.createFile(tempDirectory.resolve("data.txt"));
         Files.write(tempFile, List.of("1,100.0,HeartRate,1714376788030", "2,120.0,BloodPressure,1714376788031"));
 
-        dataReader.readData(dataStorageMock);
+        dataReader.readData(dataStorage);
 
-        verify(dataStorageMock, times(1)).addPatientData(1, 100.0, "HeartRate", 1714376788030L);
-        verify(dataStorageMock, times(1)).addPatientData(2, 120.0, "BloodPressure", 1714376788031L);
+        assertRecord(dataStorage.getRecords(1, 0L, Long.MAX_VALUE), 100.0, "HeartRate", 1714376788030L);
+        assertRecord(dataStorage.getRecords(2, 0L, Long.MAX_VALUE), 120.0, "BloodPressure", 1714376788031L);
     }
 
     @Test
@@ -55,7 +64,7 @@ class FileDataReaderTest {
         Path invalidDir = Paths.get("invalidDir");
 
         Exception exception = assertThrows(IllegalArgumentException.class, () -> {
-            new FileDataReader(invalidDir.toString()).readData(dataStorageMock);
+            new FileDataReader(invalidDir.toString()).readData(dataStorage);
         });
 
         assertEquals("Specified path is not a directory: invalidDir", exception.getMessage());
@@ -66,10 +75,11 @@ class FileDataReaderTest {
         Path tempFile = Files.createTempFile(tempDirectory, "data", ".txt");
         Files.write(tempFile, List.of("1,100.0,HeartRate", "2,120.0,BloodPressure,1714376788031"));
 
-        dataReader.parseFile(tempFile.toFile(), dataStorageMock);
+        dataReader.parseFile(tempFile.toFile(), dataStorage);
 
-        verify(dataStorageMock, never()).addPatientData(eq(1), anyDouble(), anyString(), anyLong());
-        verify(dataStorageMock, times(1)).addPatientData(2, 120.0, "BloodPressure", 1714376788031L);
+        assertTrue(dataStorage.getRecords(1, 0L, Long.MAX_VALUE).isEmpty());
+        assertRecord(dataStorage.getRecords(2, 0L, Long.MAX_VALUE), 120.0, "BloodPressure", 1714376788031L);
+        assertEquals(1, dataReader.getMalformedLineCount());
     }
 
     @Test
@@ -77,9 +87,127 @@ class FileDataReaderTest {
         Path tempFile = Files.createTempFile(tempDirectory, "data", ".txt");
         Files.write(tempFile, List.of("1,100.0,HeartRate,1714376788030", "2,120.0,BloodPressure,1714376788031"));
 
-        dataReader.parseFile(tempFile.toFile(), dataStorageMock);
+        dataReader.parseFile(tempFile.toFile(), dataStorage);
+
+        assertRecord(dataStorage.getRecords(1, 0L, Long.MAX_VALUE), 100.0, "HeartRate", 1714376788030L);
+        assertRecord(dataStorage.getRecords(2, 0L, Long.MAX_VALUE), 120.0, "BloodPressure", 1714376788031L);
+    }
+
+    @Test
+    void largeFileIsStoredInBatches() throws IOException {
+        Path tempFile = Files.createTempFile(tempDirectory, "data", ".txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            lines.add((i % 7) + "," + i + ",ECG," + (1714376788030L + i));
+        }
+        Files.write(tempFile, lines);
+
+        dataReader.parseFile(tempFile.toFile(), dataStorage);
+
+        int total = 0;
+        for (int patientId = 0; patientId < 7; patientId++) {
+            List<PatientRecord> records = dataStorage.getRecords(patientId, 0L, Long.MAX_VALUE);
+            for (int i = 1; i < records.size(); i++) {
+                assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+            }
+            total += records.size();
+        }
+        assertEquals(20000, total);
+    }
+
+    @Test
+    void parallelReadSplitsFilesAtLineBoundaries() throws IOException {
+        for (int f = 0; f < 3; f++) {
+            Path tempFile = Files.createFile(tempDirectory.resolve("data" + f + ".txt"));
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 5000; i++) {
+                content.append(f * 10 + i % 5).append(',').append(i).append(".5,ECG,").append(1714376788030L + i)
+                        .append(i % 2 == 0 ? "\r\n" : "\n");
+            }
+            content.append(f * 10).append(",-1.0,ECG,").append(1714376788030L + 5000); // no trailing line break
+            Files.writeString(tempFile, content);
+        }
+
+        new FileDataReader(tempDirectory.toString(), 4, 1000).readData(dataStorage);
+
+        int total = 0;
+        for (int f = 0; f < 3; f++) {
+            for (int patient = 0; patient < 5; patient++) {
+                List<PatientRecord> records = dataStorage.getRecords(f * 10 + patient, 0L, Long.MAX_VALUE);
+                for (int i = 0; i < records.size(); i++) {
+                    PatientRecord record = records.get(i);
+                    long index = record.getTimestamp() - 1714376788030L;
+                    assertEquals(index == 5000 ? -1.0 : index + 0.5, record.getMeasurementValue());
+                    if (i > 0) {
+                        assertTrue(records.get(i - 1).getTimestamp() < record.getTimestamp());
+                    }
+                }
+                total += records.size();
+            }
+        }
+        assertEquals(3 * 5001, total);
+    }
 
-        verify(dataStorageMock, times(1)).addPatientData(1, 100.0, "HeartRate", 1714376788030L);
-        verify(dataStorageMock, times(1)).addPatientData(2, 120.0, "BloodPressure", 1714376788031L);
+    @Test
+    void parallelRangesAreStoredInFileOrder() throws IOException {
+        Path tempFile = Files.createTempFile(tempDirectory, "data", ".txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            lines.add("1," + i + ",ECG," + (1714376788030L + i));
+        }
+        Files.write(tempFile, lines);
+
+        new FileDataReader(tempDirectory.toString(), 4, 1000).readData(dataStorage);
+
+        List<PatientRecord> records = dataStorage.getRecords(1, 0L, Long.MAX_VALUE);
+        assertEquals(20000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(1714376788030L + i, records.get(i).getTimestamp());
+        }
+        assertEquals(0, dataStorage.getLateSampleCount());
+    }
+
+    @Test
+    void numbersAreDecodedExactlyFromBytes() throws IOException {
+        Path tempFile = Files.createTempFile(tempDirectory, "data", ".txt");
+        Random random = new Random(7);
+        double[] expected = new double[2000];
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < expected.length; i++) {
+            switch (i % 4) {
+                case 0:
+                    expected[i] = random.nextGaussian(); // up to 17 significant digits
+                    break;
+                case 1:
+                    expected[i] = Math.round(random.nextDouble() * 2000) / 10.0;
+                    break;
+                case 2:
+                    expected[i] = random.nextDouble() * 1e-7; // written with an exponent
+                    break;
+                default:
+                    expected[i] = -random.nextInt(1000);
+            }
+            lines.add(" 3 , " + expected[i] + " , Saturation , " + (1714376788030L + i) + " ");
+        }
+        lines.add("");
+        lines.add("+4,1.5E2,ECG,1714376788030,ignored");
+        lines.add("5,12abc,ECG,1714376788030");
+        lines.add("5,1.0,,1714376788030");
+        lines.add("99999999999,1.0,ECG,1714376788030");
+        lines.add("5,1.0,ECG,17143767880301714376788030");
+        lines.add("5,1e,ECG,1714376788030");
+        Files.write(tempFile, lines);
+
+        dataReader.parseFile(tempFile.toFile(), dataStorage);
+
+        List<PatientRecord> records = dataStorage.getRecords(3, 0L, Long.MAX_VALUE);
+        assertEquals(expected.length, records.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], records.get(i).getMeasurementValue());
+            assertEquals("Saturation", records.get(i).getRecordType());
+        }
+        assertRecord(dataStorage.getRecords(4, 0L, Long.MAX_VALUE), 150.0, "ECG", 1714376788030L);
+        assertTrue(dataStorage.getRecords(5, 0L, Long.MAX_VALUE).isEmpty());
+        assertEquals(5, dataReader.getMalformedLineCount());
     }
 }
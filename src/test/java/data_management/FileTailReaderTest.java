@@ -0,0 +1,129 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.FileTailReader;
+import com.data_management.PatientRecord;
+import com.data_management.SampleBatch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class FileTailReaderTest {
+    private static final long START = 1714376789050L;
+
+    private Path directory;
+    private DataStorage storage;
+    private FileOutputStrategy output;
+
+    @BeforeEach
+    void init() throws IOException {
+        directory = Files.createTempDirectory("tail");
+        storage = new DataStorage();
+        output = new FileOutputStrategy(directory.toString());
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(file -> {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Test
+    void readsOnlyAppendedLinesInSimulatorFormat() throws IOException {
+        FileTailReader reader = new FileTailReader(directory.toString());
+        output.output(1, START, "Saturation", "97.0%");
+        output.output(1, START + 1, "ECG", "-0.34656395320945643");
+        output.output(2, START, "Alert", "triggered");
+        reader.readData(storage);
+        assertEquals(3, reader.getIngestedLineCount());
+
+        output.output(1, START + 2, "Saturation", "95.0%");
+        output.output(2, START + 5, "Alert", "resolved");
+        reader.readData(storage);
+        assertEquals(5, reader.getIngestedLineCount());
+
+        List<PatientRecord> saturation = storage.getRecords(1, "Saturation", 0L, Long.MAX_VALUE);
+        assertEquals(2, saturation.size());
+        assertEquals(97.0, saturation.get(0).getMeasurementValue());
+        assertEquals(95.0, saturation.get(1).getMeasurementValue());
+        assertEquals(-0.34656395320945643, storage.getLatestRecord(1, "ECG").getMeasurementValue());
+        assertEquals(0.0, storage.getLatestRecord(2, "Alert").getMeasurementValue());
+        assertEquals(2, storage.getRecords(2, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void unfinishedLineIsReadOnceComplete() throws IOException {
+        Path file = directory.resolve("ECG.txt");
+        FileTailReader reader = new FileTailReader(directory.toString());
+        Files.write(file, "Patient ID: 3, Timestamp: 1714376789050, Label: ECG, Da".getBytes(StandardCharsets.US_ASCII));
+        reader.readData(storage);
+        assertEquals(0, reader.getIngestedLineCount());
+
+        Files.write(file, "ta: 0.5\nnot a sample\n3,0.7,ECG,1714376789051\n".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        reader.readData(storage);
+        assertEquals(2, reader.getIngestedLineCount());
+        assertEquals(1, reader.getMalformedLineCount());
+        assertEquals(2, storage.getRecords(3, "ECG", 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void followIngestsAppendsAsTheyHappen() throws IOException, InterruptedException {
+        output.output(4, START, "Saturation", "98.0%");
+        try (FileTailReader reader = new FileTailReader(directory.toString())) {
+            reader.follow(storage);
+            assertEquals(1, storage.getRecords(4, 0L, Long.MAX_VALUE).size());
+
+            for (int i = 1; i <= 10; i++) {
+                output.output(4, START + i, "Saturation", (90 + i) + ".0%");
+            }
+            output.output(5, START, "SystolicPressure", "120.0");
+
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (reader.getIngestedLineCount() < 12 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(11, storage.getRecords(4, 0L, Long.MAX_VALUE).size());
+            assertEquals(120.0, storage.getLatestRecord(5, "SystolicPressure").getMeasurementValue());
+        }
+    }
+
+    @Test
+    void largeCatchUpIsStoredInBoundedBatches() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            lines.append("6,").append(i).append(",ECG,").append(START + i).append('\n');
+        }
+        Files.write(directory.resolve("ECG.txt"), lines.toString().getBytes(StandardCharsets.US_ASCII));
+        int[] largestBatch = new int[1];
+        DataStorage recording = new DataStorage() {
+            @Override
+            public void addBatch(SampleBatch batch) {
+                largestBatch[0] = Math.max(largestBatch[0], batch.size());
+                super.addBatch(batch);
+            }
+        };
+
+        new FileTailReader(directory.toString()).readData(recording);
+
+        assertEquals(20000, recording.getRecords(6, 0L, Long.MAX_VALUE).size());
+        assertTrue(largestBatch[0] <= 8192, "largest batch: " + largestBatch[0]);
+    }
+}
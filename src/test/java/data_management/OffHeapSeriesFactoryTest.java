@@ -0,0 +1,69 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.OffHeapSeriesFactory;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.RetentionPolicy;
+import com.data_management.SampleSeries;
+
+import java.util.List;
+
+class OffHeapSeriesFactoryTest {
+    private OffHeapSeriesFactory factory;
+
+    @BeforeEach
+    void init() {
+        factory = new OffHeapSeriesFactory(64 * 1024);
+    }
+
+    @Test
+    void storesSamplesOffHeap() {
+        SampleSeries series = factory.create(RecordTypeDictionary.idOf("ECG"), RetentionPolicy.UNLIMITED);
+        for (int i = 0; i < 1000; i++) {
+            series.append(1000L + i, i * 0.5);
+        }
+        series.append(1500L, -1.0); // late sample goes after the existing one at 1500
+
+        assertEquals(1001, series.size());
+        assertEquals(1000L, series.timestampAt(0));
+        assertEquals(250.0, series.valueAt(500));
+        assertEquals(-1.0, series.valueAt(501));
+        assertEquals(999 * 0.5, series.valueAt(1000));
+        assertTrue(factory.allocatedBytes() > 0);
+    }
+
+    @Test
+    void retentionReturnsBlocksForReuse() {
+        SampleSeries series = factory.create(RecordTypeDictionary.idOf("ECG"), 2000L);
+        for (long t = 0; t < 10000; t++) {
+            series.append(t, t);
+        }
+        long allocated = factory.allocatedBytes();
+
+        for (long t = 10000; t < 500000; t++) {
+            series.append(t, t);
+        }
+
+        assertEquals(allocated, factory.allocatedBytes());
+        assertEquals(2001, series.size());
+        assertEquals(497999L, series.timestampAt(0));
+    }
+
+    @Test
+    void dataStorageContractIsUnchanged() {
+        DataStorage storage = new DataStorage(RetentionPolicy.unlimited(), factory);
+        storage.addPatientData(1, 100.0, "WhiteBloodCells", 1714376789050L);
+        storage.addPatientData(1, 200.0, "WhiteBloodCells", 1714376789051L);
+        storage.addPatientData(1, 97.0, "Saturation", 1714376789052L);
+
+        List<PatientRecord> records = storage.getRecords(1, 1714376789050L, 1714376789052L);
+        assertEquals(3, records.size());
+        assertEquals(100.0, records.get(0).getMeasurementValue());
+        assertEquals("Saturation", records.get(2).getRecordType());
+    }
+}
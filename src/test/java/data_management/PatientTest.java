@@ -54,4 +54,30 @@ class PatientTest {
         assertEquals(1, records.size());
         assertEquals(100.0, records.get(0).getMeasurementValue());
     }
+
+    @Test
+    void getRecordsMergesTypesInTimestampOrder() {
+        long now = System.currentTimeMillis();
+        patient.addRecord(120.0, "SystolicPressure", now + 2000);
+        patient.addRecord(80.0, "HeartRate", now);
+        patient.addRecord(97.0, "Saturation", now + 1000);
+
+        List<PatientRecord> records = patient.getRecords(now, now + 2000);
+        assertEquals(3, records.size());
+        assertEquals("HeartRate", records.get(0).getRecordType());
+        assertEquals("Saturation", records.get(1).getRecordType());
+        assertEquals("SystolicPressure", records.get(2).getRecordType());
+    }
+
+    @Test
+    void getRecordsOfSingleType() {
+        long now = System.currentTimeMillis();
+        patient.addRecord(80.0, "HeartRate", now);
+        patient.addRecord(97.0, "Saturation", now + 1000);
+
+        List<PatientRecord> records = patient.getRecords("Saturation", now, now + 2000);
+        assertEquals(1, records.size());
+        assertEquals(97.0, records.get(0).getMeasurementValue());
+        assertTrue(patient.getRecords("ECG", now, now + 2000).isEmpty());
+    }
 }
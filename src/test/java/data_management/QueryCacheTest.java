@@ -0,0 +1,137 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class QueryCacheTest {
+    private static final long START = 1714376789050L;
+
+    @Test
+    void repeatedWindowIsServedFromCache() {
+        DataStorage storage = new DataStorage();
+        storage.setQueryCacheBudget(1 << 20);
+        for (int i = 0; i < 100; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+        }
+
+        assertEquals(100, storage.getRecords(1, "ECG", START, START + 1000).size());
+        assertEquals(100, storage.forEach(1, "ECG", START, START + 1000, (t, v) -> {
+        }));
+        assertEquals(1, storage.getQueryCacheMissCount());
+        assertEquals(1, storage.getQueryCacheHitCount());
+    }
+
+    @Test
+    void appendInvalidatesOnlyItsSeries() {
+        DataStorage storage = new DataStorage();
+        storage.setQueryCacheBudget(1 << 20);
+        storage.addPatientData(1, 1.0, "ECG", START);
+        storage.addPatientData(1, 97.0, "Saturation", START);
+        storage.getRecords(1, "ECG", START, START + 1000);
+        storage.getRecords(1, "Saturation", START, START + 1000);
+
+        storage.addPatientData(1, 2.0, "ECG", START + 1);
+        List<PatientRecord> ecg = storage.getRecords(1, "ECG", START, START + 1000);
+        assertEquals(2, ecg.size());
+        assertEquals(2.0, ecg.get(1).getMeasurementValue());
+        assertEquals(1, storage.getRecords(1, "Saturation", START, START + 1000).size());
+        assertEquals(3, storage.getQueryCacheMissCount());
+        assertEquals(1, storage.getQueryCacheHitCount());
+    }
+
+    @Test
+    void evictionInvalidatesCachedWindow() {
+        DataStorage storage = new DataStorage(new RetentionPolicy(1000L));
+        storage.setQueryCacheBudget(1 << 20);
+        for (int i = 0; i < 10; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * 50);
+        }
+        assertEquals(10, storage.getRecords(1, "ECG", 0L, Long.MAX_VALUE).size());
+
+        storage.evictExpired(START + 1300);
+        assertEquals(4, storage.getRecords(1, "ECG", 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void leastRecentlyUsedWindowsAreEvictedWithinBudget() {
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+        }
+        storage.setQueryCacheBudget(40_000); // room for about two full windows
+
+        storage.getRecords(1, "ECG", START, START + 1000);
+        storage.getRecords(1, "ECG", START, START + 1001);
+        storage.getRecords(1, "ECG", START, START + 1000);
+        storage.getRecords(1, "ECG", START, START + 1002);
+        storage.getRecords(1, "ECG", START, START + 1000);
+        assertEquals(2, storage.getQueryCacheHitCount());
+        storage.getRecords(1, "ECG", START, START + 1001);
+        assertEquals(2, storage.getQueryCacheHitCount());
+
+        storage.setQueryCacheBudget(0);
+        storage.getRecords(1, "ECG", START, START + 1000);
+        assertEquals(2, storage.getQueryCacheHitCount());
+        assertEquals(4, storage.getQueryCacheMissCount());
+    }
+
+    @Test
+    void patientsShareTheBudget() {
+        DataStorage storage = new DataStorage();
+        for (int p = 1; p <= 3; p++) {
+            for (int i = 0; i < 1000; i++) {
+                storage.addPatientData(p, i, "ECG", START + i);
+            }
+        }
+        storage.setQueryCacheBudget(40_000); // room for about two full windows
+
+        storage.getRecords(1, "ECG", START, START + 1000);
+        storage.getRecords(2, "ECG", START, START + 1000);
+        storage.getRecords(3, "ECG", START, START + 1000);
+        storage.getRecords(2, "ECG", START, START + 1000);
+        storage.getRecords(3, "ECG", START, START + 1000);
+        assertEquals(2, storage.getQueryCacheHitCount());
+        storage.getRecords(1, "ECG", START, START + 1000);
+        assertEquals(2, storage.getQueryCacheHitCount());
+        assertEquals(4, storage.getQueryCacheMissCount());
+    }
+
+    @Test
+    void concurrentReadersOfDifferentPatientsSeeTheirOwnSamples() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        storage.setQueryCacheBudget(1 << 20);
+        for (int p = 1; p <= 4; p++) {
+            for (int i = 0; i < 100; i++) {
+                storage.addPatientData(p, p * 1000 + i, "ECG", START + i);
+            }
+        }
+        AtomicInteger wrong = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int p = 1; p <= 4; p++) {
+            int patientId = p;
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    List<PatientRecord> records = storage.getRecords(patientId, "ECG", START, START + i % 50 + 50);
+                    if (records.get(0).getMeasurementValue() != patientId * 1000) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, wrong.get());
+        assertEquals(8000, storage.getQueryCacheHitCount() + storage.getQueryCacheMissCount());
+    }
+}
@@ -0,0 +1,40 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+
+class RecordTypeDictionaryTest {
+
+    @Test
+    void sameNameMapsToSameId() {
+        int id = RecordTypeDictionary.idOf("Cholesterol");
+
+        assertEquals(id, RecordTypeDictionary.idOf("Cholesterol"));
+        assertEquals(id, RecordTypeDictionary.lookup("Cholesterol"));
+        assertEquals("Cholesterol", RecordTypeDictionary.nameOf(id));
+    }
+
+    @Test
+    void lookupDoesNotRegister() {
+        int size = RecordTypeDictionary.size();
+
+        assertEquals(RecordTypeDictionary.UNKNOWN, RecordTypeDictionary.lookup("NeverIngestedType"));
+        assertEquals(size, RecordTypeDictionary.size());
+    }
+
+    @Test
+    void recordExposesTypeNameAndId() {
+        PatientRecord record = new PatientRecord(1, 5.0, "WhiteBloodCells", 1714376789050L);
+
+        assertEquals("WhiteBloodCells", record.getRecordType());
+        assertEquals(RecordTypeDictionary.lookup("WhiteBloodCells"), record.getRecordTypeId());
+    }
+
+    @Test
+    void unknownIdIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> RecordTypeDictionary.nameOf(Integer.MAX_VALUE));
+    }
+}
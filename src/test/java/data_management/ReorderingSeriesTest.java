@@ -0,0 +1,86 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.RetentionPolicy;
+import com.data_management.SampleBuffer;
+import com.data_management.SampleSeries;
+import com.data_management.SeriesFactory;
+
+import java.util.List;
+import java.util.Random;
+
+class ReorderingSeriesTest {
+    private static final long START = 1714376789050L;
+
+    private SampleSeries series;
+
+    @BeforeEach
+    void init() {
+        series = SeriesFactory.reordering(SeriesFactory.onHeap(), 100).create(RecordTypeDictionary.idOf("ECG"),
+                RetentionPolicy.UNLIMITED);
+    }
+
+    @Test
+    void jitteredSamplesAreReadInOrder() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            long timestamp = START + i * 4L + random.nextInt(50);
+            series.append(timestamp, i);
+        }
+
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(Long.MIN_VALUE, Long.MAX_VALUE, buffer);
+        assertEquals(10_000, buffer.size());
+        assertEquals(10_000, series.size());
+        for (int i = 1; i < buffer.size(); i++) {
+            assertTrue(buffer.timestampAt(i - 1) <= buffer.timestampAt(i));
+            assertEquals(buffer.timestampAt(i), series.timestampAt(i));
+        }
+        assertTrue(series.getLateSampleCount() > 1000);
+    }
+
+    @Test
+    void sampleBehindTheWatermarkIsStillStored() {
+        for (int i = 0; i < 10; i++) {
+            series.append(START + i * 100L, i);
+        }
+        series.append(START + 50, -1.0); // far behind the newest sample
+
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(START, START + 200, buffer);
+        assertEquals(4, buffer.size());
+        assertEquals(-1.0, buffer.valueAt(1));
+        assertEquals(1, series.getLateSampleCount());
+    }
+
+    @Test
+    void evictionCoversBufferedSamples() {
+        for (int i = 0; i < 10; i++) {
+            series.append(START + i * 10L, i);
+        }
+
+        assertEquals(10, series.evictBefore(START + 1000));
+        assertEquals(0, series.size());
+    }
+
+    @Test
+    void storageCountsLateSamples() {
+        DataStorage storage = new DataStorage(RetentionPolicy.unlimited(),
+                SeriesFactory.reordering(SeriesFactory.onHeap(), 5000));
+        storage.addPatientData(1, 97.0, "Saturation", START + 2000);
+        storage.addPatientData(1, 96.0, "Saturation", START);
+        storage.addPatientData(1, 95.0, "Saturation", START + 1000);
+        storage.addPatientData(2, 120.0, "SystolicPressure", START);
+
+        List<PatientRecord> records = storage.getRecords(1, START, START + 2000);
+        assertEquals(96.0, records.get(0).getMeasurementValue());
+        assertEquals(95.0, records.get(1).getMeasurementValue());
+        assertEquals(2, storage.getLateSampleCount());
+    }
+}
@@ -0,0 +1,97 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.RetentionPolicy;
+import com.data_management.Rollup;
+
+import java.util.List;
+
+class RollupTest {
+    private static final long HOUR = Rollup.ONE_HOUR;
+
+    private DataStorage storage;
+
+    @BeforeEach
+    void init() {
+        storage = new DataStorage();
+        // one sample per second for three hours, value = seconds since start
+        for (int s = 0; s < 3 * 3600; s++) {
+            storage.addPatientData(1, s, "SystolicPressure", s * 1000L);
+        }
+    }
+
+    @Test
+    void coarsestTierIsChosen() {
+        List<Rollup> hourly = storage.getRollups(1, "SystolicPressure", 0L, 3 * HOUR - 1, 2 * HOUR);
+
+        assertEquals(3, hourly.size());
+        Rollup second = hourly.get(1);
+        assertEquals(HOUR, second.getStartTime());
+        assertEquals(HOUR, second.getDuration());
+        assertEquals(3600, second.getCount());
+        assertEquals(3600.0, second.getMin());
+        assertEquals(7199.0, second.getMax());
+        assertEquals(7199.0, second.getLast());
+        assertEquals((3600.0 + 7199.0) / 2, second.getAverage());
+    }
+
+    @Test
+    void rangeSelectsOverlappingBuckets() {
+        List<Rollup> quarters = storage.getRollups(1, "SystolicPressure", 20 * 60_000L, 40 * 60_000L,
+                Rollup.FIFTEEN_MINUTES);
+
+        assertEquals(2, quarters.size());
+        assertEquals(15 * 60_000L, quarters.get(0).getStartTime());
+        assertEquals(900, quarters.get(1).getCount());
+
+        List<Rollup> minutes = storage.getRollups(1, "SystolicPressure", 0L, 3 * HOUR, Rollup.ONE_MINUTE);
+        assertEquals(180, minutes.size());
+    }
+
+    @Test
+    void fineResolutionIsComputedFromRawSamples() {
+        List<Rollup> buckets = storage.getRollups(1, "SystolicPressure", 10_000L, 19_999L, 5_000L);
+
+        assertEquals(2, buckets.size());
+        assertEquals(5, buckets.get(0).getCount());
+        assertEquals(10.0, buckets.get(0).getMin());
+        assertEquals(19.0, buckets.get(1).getLast());
+    }
+
+    @Test
+    void lateSampleUpdatesItsBucket() {
+        storage.addPatientData(1, 99999.0, "SystolicPressure", 30_500L);
+        storage.addPatientData(1, -1.0, "SystolicPressure", -30_000L);
+
+        List<Rollup> minutes = storage.getRollups(1, "SystolicPressure", -HOUR, 59_999L, Rollup.ONE_MINUTE);
+        assertEquals(2, minutes.size());
+        assertEquals(-60_000L, minutes.get(0).getStartTime());
+        assertEquals(61, minutes.get(1).getCount());
+        assertEquals(99999.0, minutes.get(1).getMax());
+        assertEquals(59.0, minutes.get(1).getLast());
+    }
+
+    @Test
+    void retentionDropsExpiredBuckets() {
+        DataStorage bounded = new DataStorage(new RetentionPolicy(HOUR));
+        for (int s = 0; s < 3 * 3600; s++) {
+            bounded.addPatientData(1, s, "SystolicPressure", s * 1000L);
+        }
+
+        List<Rollup> minutes = bounded.getRollups(1, "SystolicPressure", 0L, 3 * HOUR, Rollup.ONE_MINUTE);
+        assertEquals(61, minutes.size());
+        assertEquals(2 * HOUR - 60_000L, minutes.get(0).getStartTime());
+    }
+
+    @Test
+    void unknownPatientOrTypeIsEmpty() {
+        assertTrue(storage.getRollups(2, "SystolicPressure", 0L, HOUR, HOUR).isEmpty());
+        assertTrue(storage.getRollups(1, "NoSuchType", 0L, HOUR, HOUR).isEmpty());
+        assertThrows(IllegalArgumentException.class,
+                () -> storage.getRollups(1, "SystolicPressure", 0L, HOUR, 0L));
+    }
+}
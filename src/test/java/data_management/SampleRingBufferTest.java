@@ -0,0 +1,74 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.IngestWorker;
+import com.data_management.OverflowPolicy;
+import com.data_management.SampleBatch;
+import com.data_management.SampleRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class SampleRingBufferTest {
+
+    @Test
+    void dropNewestKeepsTheFirstSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(1, i, 0, i);
+        }
+        assertEquals(2, buffer.getDroppedCount());
+
+        SampleBatch batch = new SampleBatch(8);
+        assertEquals(4, buffer.drainTo(batch, 8));
+        assertEquals(0.0, batch.valueAt(0));
+        assertEquals(3.0, batch.valueAt(3));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void dropOldestKeepsTheLastSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, OverflowPolicy.DROP_OLDEST);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.offer(1, i, 0, i));
+        }
+        assertEquals(6, buffer.getDroppedCount());
+
+        SampleBatch batch = new SampleBatch(8);
+        assertEquals(4, buffer.drainTo(batch, 8));
+        assertEquals(6.0, batch.valueAt(0));
+        assertEquals(9L, batch.timestampAt(3));
+    }
+
+    @Test
+    void workerStoresEverySampleFromSeveralProducers() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        try (IngestWorker worker = new IngestWorker(storage, 64, OverflowPolicy.BLOCK)) {
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                int patientId = p + 1;
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        worker.submit(patientId, i, 0, 1714376789050L + i);
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            worker.flush();
+
+            assertEquals(20000, worker.getStoredCount());
+            assertEquals(0, worker.getDroppedCount());
+            for (int p = 1; p <= 4; p++) {
+                assertEquals(5000, storage.getRecords(p, 0L, Long.MAX_VALUE).size());
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.LocalShard;
+import com.data_management.PartitionFunction;
+import com.data_management.PatientRecord;
+import com.data_management.PopulationAggregate;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.RemoteShard;
+import com.data_management.Rollup;
+import com.data_management.SampleBatch;
+import com.data_management.ShardServer;
+import com.data_management.ShardedDataStorage;
+import com.data_management.StorageShard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class ShardedDataStorageTest {
+    private static final long START = 1714376789050L;
+
+    private ShardedDataStorage storage;
+
+    @BeforeEach
+    void init() {
+        storage = new ShardedDataStorage(4, PartitionFunction.modulo());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        storage.close();
+    }
+
+    @Test
+    void patientsAreRoutedToTheirShard() {
+        for (int patientId = 0; patientId < 40; patientId++) {
+            storage.addPatientData(patientId, patientId, "Saturation", START);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            int shard = i;
+            DataStorage shardStorage = ((LocalShard) storage.shardFor(shard)).getStorage();
+            assertEquals(10, shardStorage.getAllPatients().size());
+            assertTrue(shardStorage.getAllPatients().stream().allMatch(p -> p.getPatientId() % 4 == shard));
+        }
+        assertEquals(40, storage.getPatientIds().length);
+        assertEquals(13.0, storage.getRecords(13, "Saturation", START, START).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void rangePartitionKeepsBlocksTogether() {
+        PartitionFunction ranges = PartitionFunction.ranges(100);
+
+        assertEquals(ranges.shardOf(100, 4), ranges.shardOf(199, 4));
+        assertNotEquals(ranges.shardOf(199, 4), ranges.shardOf(200, 4));
+        assertEquals(3, ranges.shardOf(-1, 4));
+    }
+
+    @Test
+    void queuedSamplesAreVisibleAfterFlush() {
+        for (int i = 0; i < 1000; i++) {
+            storage.ingest(i % 8, i, "ECG", START + i);
+        }
+        storage.flush();
+
+        List<PatientRecord> records = storage.getRecords(5, START, START + 1000);
+        assertEquals(125, records.size());
+        assertEquals(5.0, records.get(0).getMeasurementValue());
+        assertEquals(997.0, storage.getLatestRecord(5, "ECG").getMeasurementValue());
+    }
+
+    @Test
+    void populationQueriesMergeEveryShard() {
+        for (int patientId = 1; patientId <= 20; patientId++) {
+            storage.addPatientData(patientId, 90 + patientId % 10, "Saturation", START + patientId);
+        }
+
+        PopulationAggregate aggregate = storage.aggregate("Saturation", START, START + 100, v -> v < 92);
+        assertEquals(20, aggregate.getPatientCount());
+        assertEquals(90.0, aggregate.getMin());
+        assertEquals(99.0, aggregate.getMax());
+        assertEquals(4, aggregate.getMatchingPatientCount());
+
+        List<Integer> seen = new ArrayList<>();
+        storage.forEachLatest((patientId, recordTypeId, timestamp, value) -> seen.add(patientId));
+        assertEquals(20, seen.size());
+    }
+
+    @Test
+    void alertGeneratorReadsThroughTheShards() {
+        long now = System.currentTimeMillis();
+        storage.addPatientData(6, 85.0, "Saturation", now - 1000);
+
+        AlertGenerator generator = new AlertGenerator(storage);
+        for (int patientId : storage.getPatientIds()) {
+            generator.evaluateData(patientId);
+        }
+
+        assertTrue(generator.getAlerts().stream().anyMatch(a -> a.getCondition().equals("Low Saturation Alert")));
+    }
+
+    @Test
+    void localAndRemoteShardsCanBeMixed() throws IOException {
+        DataStorage remoteStorage = new DataStorage();
+        try (ShardServer server = new ShardServer(remoteStorage, 0)) {
+            List<StorageShard> shards = List.of(new LocalShard(new DataStorage(), "local"),
+                    RemoteShard.connect("localhost", server.getPort()));
+            try (ShardedDataStorage mixed = new ShardedDataStorage(shards, PartitionFunction.modulo())) {
+                for (int i = 0; i < 100; i++) {
+                    mixed.addPatientData(i % 2, i, "DiastolicPressure", START + i * 1000L);
+                    mixed.ingest(i % 2, i, "SystolicPressure", START + i * 1000L);
+                }
+                mixed.flush();
+
+                assertEquals(100, remoteStorage.getRecords(1, START, Long.MAX_VALUE).size());
+                assertEquals(50, mixed.getRecords(1, "SystolicPressure", START, Long.MAX_VALUE).size());
+                assertEquals(99.0, mixed.getLatestRecord(1, "DiastolicPressure").getMeasurementValue());
+                assertTrue(mixed.getRecords(1, "Unknown", START, Long.MAX_VALUE).isEmpty());
+
+                List<Rollup> rollups = mixed.getRollups(1, "SystolicPressure", START, Long.MAX_VALUE,
+                        Rollup.ONE_HOUR);
+                assertEquals(50, rollups.stream().mapToLong(Rollup::getCount).sum());
+
+                PopulationAggregate aggregate = mixed.aggregate("SystolicPressure", START, Long.MAX_VALUE);
+                assertEquals(2, aggregate.getPatientCount());
+                assertEquals(100, aggregate.getSampleCount());
+                assertEquals(4950.0, aggregate.getSum());
+                assertEquals(2, mixed.getPatientCount());
+                assertEquals(2, mixed.getPatientIds().length);
+                PopulationAggregate high = mixed.aggregate("SystolicPressure", START, Long.MAX_VALUE, v -> v > 98);
+                assertEquals(2, high.getPatientCount());
+                assertEquals(1, high.getMatchingPatientCount());
+                assertEquals(4950.0, high.getSum());
+            }
+        }
+    }
+
+    @Test
+    void batchesAreSplitByShard() throws IOException {
+        DataStorage localStorage = new DataStorage();
+        DataStorage remoteStorage = new DataStorage();
+        try (ShardServer server = new ShardServer(remoteStorage, 0)) {
+            List<StorageShard> shards = List.of(new LocalShard(localStorage, "local"),
+                    RemoteShard.connect("localhost", server.getPort()));
+            try (ShardedDataStorage mixed = new ShardedDataStorage(shards, PartitionFunction.modulo())) {
+                SampleBatch batch = new SampleBatch(300);
+                for (int i = 0; i < 300; i++) {
+                    batch.add(i % 6, i, RecordTypeDictionary.idOf(i % 3 == 0 ? "ECG" : "Saturation"),
+                            START + i);
+                }
+                mixed.addBatch(batch);
+
+                assertEquals(3, localStorage.getAllPatients().size());
+                assertEquals(3, remoteStorage.getAllPatients().size());
+                assertEquals(50, remoteStorage.getRecords(3, "ECG", START, Long.MAX_VALUE).size());
+                List<PatientRecord> records = mixed.getRecords(5, "Saturation", START, Long.MAX_VALUE);
+                assertEquals(50, records.size());
+                assertEquals(5.0, records.get(0).getMeasurementValue());
+                assertEquals(299.0, records.get(49).getMeasurementValue());
+            }
+        }
+    }
+
+    @Test
+    void remotePatientsAreListedAndEvaluated() throws IOException {
+        DataStorage remoteStorage = new DataStorage();
+        try (ShardServer server = new ShardServer(remoteStorage, 0)) {
+            List<StorageShard> shards = List.of(new LocalShard(new DataStorage(), "local"),
+                    RemoteShard.connect("localhost", server.getPort()));
+            try (ShardedDataStorage mixed = new ShardedDataStorage(shards, PartitionFunction.modulo())) {
+                long now = System.currentTimeMillis();
+                mixed.addPatientData(2, 97.0, "Saturation", now - 2000);
+                mixed.addPatientData(3, 97.0, "Saturation", now - 2000);
+                mixed.addPatientData(3, 85.0, "Saturation", now - 1000);
+                mixed.addPatientData(3, 96.0, "Saturation", now - 1500); // late
+
+                int[] patientIds = mixed.getPatientIds();
+                assertArrayEquals(new int[] { 2, 3 }, patientIds);
+                assertEquals(3, mixed.getRecords(3, now - 5000, now).size());
+                assertEquals(85.0, mixed.getLatestRecord(3, "Saturation").getMeasurementValue());
+                assertEquals(1, mixed.getLateSampleCount());
+
+                AlertGenerator generator = new AlertGenerator(mixed);
+                for (int patientId : patientIds) {
+                    generator.evaluateData(patientId);
+                }
+                assertTrue(generator.getAlerts().stream()
+                        .anyMatch(a -> a.getPatientId().equals("3") && a.getCondition().equals("Low Saturation Alert")));
+            }
+        }
+    }
+
+    @Test
+    void snapshotsLogsAndColdTiersAreKeptPerShard() throws IOException {
+        long hour = 3_600_000L;
+        Path directory = Files.createTempDirectory("sharded");
+        Path snapshot = directory.resolve("ward.snapshot");
+        try {
+            DataStorage remoteStorage = new DataStorage();
+            try (ShardServer server = new ShardServer(remoteStorage, 0);
+                    ShardedDataStorage mixed = new ShardedDataStorage(List.of(
+                            new LocalShard(new DataStorage(), "local"),
+                            RemoteShard.connect("localhost", server.getPort())), PartitionFunction.modulo())) {
+                mixed.openColdTier(directory.resolve("cold"), 10 * hour);
+                mixed.openWriteAheadLog(directory.resolve("wal"));
+                for (int i = 0; i < 48; i++) {
+                    mixed.addPatientData(i % 2, i, "Saturation", START + i * hour);
+                    mixed.addPatientData(i % 2, i, "ECG", START + i * hour);
+                }
+                assertTrue(mixed.moveToColdTier(START + 47 * hour) > 0);
+                assertEquals(2, mixed.writeSnapshot(snapshot));
+                mixed.addPatientData(1, 48, "Saturation", START + 48 * hour);
+                mixed.closeWriteAheadLog();
+            }
+            assertTrue(Files.exists(directory.resolve("ward.snapshot.0")));
+            assertTrue(Files.exists(directory.resolve("ward.snapshot.1")));
+            assertTrue(Files.isDirectory(directory.resolve("wal").resolve("shard-1")));
+            assertTrue(Files.isDirectory(directory.resolve("cold").resolve("shard-1")));
+
+            try (ShardServer server = new ShardServer(new DataStorage(), 0);
+                    ShardedDataStorage restarted = new ShardedDataStorage(List.of(
+                            new LocalShard(new DataStorage(), "local"),
+                            RemoteShard.connect("localhost", server.getPort())), PartitionFunction.modulo())) {
+                assertEquals(2, restarted.openColdTier(directory.resolve("cold"), 10 * hour));
+                assertEquals(2, restarted.restoreSnapshot(snapshot));
+                assertEquals(1, restarted.openWriteAheadLog(directory.resolve("wal")));
+
+                assertEquals(24, restarted.getRecords(0, "Saturation", START, Long.MAX_VALUE).size());
+                assertEquals(25, restarted.getRecords(1, "Saturation", START, Long.MAX_VALUE).size());
+                assertEquals(49, restarted.getRecords(1, START, Long.MAX_VALUE).size());
+                restarted.closeWriteAheadLog();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(file -> {
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    void failedIngestIsReportedByTheNextFlush() throws IOException {
+        DataStorage remoteStorage = new DataStorage() {
+            @Override
+            public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
+                if (patientId < 0) {
+                    throw new IllegalArgumentException("Negative patient id");
+                }
+                super.addPatientData(patientId, measurementValue, recordType, timestamp);
+            }
+        };
+        try (ShardServer server = new ShardServer(remoteStorage, 0);
+                RemoteShard shard = RemoteShard.connect("localhost", server.getPort())) {
+            int ecg = RecordTypeDictionary.idOf("ECG");
+            shard.ingest(-1, 1.0, ecg, START);
+            shard.ingest(2, 2.0, ecg, START);
+            UncheckedIOException failure = assertThrows(UncheckedIOException.class, shard::flush);
+            assertTrue(failure.getCause().getMessage().contains("Negative patient id"));
+
+            shard.flush();
+            assertEquals(1, shard.getRecords(2, START, START).size());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class StorageSnapshotTest {
+    private Path directory;
+
+    @BeforeEach
+    void init() throws IOException {
+        directory = Files.createTempDirectory("snapshot");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(file -> {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Test
+    void snapshotRestoresAllPatientsAndSeries() throws IOException {
+        DataStorage storage = new DataStorage();
+        for (int patientId = 1; patientId <= 50; patientId++) {
+            for (int i = 0; i < 100; i++) {
+                storage.addPatientData(patientId, patientId + i, "ECG", 1714376789000L + i);
+            }
+            storage.addPatientData(patientId, 97.0, "Saturation", 1714376789050L);
+        }
+        Path file = directory.resolve("storage.snapshot");
+
+        assertEquals(50, storage.writeSnapshot(file));
+        DataStorage restored = new DataStorage();
+        assertEquals(50, restored.restoreSnapshot(file));
+
+        assertEquals(50, restored.getAllPatients().size());
+        List<PatientRecord> records = restored.getRecords(42, 1714376789000L, 1714376789099L);
+        assertEquals(101, records.size());
+        assertEquals(42.0, records.get(0).getMeasurementValue());
+        assertEquals(1714376789099L, records.get(100).getTimestamp());
+        assertEquals(97.0, restored.getRecords(42, "Saturation", 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void emptyStorageProducesEmptySnapshot() throws IOException {
+        Path file = directory.resolve("empty.snapshot");
+
+        assertEquals(0, new DataStorage().writeSnapshot(file));
+        DataStorage restored = new DataStorage();
+        assertEquals(0, restored.restoreSnapshot(file));
+        assertTrue(restored.getAllPatients().isEmpty());
+    }
+
+    @Test
+    void rejectsFileThatIsNotASnapshot() throws IOException {
+        Path file = Files.write(directory.resolve("data.txt"), List.of("1,100.0,HeartRate,1714376788030"));
+
+        assertThrows(IOException.class, () -> new DataStorage().restoreSnapshot(file));
+    }
+
+    @Test
+    void restartFromSnapshotAndLogRestoresEachSampleOnce() throws IOException {
+        Path logDirectory = directory.resolve("wal");
+        Path file = directory.resolve("storage.snapshot");
+        DataStorage storage = new DataStorage();
+        storage.openWriteAheadLog(logDirectory);
+        for (int i = 0; i < 5; i++) {
+            storage.addPatientData(1, i, "ECG", 1714376789000L + i);
+        }
+        storage.writeSnapshot(file);
+        storage.addPatientData(1, 5, "ECG", 1714376789005L);
+        storage.addPatientData(2, 97.0, "Saturation", 1714376789005L);
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        assertEquals(1, restarted.restoreSnapshot(file));
+        assertEquals(2, restarted.openWriteAheadLog(logDirectory));
+        restarted.closeWriteAheadLog();
+
+        List<PatientRecord> records = restarted.getRecords(1, "ECG", 0L, Long.MAX_VALUE);
+        assertEquals(6, records.size());
+        assertEquals(5.0, records.get(5).getMeasurementValue());
+        assertEquals(1, restarted.getRecords(2, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void samplesLoggedDuringTheSnapshotAreNotDuplicated() throws IOException, InterruptedException {
+        Path logDirectory = directory.resolve("wal");
+        Path file = directory.resolve("storage.snapshot");
+        DataStorage storage = new DataStorage();
+        storage.openWriteAheadLog(logDirectory);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                storage.addPatientData(1 + i % 10, i, "ECG", 1714376789000L + i);
+            }
+        });
+        writer.start();
+        storage.writeSnapshot(file);
+        writer.join();
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        restarted.restoreSnapshot(file);
+        restarted.openWriteAheadLog(logDirectory);
+        restarted.closeWriteAheadLog();
+
+        for (int patientId = 1; patientId <= 10; patientId++) {
+            assertEquals(2000, restarted.getRecords(patientId, 0L, Long.MAX_VALUE).size());
+        }
+    }
+}
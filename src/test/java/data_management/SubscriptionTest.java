@@ -0,0 +1,117 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.OverflowPolicy;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.SampleBatch;
+import com.data_management.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class SubscriptionTest {
+    private static final long START = 1714376789050L;
+
+    @Test
+    void subscriberReceivesAppendsInOrder() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        List<Long> timestamps = new ArrayList<>();
+        CountDownLatch received = new CountDownLatch(103);
+        Subscription subscription = storage.subscribe(batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                timestamps.add(batch.timestampAt(i));
+                received.countDown();
+            }
+        }, 16, OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 100; i++) {
+            storage.addPatientData(i % 3, i, "ECG", START + i);
+        }
+        SampleBatch batch = new SampleBatch(3);
+        for (int i = 100; i < 103; i++) {
+            batch.add(7, i, RecordTypeDictionary.idOf("Saturation"), START + i);
+        }
+        storage.addBatch(batch);
+
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        subscription.close();
+        assertEquals(103, timestamps.size());
+        for (int i = 0; i < 103; i++) {
+            assertEquals(START + i, timestamps.get(i));
+        }
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test
+    void slowSubscriberDropsNewestSamples() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Double> values = new ArrayList<>();
+        Subscription subscription = storage.subscribe(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                values.add(batch.valueAt(i));
+            }
+        }, 4, OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 50; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+        }
+        release.countDown();
+        subscription.close();
+
+        assertEquals(50, values.size() + subscription.getDroppedCount());
+        assertTrue(subscription.getDroppedCount() >= 42);
+        assertEquals(0.0, values.get(0));
+        assertEquals(50, storage.getRecords(1, START, START + 100).size());
+    }
+
+    @Test
+    void dropOldestKeepsRecentSamples() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Double> values = new ArrayList<>();
+        Subscription subscription = storage.subscribe(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                values.add(batch.valueAt(i));
+            }
+        }, 4, OverflowPolicy.DROP_OLDEST);
+
+        for (int i = 0; i < 50; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+        }
+        release.countDown();
+        subscription.close();
+
+        assertEquals(50, values.size() + subscription.getDroppedCount());
+        assertEquals(49.0, values.get(values.size() - 1));
+    }
+
+    @Test
+    void closedSubscriptionReceivesNothingMore() {
+        DataStorage storage = new DataStorage();
+        List<Integer> sizes = new ArrayList<>();
+        Subscription subscription = storage.subscribe(batch -> sizes.add(batch.size()), 8, OverflowPolicy.BLOCK);
+        storage.addPatientData(1, 1.0, "ECG", START);
+        subscription.close();
+        storage.addPatientData(1, 2.0, "ECG", START + 1);
+
+        assertEquals(1, sizes.stream().mapToInt(Integer::intValue).sum());
+        assertThrows(IllegalArgumentException.class, () -> storage.subscribe(batch -> {
+        }, 0, OverflowPolicy.BLOCK));
+    }
+}
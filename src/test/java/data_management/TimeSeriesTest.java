@@ -0,0 +1,159 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.RecordTypeDictionary;
+import com.data_management.SampleBuffer;
+import com.data_management.TimeSeries;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+class TimeSeriesTest {
+    private TimeSeries series;
+
+    @BeforeEach
+    void init() {
+        series = new TimeSeries(RecordTypeDictionary.idOf("ECG"));
+    }
+
+    @Test
+    void appendAcrossChunks() {
+        for (int i = 0; i < 5000; i++) {
+            series.append(1000L + i, i);
+        }
+
+        assertEquals(5000, series.size());
+        assertEquals(1000L, series.timestampAt(0));
+        assertEquals(4999.0, series.valueAt(4999));
+    }
+
+    @Test
+    void outOfOrderSampleIsInsertedSorted() {
+        series.append(100L, 1.0);
+        series.append(300L, 3.0);
+        series.append(200L, 2.0);
+
+        assertEquals(200L, series.timestampAt(1));
+        assertEquals(2.0, series.valueAt(1));
+        assertEquals(300L, series.timestampAt(2));
+    }
+
+    @Test
+    void boundsUseInclusiveRange() {
+        series.append(100L, 1.0);
+        series.append(200L, 2.0);
+        series.append(200L, 2.5);
+        series.append(300L, 3.0);
+
+        assertEquals(1, series.lowerBound(200L));
+        assertEquals(3, series.upperBound(200L));
+        assertEquals(0, series.lowerBound(50L));
+        assertEquals(4, series.upperBound(400L));
+    }
+
+    @Test
+    void retentionEvictsOldSamples() {
+        TimeSeries bounded = new TimeSeries(RecordTypeDictionary.idOf("Saturation"), 1000L);
+        for (long t = 0; t <= 5000; t += 100) {
+            bounded.append(t, 97.0);
+        }
+
+        assertEquals(4000L, bounded.timestampAt(0));
+        assertEquals(5000L, bounded.timestampAt(bounded.size() - 1));
+        assertEquals(11, bounded.size());
+    }
+
+    @Test
+    void retentionReusesChunks() {
+        TimeSeries bounded = new TimeSeries(RecordTypeDictionary.idOf("ECG"), 3000L);
+        for (long t = 0; t < 10000; t++) {
+            bounded.append(t, t);
+        }
+        int chunks = bounded.allocatedChunks();
+
+        for (long t = 10000; t < 200000; t++) {
+            bounded.append(t, t);
+        }
+
+        assertEquals(chunks, bounded.allocatedChunks());
+        assertEquals(3001, bounded.size());
+        assertEquals(196999L, bounded.timestampAt(0));
+        assertEquals(199999.0, bounded.valueAt(bounded.size() - 1));
+    }
+
+    @Test
+    void lateSampleOutsideRetentionIsDropped() {
+        TimeSeries bounded = new TimeSeries(RecordTypeDictionary.idOf("ECG"), 1000L);
+        bounded.append(5000L, 1.0);
+        bounded.append(3000L, 2.0);
+        bounded.append(4500L, 3.0);
+
+        assertEquals(2, bounded.size());
+        assertEquals(4500L, bounded.timestampAt(0));
+    }
+
+    @Test
+    void copyRangeCopiesInclusiveRange() {
+        for (int i = 0; i < 3000; i++) {
+            series.append(i, i * 2.0);
+        }
+        SampleBuffer buffer = new SampleBuffer();
+        series.copyRange(1000L, 2047L, buffer);
+
+        assertEquals(1048, buffer.size());
+        assertEquals(1000L, buffer.timestampAt(0));
+        assertEquals(4094.0, buffer.valueAt(1047));
+    }
+
+    @Test
+    void readersSeeConsistentSnapshotsWhileWriterAppends() throws InterruptedException {
+        TimeSeries bounded = new TimeSeries(RecordTypeDictionary.idOf("ECG"), 5000L);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            for (long t = 0; t < 200_000; t += 2) {
+                bounded.append(t, t);
+                if (t % 100 == 0 && t > 10) {
+                    bounded.append(t - 7, t - 7); // late sample, shifts newer ones
+                }
+            }
+            done.set(true);
+        });
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                SampleBuffer buffer = new SampleBuffer();
+                while (!done.get() && failure.get() == null) {
+                    buffer.clear();
+                    bounded.copyRange(0L, Long.MAX_VALUE, buffer);
+                    for (int i = 0; i < buffer.size(); i++) {
+                        if (buffer.valueAt(i) != buffer.timestampAt(i)
+                                || (i > 0 && buffer.timestampAt(i) < buffer.timestampAt(i - 1))) {
+                            failure.set("inconsistent sample at " + i + ": " + buffer.timestampAt(i));
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        SampleBuffer buffer = new SampleBuffer();
+        bounded.copyRange(0L, Long.MAX_VALUE, buffer);
+        assertEquals(bounded.size(), buffer.size());
+        assertEquals(199998L, buffer.timestampAt(buffer.size() - 1));
+    }
+}
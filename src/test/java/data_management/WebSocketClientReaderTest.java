@@ -4,16 +4,30 @@ import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.cardio_generator.outputs.SampleFrameEncoder;
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
 import com.data_management.DataStorage;
+import com.data_management.OverflowPolicy;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.SampleBatch;
 import com.data_management.WebSocketClientReader;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.io.ByteArrayOutputStream;
@@ -59,9 +73,17 @@ public class WebSocketClientReaderTest {
      */
     @Test
     public void checkOnMessage_withValidMessage() {
+        DataStorage storage = new DataStorage();
+        WebSocketClientReader reader = new WebSocketClientReader(client.getURI(), storage);
+
         String message = "10, -0.34656395320945643, ECG, 1714748468033";
-        client.onMessage(message);
-        verify(mockDataStorage).addPatientData(eq(10), eq(-0.34656395320945643), eq("ECG"), eq(1714748468033L));
+        reader.onMessage(message);
+        reader.flush();
+
+        PatientRecord record = storage.getLatestRecord(10, "ECG");
+        assertEquals(-0.34656395320945643, record.getMeasurementValue(), 0.0);
+        assertEquals(1714748468033L, record.getTimestamp());
+        reader.stopIngest();
     }
 
     /**
@@ -71,7 +93,9 @@ public class WebSocketClientReaderTest {
     public void ensureOnMessage_withInvalidFormat() {
         String message = "Invalid message format";
         client.onMessage(message);
-        verify(mockDataStorage, never()).addPatientData(anyInt(), anyDouble(), anyString(), anyLong());
+        client.flush();
+        verify(mockDataStorage, never()).addBatch(any(SampleBatch.class));
+        assertEquals(1, client.getMalformedCount());
     }
 
     /**
@@ -81,7 +105,60 @@ public class WebSocketClientReaderTest {
     public void testOnMessage_withParsingError() {
         String message = "Patient ID: not_a_number, Timestamp: 1714748468033, Label: ECG, Data: -0.34656395320945643";
         client.onMessage(message);
-        verify(mockDataStorage, never()).addPatientData(anyInt(), anyDouble(), anyString(), anyLong());
+        client.flush();
+        verify(mockDataStorage, never()).addBatch(any(SampleBatch.class));
+        assertEquals(1, client.getMalformedCount());
+    }
+
+    /**
+     * Tests that a message of several lines is stored as one batch, skipping
+     * malformed lines.
+     */
+    @Test
+    public void checkOnMessage_withSeveralLines() {
+        DataStorage storage = new DataStorage();
+        WebSocketClientReader reader = new WebSocketClientReader(client.getURI(), storage);
+
+        reader.onMessage("10, 0.5, ECG, 1714748468033\n10, oops, ECG, 1714748468034\n11, 97.0, Saturation, 1714748468035\n");
+        reader.flush();
+
+        assertEquals(1, reader.getMalformedCount());
+        assertEquals(1, storage.getRecords(10, 0L, Long.MAX_VALUE).size());
+        assertEquals(97.0, storage.getLatestRecord(11, "Saturation").getMeasurementValue(), 0.0);
+        reader.stopIngest();
+    }
+
+    /**
+     * Tests that a stalled storage does not hold up the I/O thread when the
+     * ingest buffer drops the newest samples.
+     */
+    @Test
+    public void checkOnMessage_withStalledStorage() throws InterruptedException {
+        CountDownLatch stall = new CountDownLatch(1);
+        DataStorage storage = new DataStorage() {
+            @Override
+            public void addBatch(SampleBatch batch) {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.addBatch(batch);
+            }
+        };
+        WebSocketClientReader reader = new WebSocketClientReader(client.getURI(), storage, 8,
+                OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 100; i++) {
+            reader.onMessage("12, " + i + ", ECG, " + (1714748468033L + i));
+        }
+        stall.countDown();
+        reader.flush();
+
+        long stored = storage.getRecords(12, 0L, Long.MAX_VALUE).size();
+        assertEquals(100, stored + reader.getDroppedCount());
+        assertTrue(reader.getDroppedCount() > 0);
+        reader.stopIngest();
     }
 
     /**
@@ -95,15 +172,15 @@ public class WebSocketClientReaderTest {
         PrintStream originalErr = System.err;
         System.setErr(new PrintStream(errContent));
 
-        doThrow(new RuntimeException("Unexpected error")).when(mockDataStorage).addPatientData(anyInt(), anyDouble(),
-                anyString(), anyLong());
+        doThrow(new RuntimeException("Unexpected error")).when(mockDataStorage).addBatch(any(SampleBatch.class));
 
         String message = "10, -0.34656395320945643, ECG, 1714748468033";
         spyClient.onMessage(message);
+        spyClient.flush();
 
         System.setErr(originalErr);
 
-        assertTrue(errContent.toString().contains("Unexpected error: Unexpected error"));
+        assertTrue(errContent.toString().contains("Ingest failed: Unexpected error"));
     }
 
     /**
@@ -121,15 +198,17 @@ public class WebSocketClientReaderTest {
      * @throws IOException if an I/O error occurs
      */
     @Test
-    public void testOnClose_withException() throws IOException {
+    public void testOnClose_withException() throws IOException, InterruptedException {
         WebSocketClientReader spyClient = spy(client);
 
         ByteArrayOutputStream errContent = new ByteArrayOutputStream();
         PrintStream originalErr = System.err;
         System.setErr(new PrintStream(errContent));
 
-        doThrow(new RuntimeException("Reconnection failed")).when(spyClient).reconnect();
+        doThrow(new RuntimeException("Reconnection failed")).when(spyClient).reconnectBlocking();
         spyClient.onClose(1006, "Abnormal closure", true);
+        verify(spyClient, timeout(5000).atLeastOnce()).reconnectBlocking();
+        spyClient.stopIngest();
 
         System.setErr(originalErr);
 
@@ -150,8 +229,8 @@ public class WebSocketClientReaderTest {
 
         doAnswer(invocation -> {
             latch.countDown();
-            return null;
-        }).when(spyClient).reconnect();
+            return true;
+        }).when(spyClient).reconnectBlocking();
 
         ByteArrayOutputStream errContent = new ByteArrayOutputStream();
         PrintStream originalErr = System.err;
@@ -166,7 +245,7 @@ public class WebSocketClientReaderTest {
 
         assertFalse(client.isOpen());
         assertTrue("Reconnect method should be called", reconnectCalled);
-        verify(spyClient, atLeastOnce()).reconnect();
+        verify(spyClient, atLeastOnce()).reconnectBlocking();
         assertTrue(errContent.toString().contains("Test exception"));
     }
 
@@ -184,16 +263,17 @@ public class WebSocketClientReaderTest {
         PrintStream originalErr = System.err;
         System.setErr(new PrintStream(errContent));
 
-        doThrow(new RuntimeException("Reconnection failed")).when(spyClient).reconnect();
+        doThrow(new RuntimeException("Reconnection failed")).when(spyClient).reconnectBlocking();
 
         Exception testException = new Exception("Test exception");
         spyClient.onError(testException);
 
         TimeUnit.SECONDS.sleep(1);
+        spyClient.stopIngest();
 
         System.setErr(originalErr);
 
-        verify(spyClient, atLeastOnce()).reconnect();
+        verify(spyClient, atLeast(2)).reconnectBlocking(); // retried with backoff
         assertTrue(errContent.toString().contains("Reconnection failed"));
     }
 
@@ -203,11 +283,11 @@ public class WebSocketClientReaderTest {
      * @throws IOException if an I/O error occurs
      */
     @Test
-    public void ensureReconnect() throws IOException {
+    public void ensureReconnect() throws IOException, InterruptedException {
         WebSocketClientReader spyClient = spy(client);
-        doNothing().when(spyClient).reconnect();
+        doReturn(true).when(spyClient).reconnectBlocking();
         spyClient.onClose(1006, "Abnormal closure", true);
-        verify(spyClient, atLeastOnce()).reconnect();
+        verify(spyClient, timeout(5000).atLeastOnce()).reconnectBlocking();
     }
 
     /**
@@ -249,4 +329,198 @@ public class WebSocketClientReaderTest {
 
         assertTrue(errContent.toString().contains("Connection attempt failed: Connection attempt failed"));
     }
+
+    /**
+     * Tests that a binary frame round-trips every sample and is smaller than
+     * the same samples as text.
+     */
+    @Test
+    public void checkOnMessage_withBinaryFrame() {
+        DataStorage storage = new DataStorage();
+        WebSocketClientReader reader = new WebSocketClientReader(client.getURI(), storage);
+        SampleFrameEncoder encoder = new SampleFrameEncoder(100);
+        long start = 1714748468033L;
+        int textLength = 0;
+        for (int i = 0; i < 30; i++) {
+            double value = i % 3 == 0 ? 90 + i : -0.34656395320945643 * i;
+            String label = i % 3 == 0 ? "Saturation" : "ECG";
+            encoder.add(20 + i % 2, start + i * 7, label, value);
+            textLength += String.format("%d,%s,%s,%d\n", 20 + i % 2, value, label, start + i * 7).length();
+        }
+        encoder.add(22, start - 5, "Alert", SampleFrameEncoder.parseValue("triggered"));
+        ByteBuffer frame = encoder.finish();
+        assertNull(encoder.finish());
+        assertTrue(frame.remaining() * 2 < textLength);
+
+        reader.onMessage(frame);
+        reader.flush();
+
+        List<PatientRecord> ecg = storage.getRecords(21, "ECG", 0L, Long.MAX_VALUE);
+        assertEquals(10, ecg.size());
+        assertEquals(-0.34656395320945643, ecg.get(0).getMeasurementValue(), 0.0);
+        assertEquals(start + 7, ecg.get(0).getTimestamp());
+        assertEquals(-0.34656395320945643 * 29, ecg.get(9).getMeasurementValue(), 0.0);
+        assertEquals(114.0, storage.getLatestRecord(20, "Saturation").getMeasurementValue(), 0.0);
+        assertEquals(start - 5, storage.getLatestRecord(22, "Alert").getTimestamp());
+        assertEquals(1.0, storage.getLatestRecord(22, "Alert").getMeasurementValue(), 0.0);
+        assertEquals(31, storage.getRecords(20, 0L, Long.MAX_VALUE).size()
+                + storage.getRecords(21, 0L, Long.MAX_VALUE).size()
+                + storage.getRecords(22, 0L, Long.MAX_VALUE).size());
+        reader.stopIngest();
+    }
+
+    /**
+     * Tests that a truncated binary frame is skipped as a whole, without
+     * registering its labels.
+     */
+    @Test
+    public void checkOnMessage_withTruncatedBinaryFrame() {
+        SampleFrameEncoder encoder = new SampleFrameEncoder(10);
+        encoder.add(10, 1714748468033L, "TruncatedFrameType", 0.25);
+        encoder.add(10, 1714748468034L, "TruncatedFrameType", 0.5);
+        ByteBuffer frame = encoder.finish();
+        frame.limit(frame.limit() - 3);
+
+        client.onMessage(frame);
+        client.flush();
+
+        assertEquals(1, client.getMalformedFrameCount());
+        verify(mockDataStorage, never()).addBatch(any(SampleBatch.class));
+        assertEquals(RecordTypeDictionary.UNKNOWN, RecordTypeDictionary.lookup("TruncatedFrameType"));
+    }
+
+    /**
+     * Tests that a reader that reconnects is sent the messages published while
+     * it was away, and counts those the server no longer holds.
+     */
+    @Test
+    public void checkReconnect_resumesStream() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 1, 1000, 8);
+        DataStorage storage = new DataStorage();
+        WebSocketClientReader reader = new WebSocketClientReader(new URI("ws://localhost:" + port), storage);
+        try {
+            boolean connected = reader.connectBlocking(5, TimeUnit.SECONDS);
+            for (int attempt = 0; !connected && attempt < 50; attempt++) {
+                Thread.sleep(100);
+                connected = reader.reconnectBlocking();
+            }
+            assertTrue(connected);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (reader.getStreamId() < 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(reader.getStreamId() >= 0);
+
+            long start = 1714748468033L;
+            for (int i = 0; i < 3; i++) {
+                output.output(30, start + i, "ECG", String.valueOf(i));
+            }
+            awaitLastSequence(reader, 3);
+
+            reader.closeBlocking();
+            for (int i = 3; i < 7; i++) {
+                output.output(30, start + i, "ECG", String.valueOf(i));
+            }
+            assertTrue(reader.reconnectBlocking());
+            awaitLastSequence(reader, 7);
+            assertEquals(0, reader.getMissedMessageCount());
+
+            reader.closeBlocking();
+            for (int i = 7; i < 17; i++) {
+                output.output(30, start + i, "ECG", String.valueOf(i));
+            }
+            assertTrue(reader.reconnectBlocking());
+            awaitLastSequence(reader, 17);
+            assertEquals(2, reader.getMissedMessageCount());
+
+            reader.flush();
+            List<PatientRecord> records = storage.getRecords(30, "ECG", 0L, Long.MAX_VALUE);
+            assertEquals(15, records.size());
+            assertEquals(6.0, records.get(6).getMeasurementValue(), 0.0);
+            assertEquals(9.0, records.get(7).getMeasurementValue(), 0.0);
+        } finally {
+            reader.closeBlocking();
+            reader.stopIngest();
+            output.stop();
+        }
+    }
+
+    private static void awaitLastSequence(WebSocketClientReader reader, long sequence) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (reader.getLastSequence() < sequence && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(sequence, reader.getLastSequence());
+    }
+
+    /**
+     * Tests that a reader whose connection is closed by the server reconnects
+     * by itself and resumes the stream after the last message it received.
+     */
+    @Test
+    public void checkServerClose_reconnectsAndResumes() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> resumeHeaders = new CopyOnWriteArrayList<>();
+        WebSocketServer server = new WebSocketServer(new InetSocketAddress(port)) {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                if (!handshake.hasFieldValue("Resume-From")) {
+                    conn.send("#stream 7 1");
+                    for (int i = 0; i < 3; i++) {
+                        conn.send("40, " + i + ", ECG, " + (1714748468033L + i));
+                    }
+                    conn.close(1001, "going away");
+                } else {
+                    resumeHeaders.add(handshake.getFieldValue("Resume-From"));
+                    conn.send("#stream 7 4");
+                    conn.send("40, 3, ECG, 1714748468036");
+                }
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+            }
+
+            @Override
+            public void onStart() {
+            }
+        };
+        server.setReuseAddr(true);
+        server.start();
+        DataStorage storage = new DataStorage();
+        WebSocketClientReader reader = new WebSocketClientReader(new URI("ws://localhost:" + port), storage);
+        try {
+            boolean connected = reader.connectBlocking(5, TimeUnit.SECONDS);
+            for (int attempt = 0; !connected && attempt < 50; attempt++) {
+                Thread.sleep(100);
+                connected = reader.reconnectBlocking();
+            }
+            assertTrue(connected);
+            awaitLastSequence(reader, 4);
+
+            assertEquals(List.of("7:3"), resumeHeaders);
+            assertEquals(0, reader.getMissedMessageCount());
+            reader.flush();
+            assertEquals(4, storage.getRecords(40, "ECG", 0L, Long.MAX_VALUE).size());
+        } finally {
+            reader.stopIngest();
+            reader.closeBlocking();
+            server.stop();
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeDictionary;
+import com.data_management.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class WriteAheadLogTest {
+    private Path logDirectory;
+
+    @BeforeEach
+    void init() throws IOException {
+        logDirectory = Files.createTempDirectory("wal");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> paths = Files.walk(logDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(file -> {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Test
+    void storageIsRebuiltAfterRestart() throws IOException {
+        DataStorage storage = new DataStorage();
+        assertEquals(0, storage.openWriteAheadLog(logDirectory));
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1714376789050L);
+        storage.addPatientData(1, 80.0, "DiastolicPressure", 1714376789050L);
+        storage.addPatientData(2, 97.0, "Saturation", 1714376789051L);
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        assertEquals(3, restarted.openWriteAheadLog(logDirectory));
+        restarted.closeWriteAheadLog();
+
+        List<PatientRecord> records = restarted.getRecords(1, 1714376789050L, 1714376789051L);
+        assertEquals(2, records.size());
+        assertEquals(97.0, restarted.getRecords(2, "Saturation", 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void recoveryReadsEverySegment() throws IOException {
+        int ecg = RecordTypeDictionary.idOf("ECG");
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory, 1024, 10)) {
+            for (int i = 0; i < 200; i++) {
+                log.append(7, ecg, 1000L + i, i);
+            }
+        }
+
+        DataStorage storage = new DataStorage();
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory, 1024, 10)) {
+            assertEquals(200, log.recover(storage));
+        }
+
+        List<PatientRecord> records = storage.getRecords(7, "ECG", 0L, Long.MAX_VALUE);
+        assertEquals(200, records.size());
+        assertEquals(1199L, records.get(199).getTimestamp());
+        assertEquals(199.0, records.get(199).getMeasurementValue());
+    }
+
+    @Test
+    void recoveredSegmentsCanBeDeleted() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            log.append(1, RecordTypeDictionary.idOf("ECG"), 1000L, 1.0);
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            log.deleteRecoveredSegments();
+            assertEquals(0, log.recover(new DataStorage()));
+        }
+    }
+
+    @Test
+    void batchesAreRecoveredAcrossSegments() throws IOException {
+        int ecg = RecordTypeDictionary.idOf("ECG");
+        int saturation = RecordTypeDictionary.idOf("Saturation");
+        int[] patientIds = new int[100];
+        int[] recordTypeIds = new int[100];
+        long[] timestamps = new long[100];
+        double[] values = new double[100];
+        for (int i = 0; i < 100; i++) {
+            patientIds[i] = 8 + i % 2;
+            recordTypeIds[i] = i % 3 == 0 ? saturation : ecg;
+            timestamps[i] = 1000L + i;
+            values[i] = i;
+        }
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory, 1024, 10)) {
+            for (int batch = 0; batch < 3; batch++) {
+                log.appendBatch(patientIds, recordTypeIds, timestamps, values, 30);
+            }
+            log.appendBatch(patientIds, recordTypeIds, timestamps, values, 100); // larger than a segment
+        }
+
+        DataStorage storage = new DataStorage();
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory, 1024, 10)) {
+            assertEquals(190, log.recover(storage));
+        }
+        assertEquals(95, storage.getRecords(8, 0L, Long.MAX_VALUE).size());
+        assertEquals(99.0, storage.getLatestRecord(9, "Saturation").getMeasurementValue());
+    }
+
+    @Test
+    void segmentIsCreatedByTheFirstAppend() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            log.sync();
+        }
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void truncatedSegmentsAreNotRecovered() throws IOException {
+        int ecg = RecordTypeDictionary.idOf("ECG");
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            log.append(1, ecg, 1000L, 1.0);
+            log.append(1, ecg, 1001L, 2.0);
+            long covered = log.checkpoint();
+            log.append(1, ecg, 1002L, 3.0);
+            log.truncate(covered);
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            assertEquals(1, log.recover(new DataStorage()));
+            log.truncate(log.checkpoint());
+        }
+
+        // segment numbers keep growing after every segment was deleted
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            assertEquals(0, log.recover(new DataStorage()));
+            log.append(1, ecg, 1003L, 4.0);
+        }
+        DataStorage storage = new DataStorage();
+        try (WriteAheadLog log = WriteAheadLog.open(logDirectory)) {
+            assertEquals(1, log.recover(storage));
+        }
+        assertEquals(4.0, storage.getLatestRecord(1, "ECG").getMeasurementValue());
+    }
+
+    @Test
+    void snapshotTruncatesTheLog() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.openWriteAheadLog(logDirectory);
+        for (int i = 0; i < 5; i++) {
+            storage.addPatientData(3, i, "ECG", 1000L + i);
+        }
+        storage.writeSnapshot(logDirectory.resolve("storage.snapshot"));
+        storage.addPatientData(3, 5, "ECG", 1005L);
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        assertEquals(1, restarted.openWriteAheadLog(logDirectory));
+        restarted.closeWriteAheadLog();
+    }
+
+    @Test
+    void replayStopsAtUndeclaredOrCorruptRecords() throws IOException {
+        ByteBuffer first = ByteBuffer.allocate(256);
+        putRecordType(first, 0, "ECG");
+        putSample(first, 1, 0, 1714376789050L, 1.0);
+        putSample(first, 1, 3, 1714376789051L, 2.0); // type 3 was never declared
+        putSample(first, 1, 0, 1714376789052L, 3.0);
+        writeSegment(1, first);
+
+        ByteBuffer second = ByteBuffer.allocate(256);
+        putSample(second, 2, 20, 1714376789050L, 1.0); // beyond any declared type
+        writeSegment(2, second);
+
+        ByteBuffer third = ByteBuffer.allocate(256);
+        third.put((byte) 2).putChar((char) 0).putChar((char) 1000).put((byte) 'E'); // name longer than the file
+        writeSegment(3, third);
+
+        DataStorage storage = new DataStorage();
+        assertEquals(1, storage.openWriteAheadLog(logDirectory));
+        storage.closeWriteAheadLog();
+        assertEquals(1, storage.getRecords(1, "ECG", 0L, Long.MAX_VALUE).size());
+        assertTrue(storage.getRecords(2, 0L, Long.MAX_VALUE).isEmpty());
+    }
+
+    private static void putRecordType(ByteBuffer buffer, int loggedType, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.put((byte) 2).putChar((char) loggedType).putChar((char) bytes.length).put(bytes);
+    }
+
+    private static void putSample(ByteBuffer buffer, int patientId, int loggedType, long timestamp, double value) {
+        buffer.put((byte) 1).putInt(patientId).putChar((char) loggedType).putLong(timestamp).putDouble(value);
+    }
+
+    private void writeSegment(long number, ByteBuffer contents) throws IOException {
+        Files.write(logDirectory.resolve(String.format("wal-%012d.log", number)), contents.array());
+    }
+}